@@ -1,91 +1,160 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.builder;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-import com.jdirsync.model.DiffRecord;
-import com.jdirsync.model.DirectoryNode;
-import com.jdirsync.model.FileNode;
-import com.jdirsync.model.Node;
-import com.jdirsync.util.ArrayUtil;
-
-public class DiffBuilder {
-    private static <T> T nextOrNull(Iterator<T> iterator) {
-        return iterator.hasNext() ? iterator.next() : null;
-    }
-
-
-    public List<DiffRecord> buildDiff(DirectoryNode leftRoot, DirectoryNode rightRoot) {
-        List<DiffRecord> diffList = new ArrayList<>();
-        buildDiff(new String[0], leftRoot, rightRoot, diffList);
-        return diffList;
-    }
-
-
-    private void buildDiff(String[] path, DirectoryNode left, DirectoryNode right, List<DiffRecord> diffList) {
-        Iterator<Node> leftIterator = left.getChildren().iterator();
-        Iterator<Node> rightIterator = right.getChildren().iterator();
-
-        Node leftChild = nextOrNull(leftIterator);
-        Node rightChild = nextOrNull(rightIterator);
-
-        while (leftChild != null || rightChild  != null) {
-            if (leftChild != null && rightChild != null) {
-                int compareResult = leftChild.getName().compareTo(rightChild.getName());
-                if (compareResult < 0) {
-                    diffList.add(new DiffRecord(path, left, leftChild, right, null));
-                    leftChild = nextOrNull(leftIterator);
-                    continue;
-                }
-                if (compareResult > 0) {
-                    diffList.add(new DiffRecord(path, left, null, right, rightChild));
-                    rightChild = nextOrNull(rightIterator);
-                    continue;
-                }
-
-                // leftChild.getName = rightChild.getName
-                if (leftChild instanceof FileNode) {
-                    FileNode leftFileNode = (FileNode) leftChild;
-                    if (!leftFileNode.equals(rightChild)) {
-                        diffList.add( new DiffRecord(path, left, leftChild, right, rightChild) );
-                    }
-                } else if (rightChild instanceof FileNode) {
-                    FileNode rightFileNode = (FileNode) rightChild;
-                    if (!rightFileNode.equals(leftChild)) {
-                        diffList.add( new DiffRecord(path, left, leftChild, right, rightChild) );
-                    }
-                } else {
-                    buildDiff(ArrayUtil.arrayExtend(path, leftChild.getName()), (DirectoryNode) leftChild, (DirectoryNode) rightChild, diffList);
-                }
-                leftChild = nextOrNull(leftIterator);
-                rightChild = nextOrNull(rightIterator);
-            } else if (leftChild != null) {
-                // leftChild == null && rightChild == null
-                diffList.add(new DiffRecord(path, left, leftChild, right, null));
-                leftChild = nextOrNull(leftIterator);
-            } else {
-                // leftChild == null && rightChild != null
-                diffList.add(new DiffRecord(path, left, null, right, rightChild));
-                rightChild = nextOrNull(rightIterator);
-            }
-        }
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.builder;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.metrics.StripedCounter;
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.ArrayUtil;
+
+public class DiffBuilder {
+    private static final EnumMap<DiffRecord.DiffType, StripedCounter> recordCounters = new EnumMap<>(DiffRecord.DiffType.class);
+
+    static {
+        for (DiffRecord.DiffType diffType : DiffRecord.DiffType.values()) {
+            recordCounters.put(diffType, MetricsRegistry.getDefault().counter("diff.records." + diffType.name()));
+        }
+    }
+
+
+    private static List<DiffRecord> countRecords(List<DiffRecord> diffList) {
+        for (DiffRecord diffRecord : diffList) {
+            recordCounters.get(diffRecord.getDiffType()).increment();
+        }
+        return diffList;
+    }
+
+
+    private static <T> T nextOrNull(Iterator<T> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+
+    /**
+     * Files with the same digest (recorded when they were copied) are equal even if the modification
+     * time differs slightly (e.g. FAT file systems only store time with 2 second precision).
+     */
+    private static boolean isSameContent(FileNode leftFileNode, Node rightChild) {
+        return (rightChild instanceof FileNode) && leftFileNode.hasSameDigest((FileNode) rightChild);
+    }
+
+
+    public List<DiffRecord> buildDiff(DirectoryNode leftRoot, DirectoryNode rightRoot) {
+        long start = System.nanoTime();
+        List<DiffRecord> diffList = new ArrayList<>();
+        buildDiff(new String[0], leftRoot, rightRoot, diffList);
+        TraceEvent.DIFF.record(System.nanoTime() - start, "/", diffList.size());
+        return countRecords(diffList);
+    }
+
+
+    /**
+     * Re-evaluates the entry of the given record (e.g. after it was synchronized) - only the subtree
+     * of the record is compared. Returns empty list if both sides are the same.
+     */
+    public List<DiffRecord> buildDiff(DiffRecord diffRecord) {
+        return buildDiff(diffRecord.getPath(), diffRecord.getLeftParent(), diffRecord.getRightParent(), diffRecord.getName());
+    }
+
+
+    /**
+     * Compares only the entry with the given name (and its subtree) of the given parent directories.
+     * Returns empty list if both sides are the same.
+     */
+    public List<DiffRecord> buildDiff(String[] path, DirectoryNode left, DirectoryNode right, String name) {
+        long start = System.nanoTime();
+        List<DiffRecord> diffList = new ArrayList<>();
+        Node leftChild = left.getChild(name);
+        Node rightChild = right.getChild(name);
+
+        if (leftChild != null && rightChild != null) {
+            buildSameNameDiff(path, left, leftChild, right, rightChild, diffList);
+        } else if (leftChild != null || rightChild != null) {
+            diffList.add(new DiffRecord(path, left, leftChild, right, rightChild));
+        }
+        TraceEvent.DIFF.record(System.nanoTime() - start, ArrayUtil.arrayExtend(path, name), diffList.size());
+        return countRecords(diffList);
+    }
+
+
+    private void buildSameNameDiff(String[] path, DirectoryNode left, Node leftChild, DirectoryNode right, Node rightChild,
+                                   List<DiffRecord> diffList) {
+        if (leftChild instanceof FileNode) {
+            FileNode leftFileNode = (FileNode) leftChild;
+            if (!leftFileNode.equals(rightChild) && !isSameContent(leftFileNode, rightChild)) {
+                diffList.add( new DiffRecord(path, left, leftChild, right, rightChild) );
+            }
+        } else if (rightChild instanceof FileNode) {
+            FileNode rightFileNode = (FileNode) rightChild;
+            if (!rightFileNode.equals(leftChild)) {
+                diffList.add( new DiffRecord(path, left, leftChild, right, rightChild) );
+            }
+        } else if (!((DirectoryNode) leftChild).isExpanded() || !((DirectoryNode) rightChild).isExpanded()) {
+            diffList.add( new DiffRecord(path, left, leftChild, right, rightChild) );
+        } else {
+            buildDiff(ArrayUtil.arrayExtend(path, leftChild.getName()), (DirectoryNode) leftChild, (DirectoryNode) rightChild, diffList);
+        }
+    }
+
+
+    private void buildDiff(String[] path, DirectoryNode left, DirectoryNode right, List<DiffRecord> diffList) {
+        Iterator<Node> leftIterator = left.getChildren().iterator();
+        Iterator<Node> rightIterator = right.getChildren().iterator();
+
+        Node leftChild = nextOrNull(leftIterator);
+        Node rightChild = nextOrNull(rightIterator);
+
+        while (leftChild != null || rightChild  != null) {
+            if (leftChild != null && rightChild != null) {
+                int compareResult = leftChild.getName().compareTo(rightChild.getName());
+                if (compareResult < 0) {
+                    diffList.add(new DiffRecord(path, left, leftChild, right, null));
+                    leftChild = nextOrNull(leftIterator);
+                    continue;
+                }
+                if (compareResult > 0) {
+                    diffList.add(new DiffRecord(path, left, null, right, rightChild));
+                    rightChild = nextOrNull(rightIterator);
+                    continue;
+                }
+
+                // leftChild.getName = rightChild.getName
+                buildSameNameDiff(path, left, leftChild, right, rightChild, diffList);
+                leftChild = nextOrNull(leftIterator);
+                rightChild = nextOrNull(rightIterator);
+            } else if (leftChild != null) {
+                // leftChild == null && rightChild == null
+                diffList.add(new DiffRecord(path, left, leftChild, right, null));
+                leftChild = nextOrNull(leftIterator);
+            } else {
+                // leftChild == null && rightChild != null
+                diffList.add(new DiffRecord(path, left, null, right, rightChild));
+                rightChild = nextOrNull(rightIterator);
+            }
+        }
+    }
+}
@@ -1,27 +1,33 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.builder;
-
-import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import com.jdirsync.model.DirectoryNode;
-
-public interface IndexBuilder {
-    public DirectoryNode buildIndex(Path path, AtomicInteger fileCounter);
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.builder;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jdirsync.model.DirectoryNode;
+
+public interface IndexBuilder {
+    public DirectoryNode buildIndex(Path path, AtomicInteger fileCounter);
+
+    /**
+     * Builds index of a sub-directory of the base directory (named after the sub-directory).
+     * Returns null if the sub-directory does not exist.
+     */
+    public DirectoryNode buildIndex(Path basePath, String[] path, AtomicInteger fileCounter);
+}
@@ -1,74 +1,150 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.builder;
-
-import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Date;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import com.jdirsync.model.DirectoryNode;
-import com.jdirsync.model.FileNode;
-import com.jdirsync.model.Node;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class IndexBuilderNio implements IndexBuilder {
-    private static Logger logger = LoggerFactory.getLogger(IndexBuilderNio.class);
-
-    @Override
-    public DirectoryNode buildIndex(Path path, AtomicInteger fileCounter) {
-        return (DirectoryNode) buildNode(path, true, fileCounter);
-    }
-
-    private Node buildNode(Path path, boolean isRoot, AtomicInteger fileCounter) {
-        fileCounter.incrementAndGet();
-
-        if (Files.isDirectory(path)) {
-            try (DirectoryStream<Path> fileIterator = Files.newDirectoryStream(path)) {
-                DirectoryNode directoryNode = isRoot
-                        ? new DirectoryNode(null)
-                        : new DirectoryNode(path.getFileName().toString());
-                for (Path childPath : fileIterator) {
-                    Node childNode = buildNode(childPath, false, fileCounter);
-                    if (childNode != null) {
-                        directoryNode.add(childNode);
-                    }
-                }
-                return directoryNode;
-
-            } catch (IOException ex) {
-                logger.warn(path.toAbsolutePath().toString() + " cannot be traversed !");
-                return null;
-            }
-        } else if (Files.isRegularFile(path)) {
-            try {
-                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
-                return new FileNode(path.getFileName().toString(), attributes.size(), new Date(attributes.lastModifiedTime().toMillis()));
-            } catch (IOException ex) {
-                throw new RuntimeException("Failed to read attributes of " + path.toAbsolutePath().toString());
-            }
-        } else {
-            logger.warn(path.toAbsolutePath().toString() + " is neither file nor directory !");
-            return null;
-        }
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.builder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jdirsync.core.Throttle;
+import com.jdirsync.metrics.LatencyHistogram;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.metrics.StripedCounter;
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class IndexBuilderNio implements IndexBuilder {
+    private static Logger logger = LoggerFactory.getLogger(IndexBuilderNio.class);
+
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+    private static final LatencyHistogram readdirLatency = MetricsRegistry.getDefault().histogram("scan.readdir");
+    private static final LatencyHistogram statLatency = MetricsRegistry.getDefault().histogram("scan.stat");
+    private static final StripedCounter scanErrors = MetricsRegistry.getDefault().counter("scan.errors");
+
+    private final Throttle throttle;
+    private final int maxDepth;
+
+
+    public IndexBuilderNio() {
+        this(new Throttle());
+    }
+
+
+    public IndexBuilderNio(Throttle throttle) {
+        this(throttle, UNLIMITED_DEPTH);
+    }
+
+
+    /**
+     * Lazy mode - only maxDepth levels of directories are listed (1 = only the root), deeper directories
+     * are returned unexpanded and can be scanned later using buildIndex(basePath, path, fileCounter).
+     */
+    public IndexBuilderNio(Throttle throttle, int maxDepth) {
+        this.throttle = throttle;
+        this.maxDepth = maxDepth;
+    }
+
+
+    @Override
+    public DirectoryNode buildIndex(Path path, AtomicInteger fileCounter) {
+        return (DirectoryNode) buildNode(path, true, 0, fileCounter);
+    }
+
+
+    @Override
+    public DirectoryNode buildIndex(Path basePath, String[] path, AtomicInteger fileCounter) {
+        if (path.length == 0) {
+            return buildIndex(basePath, fileCounter);
+        }
+
+        Path directoryPath = basePath;
+        for (String part : path) {
+            directoryPath = directoryPath.resolve(part);
+        }
+        if (!Files.isDirectory(directoryPath)) {
+            return null;
+        }
+        return (DirectoryNode) buildNode(directoryPath, false, 0, fileCounter);
+    }
+
+    private Node buildNode(Path path, boolean isRoot, int depth, AtomicInteger fileCounter) {
+        fileCounter.incrementAndGet();
+        throttle.acquireOperation();
+
+        if (!isRoot && depth >= maxDepth && Files.isDirectory(path)) {
+            return new DirectoryNode(path.getFileName().toString(), false);
+        } else if (Files.isDirectory(path)) {
+            // the listing is collected before recursing, so its latency covers only the directory itself
+            List<Path> childPaths = new ArrayList<>();
+            long start = System.nanoTime();
+            try (DirectoryStream<Path> fileIterator = Files.newDirectoryStream(path)) {
+                for (Path childPath : fileIterator) {
+                    childPaths.add(childPath);
+                }
+            } catch (IOException ex) {
+                scanErrors.increment();
+                logger.warn(path.toAbsolutePath().toString() + " cannot be traversed !");
+                return null;
+            }
+            long duration = System.nanoTime() - start;
+            readdirLatency.record(duration);
+            TraceEvent.LISTING.record(duration, path, childPaths.size());
+
+            DirectoryNode directoryNode = isRoot
+                    ? new DirectoryNode(null)
+                    : new DirectoryNode(path.getFileName().toString());
+            for (Path childPath : childPaths) {
+                if (isRoot && FileUtil.METADATA_DIR_NAME.equals(childPath.getFileName().toString())) {
+                    continue;
+                }
+                Node childNode = buildNode(childPath, false, depth + 1, fileCounter);
+                if (childNode != null) {
+                    directoryNode.add(childNode);
+                }
+            }
+            return directoryNode;
+        } else if (Files.isRegularFile(path)) {
+            try {
+                long start = System.nanoTime();
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                long duration = System.nanoTime() - start;
+                statLatency.record(duration);
+                TraceEvent.STAT.record(duration, path);
+                return new FileNode(path.getFileName().toString(), attributes.size(), new Date(attributes.lastModifiedTime().toMillis()));
+            } catch (IOException ex) {
+                scanErrors.increment();
+                throw new RuntimeException("Failed to read attributes of " + path.toAbsolutePath().toString());
+            }
+        } else {
+            logger.warn(path.toAbsolutePath().toString() + " is neither file nor directory !");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.builder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jdirsync.core.MonitoredExecutor;
+import com.jdirsync.core.Throttle;
+import com.jdirsync.metrics.LatencyHistogram;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.metrics.StripedCounter;
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index builder which lists directories in parallel on a pool of permitCount threads. The calling thread
+ * hands out listings of the discovered sub-directories and keeps at most permitCount of them in progress,
+ * so neither the number of concurrent listings nor the number of threads exceeds permits.
+ *
+ * Produces the same index as IndexBuilderNio (including lazy mode).
+ */
+public class IndexBuilderParallel implements IndexBuilder {
+    private static Logger logger = LoggerFactory.getLogger(IndexBuilderParallel.class);
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // Same metrics as IndexBuilderNio, except that the listing latency includes reading attributes of files
+    private static final LatencyHistogram readdirLatency = MetricsRegistry.getDefault().histogram("scan.readdir");
+    private static final LatencyHistogram statLatency = MetricsRegistry.getDefault().histogram("scan.stat");
+    private static final StripedCounter scanErrors = MetricsRegistry.getDefault().counter("scan.errors");
+
+    private final Throttle throttle;
+    private final int maxDepth;
+    private final int permitCount;
+    private final MonitoredExecutor executor;
+
+
+    public IndexBuilderParallel(Throttle throttle, int permitCount) {
+        this(throttle, permitCount, IndexBuilderNio.UNLIMITED_DEPTH);
+    }
+
+
+    /**
+     * @param permitCount maximum number of directories listed at the same time
+     * @param maxDepth see IndexBuilderNio
+     */
+    public IndexBuilderParallel(Throttle throttle, int permitCount, int maxDepth) {
+        this.throttle = throttle;
+        this.maxDepth = maxDepth;
+        this.permitCount = permitCount;
+        this.executor = new MonitoredExecutor("scan", permitCount, QUEUE_CAPACITY);
+    }
+
+
+    /**
+     * Largest number of listing threads which existed at the same time.
+     */
+    public int getPeakThreadCount() {
+        return executor.getLargestPoolSize();
+    }
+
+
+    /**
+     * Stops the listing threads.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+
+    @Override
+    public DirectoryNode buildIndex(Path path, AtomicInteger fileCounter) {
+        fileCounter.incrementAndGet();
+        return scan(new Listing(path, null, true, 0, fileCounter));
+    }
+
+
+    @Override
+    public DirectoryNode buildIndex(Path basePath, String[] path, AtomicInteger fileCounter) {
+        if (path.length == 0) {
+            return buildIndex(basePath, fileCounter);
+        }
+
+        Path directoryPath = basePath;
+        for (String part : path) {
+            directoryPath = directoryPath.resolve(part);
+        }
+        if (!Files.isDirectory(directoryPath)) {
+            return null;
+        }
+        fileCounter.incrementAndGet();
+        return scan(new Listing(directoryPath, path[path.length - 1], false, 0, fileCounter));
+    }
+
+
+    /**
+     * Lists the tree starting with the root listing - listings are started as permits allow, sub-directories
+     * are added to their parents in listing order once all listings are done.
+     */
+    private DirectoryNode scan(Listing rootListing) {
+        CompletionService<Listing> completionService = new ExecutorCompletionService<>(executor);
+        Deque<Listing> waitingListings = new ArrayDeque<>();
+        waitingListings.add(rootListing);
+        int inProgressCount = 0;
+        RuntimeException failure = null;
+        boolean interrupted = false;
+
+        while (inProgressCount > 0 || (failure == null && !waitingListings.isEmpty())) {
+            while (failure == null && inProgressCount < permitCount && !waitingListings.isEmpty()) {
+                completionService.submit(waitingListings.poll());
+                inProgressCount++;
+            }
+
+            Future<Listing> future;
+            try {
+                future = completionService.take();
+            } catch (InterruptedException ex) {
+                // Listings in progress are awaited, no more are started
+                interrupted = true;
+                if (failure == null) {
+                    failure = new RuntimeException("Listing of " + rootListing.path.toAbsolutePath() + " was interrupted", ex);
+                }
+                continue;
+            }
+            inProgressCount--;
+
+            try {
+                waitingListings.addAll(future.get().subListings);
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = (ex.getCause() instanceof RuntimeException)
+                            ? (RuntimeException) ex.getCause()
+                            : new RuntimeException("Failed to list " + rootListing.path.toAbsolutePath(), ex.getCause());
+                }
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return rootListing.assemble();
+    }
+
+
+    private class Listing implements Callable<Listing> {
+        private final Path path;
+        private final String name;
+        private final boolean isRoot;
+        private final int depth;
+        private final AtomicInteger fileCounter;
+
+        private final List<Listing> subListings = new ArrayList<>();
+        private DirectoryNode directoryNode;
+
+        public Listing(Path path, String name, boolean isRoot, int depth, AtomicInteger fileCounter) {
+            this.path = path;
+            this.name = name;
+            this.isRoot = isRoot;
+            this.depth = depth;
+            this.fileCounter = fileCounter;
+        }
+
+        /**
+         * Lists the directory - files are added right away, sub-directories are collected as listings (lazy mode
+         * adds sub-directories at maxDepth as unexpanded).
+         */
+        @Override
+        public Listing call() {
+            throttle.acquireOperation();
+            DirectoryNode result = new DirectoryNode(name);
+            long start = System.nanoTime();
+            try (DirectoryStream<Path> fileIterator = Files.newDirectoryStream(path)) {
+                for (Path childPath : fileIterator) {
+                    if (isRoot && FileUtil.METADATA_DIR_NAME.equals(childPath.getFileName().toString())) {
+                        continue;
+                    }
+                    fileCounter.incrementAndGet();
+
+                    if (Files.isDirectory(childPath)) {
+                        if (depth + 1 >= maxDepth) {
+                            throttle.acquireOperation();
+                            result.add(new DirectoryNode(childPath.getFileName().toString(), false));
+                        } else {
+                            subListings.add(new Listing(childPath, childPath.getFileName().toString(), false, depth + 1, fileCounter));
+                        }
+                    } else if (Files.isRegularFile(childPath)) {
+                        throttle.acquireOperation();
+                        result.add(readFileNode(childPath));
+                    } else {
+                        throttle.acquireOperation();
+                        logger.warn(childPath.toAbsolutePath().toString() + " is neither file nor directory !");
+                    }
+                }
+                directoryNode = result;
+                long duration = System.nanoTime() - start;
+                readdirLatency.record(duration);
+                TraceEvent.LISTING.record(duration, path, result.getChildren().size() + subListings.size());
+            } catch (IOException ex) {
+                scanErrors.increment();
+                logger.warn(path.toAbsolutePath().toString() + " cannot be traversed !");
+                subListings.clear();
+            }
+            return this;
+        }
+
+        /**
+         * Adds nodes of the sub-directories (null if the directory could not be listed).
+         */
+        public DirectoryNode assemble() {
+            if (directoryNode != null) {
+                for (Listing subListing : subListings) {
+                    DirectoryNode subDirectoryNode = subListing.assemble();
+                    if (subDirectoryNode != null) {
+                        directoryNode.add(subDirectoryNode);
+                    }
+                }
+            }
+            return directoryNode;
+        }
+    }
+
+
+    private static FileNode readFileNode(Path path) {
+        try {
+            long start = System.nanoTime();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long duration = System.nanoTime() - start;
+            statLatency.record(duration);
+            TraceEvent.STAT.record(duration, path);
+            return new FileNode(path.getFileName().toString(), attributes.size(), new Date(attributes.lastModifiedTime().toMillis()));
+        } catch (IOException ex) {
+            scanErrors.increment();
+            throw new RuntimeException("Failed to read attributes of " + path.toAbsolutePath().toString());
+        }
+    }
+}
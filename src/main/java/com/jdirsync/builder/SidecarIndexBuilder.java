@@ -0,0 +1,326 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.builder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.serialization.IndexSerializer;
+import com.jdirsync.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index builder which loads the root index from sidecar file (.jdirsync/index) written after the last
+ * successful synchronization instead of walking the whole root.
+ *
+ * The sidecar is used only if it passes spot-checks - no directory was modified after the index was scanned
+ * (except directories written by the synchronization itself, which may not be modified after the sidecar
+ * was written), listings of sampled directories and size/time of sampled files match. Otherwise the root
+ * is walked by the delegate builder. Scoped rescans always go to the delegate.
+ *
+ * <pre>
+ * sidecar := version:i32 scanTime:i64 syncedCount:i32 syncedPath:utf* index
+ * </pre>
+ */
+public class SidecarIndexBuilder implements IndexBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(SidecarIndexBuilder.class);
+
+    public static final String SIDECAR_FILE_NAME = "index";
+    private static final int SIDECAR_VERSION = 1;
+
+    // FAT stores times with 2 seconds granularity
+    private static final long TIME_TOLERANCE_MILLIS = 2000;
+
+    private final IndexBuilder delegate;
+    private final IndexSerializer serializer;
+    private final int sampleSize;
+    private final Random random = new Random();
+
+
+    /**
+     * @param sampleSize number of directories to list and number of files to check
+     */
+    public SidecarIndexBuilder(IndexBuilder delegate, IndexSerializer serializer, int sampleSize) {
+        this.delegate = delegate;
+        this.serializer = serializer;
+        this.sampleSize = sampleSize;
+    }
+
+
+    public static Path getSidecarPath(Path rootPath) {
+        return rootPath.resolve(FileUtil.METADATA_DIR_NAME).resolve(SIDECAR_FILE_NAME);
+    }
+
+
+    @Override
+    public DirectoryNode buildIndex(Path path, AtomicInteger fileCounter) {
+        DirectoryNode index = loadIndex(path, fileCounter);
+        return (index != null) ? index : delegate.buildIndex(path, fileCounter);
+    }
+
+
+    @Override
+    public DirectoryNode buildIndex(Path basePath, String[] path, AtomicInteger fileCounter) {
+        return delegate.buildIndex(basePath, path, fileCounter);
+    }
+
+
+    /**
+     * Writes index of the root to its sidecar file (to be called once the index matches the root).
+     *
+     * @param scanTime time when scanning of the index started (directories modified later are rescanned)
+     * @param syncedPaths full paths (DiffRecord.getFullPathString()) of entries written by the synchronization
+     *                    after the scan - their parents and their subtrees are checked against the sidecar time
+     */
+    public void saveIndex(Path rootPath, DirectoryNode index, long scanTime, Collection<String> syncedPaths) {
+        Path sidecarPath = getSidecarPath(rootPath);
+        Path tempPath = sidecarPath.resolveSibling(SIDECAR_FILE_NAME + ".tmp");
+        List<String> writtenPaths = new ArrayList<>(syncedPaths);
+        if (!Files.isDirectory(sidecarPath.getParent())) {
+            // Creating the metadata directory modifies the root
+            writtenPaths.add(FileUtil.METADATA_DIR_NAME);
+        }
+        FileUtil.createDirectories(sidecarPath.getParent());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                out.writeInt(SIDECAR_VERSION);
+                out.writeLong(scanTime);
+                out.writeInt(writtenPaths.size());
+                for (String writtenPath : writtenPaths) {
+                    out.writeUTF(writtenPath);
+                }
+                serializer.indexToStream(index, out);
+            }
+            Files.move(tempPath, sidecarPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write " + sidecarPath.toAbsolutePath(), ex);
+        }
+    }
+
+
+    /**
+     * Returns index loaded from the sidecar or null if there is none or it fails the spot-checks.
+     */
+    public DirectoryNode loadIndex(Path rootPath, AtomicInteger fileCounter) {
+        Path sidecarPath = getSidecarPath(rootPath);
+        if (!Files.isRegularFile(sidecarPath)) {
+            return null;
+        }
+
+        DirectoryNode index;
+        long scanTime;
+        long sidecarTime;
+        Set<String> writtenPaths = new HashSet<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecarPath)))) {
+            sidecarTime = Files.getLastModifiedTime(sidecarPath).toMillis();
+            int version = in.readInt();
+            if (version != SIDECAR_VERSION) {
+                throw new IOException("Unsupported sidecar version " + version);
+            }
+            scanTime = in.readLong();
+            int writtenCount = in.readInt();
+            for (int i = 0; i < writtenCount; i++) {
+                writtenPaths.add(in.readUTF());
+            }
+            index = serializer.indexFromStream(in);
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Index sidecar " + sidecarPath.toAbsolutePath() + " cannot be read !", ex);
+            return null;
+        }
+
+        String problem = check(rootPath, index, scanTime, sidecarTime, writtenPaths, fileCounter);
+        if (problem != null) {
+            logger.info("Index sidecar " + sidecarPath.toAbsolutePath() + " is out of date (" + problem + ")");
+            return null;
+        }
+        logger.info("Index of " + rootPath.toAbsolutePath() + " loaded from sidecar");
+        return index;
+    }
+
+
+    /**
+     * Returns description of the first mismatch found or null if the index passed all checks.
+     */
+    private String check(Path rootPath, DirectoryNode index, long scanTime, long sidecarTime, Set<String> writtenPaths,
+                         AtomicInteger fileCounter) {
+        List<DirectoryNode> directories = new ArrayList<>();
+        List<Path> directoryPaths = new ArrayList<>();
+        List<FileNode> fileSample = new ArrayList<>();
+        List<Path> fileSamplePaths = new ArrayList<>();
+        collect(index, rootPath, directories, directoryPaths, new int[1], fileSample, fileSamplePaths);
+
+        // Parents of written entries and written subtrees
+        Set<String> writtenParents = new HashSet<>();
+        for (String writtenPath : writtenPaths) {
+            int separatorIndex = writtenPath.lastIndexOf('/');
+            writtenParents.add((separatorIndex < 0) ? "" : writtenPath.substring(0, separatorIndex));
+        }
+
+        // Adding/removing/renaming an entry changes modification time of its directory
+        try {
+            for (Path directoryPath : directoryPaths) {
+                fileCounter.incrementAndGet();
+                long modificationTime = Files.getLastModifiedTime(directoryPath).toMillis();
+                if (modificationTime <= scanTime + TIME_TOLERANCE_MILLIS) {
+                    continue;
+                }
+                String relativePath = toRelativeString(rootPath, directoryPath);
+                if (modificationTime > sidecarTime + TIME_TOLERANCE_MILLIS
+                        || (!writtenParents.contains(relativePath) && !isWithin(relativePath, writtenPaths))) {
+                    return directoryPath + " was modified";
+                }
+            }
+        } catch (IOException ex) {
+            return ex.toString();
+        }
+
+        // ... not on every file system - compare listings of sampled directories
+        for (int i=0; i<sampleSize && !directories.isEmpty(); i++) {
+            int sampleIndex = random.nextInt(directories.size());
+            DirectoryNode directory = directories.remove(sampleIndex);
+            Path directoryPath = directoryPaths.remove(sampleIndex);
+            fileCounter.incrementAndGet();
+            if (!getNames(directory).equals(listNames(directoryPath, directory == index))) {
+                return directoryPath + " listing differs";
+            }
+        }
+
+        // Files modified in place
+        for (int i=0; i<fileSample.size(); i++) {
+            Path filePath = fileSamplePaths.get(i);
+            FileNode fileNode = fileSample.get(i);
+            fileCounter.incrementAndGet();
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()
+                        || attributes.size() != fileNode.getSize()
+                        || attributes.lastModifiedTime().toMillis() != fileNode.getModificationTime().getTime()) {
+                    return filePath + " was modified";
+                }
+            } catch (IOException ex) {
+                return ex.toString();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Collects expanded directories and random sample of files (reservoir sampling).
+     */
+    private void collect(DirectoryNode directory, Path directoryPath, List<DirectoryNode> directories, List<Path> directoryPaths,
+                         int[] fileCount, List<FileNode> fileSample, List<Path> fileSamplePaths) {
+        if (!directory.isExpanded()) {
+            return;
+        }
+        directories.add(directory);
+        directoryPaths.add(directoryPath);
+
+        for (Node child : directory.getChildren()) {
+            Path childPath = directoryPath.resolve(child.getName());
+            if (child instanceof DirectoryNode) {
+                collect((DirectoryNode) child, childPath, directories, directoryPaths, fileCount, fileSample, fileSamplePaths);
+            } else if (fileSample.size() < sampleSize) {
+                fileSample.add((FileNode) child);
+                fileSamplePaths.add(childPath);
+                fileCount[0]++;
+            } else {
+                int sampleIndex = random.nextInt(++fileCount[0]);
+                if (sampleIndex < sampleSize) {
+                    fileSample.set(sampleIndex, (FileNode) child);
+                    fileSamplePaths.set(sampleIndex, childPath);
+                }
+            }
+        }
+    }
+
+
+    private static String toRelativeString(Path rootPath, Path path) {
+        StringBuilder result = new StringBuilder();
+        for (Path name : rootPath.relativize(path)) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(name.toString());
+        }
+        return result.toString();
+    }
+
+
+    /**
+     * Returns true if the path is one of the given paths or lies within one of them.
+     */
+    private static boolean isWithin(String path, Set<String> paths) {
+        String ancestor = path;
+        while (!ancestor.isEmpty()) {
+            if (paths.contains(ancestor)) {
+                return true;
+            }
+            int separatorIndex = ancestor.lastIndexOf('/');
+            ancestor = (separatorIndex < 0) ? "" : ancestor.substring(0, separatorIndex);
+        }
+        return false;
+    }
+
+
+    private static Set<String> getNames(DirectoryNode directory) {
+        Set<String> result = new HashSet<>();
+        for (Node child : directory.getChildren()) {
+            result.add(child.getName());
+        }
+        return result;
+    }
+
+
+    private static Set<String> listNames(Path directoryPath, boolean isRoot) {
+        Set<String> result = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directoryPath)) {
+            for (Path childPath : stream) {
+                String name = childPath.getFileName().toString();
+                if (!isRoot || !FileUtil.METADATA_DIR_NAME.equals(name)) {
+                    result.add(name);
+                }
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+        return result;
+    }
+}
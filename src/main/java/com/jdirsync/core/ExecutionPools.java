@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Separate pools for blocking file system work (scanning, copying, index files) and for CPU work
+ * (diff, hashing, serialization) so that one kind of work cannot starve the other.
+ */
+public class ExecutionPools {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionPools.class);
+
+    private final MonitoredExecutor ioExecutor;
+    private final MonitoredExecutor cpuExecutor;
+
+
+    public ExecutionPools() {
+        // I/O threads mostly wait for the disk - a few more than CPUs keep the devices busy
+        this(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()),
+                Runtime.getRuntime().availableProcessors(),
+                1024);
+    }
+
+
+    public ExecutionPools(int ioThreadCount, int cpuThreadCount, int queueCapacity) {
+        this.ioExecutor = new MonitoredExecutor("io", ioThreadCount, queueCapacity);
+        this.cpuExecutor = new MonitoredExecutor("cpu", cpuThreadCount, queueCapacity);
+    }
+
+
+    public MonitoredExecutor getIoExecutor() {
+        return ioExecutor;
+    }
+
+
+    public MonitoredExecutor getCpuExecutor() {
+        return cpuExecutor;
+    }
+
+
+    public void shutdown() {
+        logger.info("Execution pools: " + this);
+        ioExecutor.shutdown();
+        cpuExecutor.shutdown();
+    }
+
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return ioExecutor.awaitTermination(timeout, unit)
+                && cpuExecutor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+
+    @Override
+    public String toString() {
+        return ioExecutor + " " + cpuExecutor;
+    }
+}
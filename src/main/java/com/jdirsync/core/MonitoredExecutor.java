@@ -0,0 +1,206 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.core;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool with bounded queue which reports its load. Once the queue is full a worker thread (of any
+ * monitored pool) submitting a task runs the task itself (backpressure instead of rejection or unbounded
+ * growth). Other threads (e.g. UI thread) must not block or run a whole scan inline - their tasks are kept
+ * in an overflow queue which is moved to the pool queue as the workers free it.
+ */
+public class MonitoredExecutor extends ThreadPoolExecutor {
+    private final String name;
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final Queue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+
+
+    private static class WorkerThread extends Thread {
+        public WorkerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+
+    public MonitoredExecutor(final String name, int threadCount, int queueCapacity) {
+        super(threadCount, threadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new WorkerThread(runnable, name + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                if (isShutdown()) {
+                    throw new RejectedExecutionException(name + " is shut down");
+                }
+                if (Thread.currentThread() instanceof WorkerThread) {
+                    callerRunsCount.incrementAndGet();
+                    runnable.run();
+                } else {
+                    overflowCount.incrementAndGet();
+                    overflow.add(runnable);
+                    drainOverflow();
+                }
+            }
+        });
+    }
+
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        if (!overflow.isEmpty()) {
+            drainOverflow();
+        }
+    }
+
+
+    /**
+     * Moves overflowing tasks (in submission order) to the pool queue while it has space.
+     */
+    private void drainOverflow() {
+        synchronized (overflow) {
+            Runnable runnable;
+            while ((runnable = overflow.peek()) != null && getQueue().offer(runnable)) {
+                overflow.poll();
+            }
+        }
+        // Queue was filled directly - make sure there is a worker to take it (idle workers time out)
+        if (getPoolSize() == 0) {
+            prestartCoreThread();
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new TimedRunnable(command));
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+
+    /**
+     * Number of tasks which were run by the submitting thread because the queue was full.
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+
+    /**
+     * Number of tasks submitted by non-worker threads which were kept in the overflow queue because the queue was full.
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+
+    public int getOverflowDepth() {
+        return overflow.size();
+    }
+
+
+    public long getAverageWaitMillis() {
+        long count = completedCount.get();
+        return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count);
+    }
+
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+
+    public long getAverageRunMillis() {
+        long count = completedCount.get();
+        return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / count);
+    }
+
+
+    @Override
+    public String toString() {
+        return name + "[threads=" + getActiveCount() + "/" + getMaximumPoolSize()
+                + ", queue=" + getQueueDepth() + "/" + (getQueueDepth() + getQueue().remainingCapacity())
+                + ", overflow=" + getOverflowDepth() + "/" + overflowCount.get()
+                + ", completed=" + completedCount.get()
+                + ", callerRuns=" + callerRunsCount.get()
+                + ", wait(avg/max)=" + getAverageWaitMillis() + "/" + getMaxWaitMillis() + "ms"
+                + ", run(avg)=" + getAverageRunMillis() + "ms]";
+    }
+
+
+    private class TimedRunnable implements Runnable {
+        private final Runnable runnable;
+        private final long submitTime = System.nanoTime();
+
+        public TimedRunnable(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            long waitNanos = startTime - submitTime;
+            totalWaitNanos.addAndGet(waitNanos);
+            long maxWait;
+            while (waitNanos > (maxWait = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(maxWait, waitNanos)) {
+                // Retry
+            }
+
+            try {
+                runnable.run();
+            } finally {
+                totalRunNanos.addAndGet(System.nanoTime() - startTime);
+                completedCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Progress channel tasks publish to (events such as phase or completion, counters such as files scanned
+ * or bytes copied). Updates are coalesced - at most one frame per frameMillis is taken, and only frames
+ * in which something changed are delivered (as snapshot of all latest values) using the delivery executor.
+ *
+ * Frames are scheduled on a shared scheduler only while there is something to deliver or some counter
+ * is tracked - there is no thread waiting for the task.
+ */
+public class ProgressChannel {
+    public static final String DONE_SUFFIX = ".done";
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor deliveryExecutor;
+    private final long frameMillis;
+
+    private final Map<String, Object> pendingValues = new ConcurrentHashMap<>();
+    private final Map<String, Number> counters = new ConcurrentHashMap<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean deliveryForced = new AtomicBoolean(false);
+    private volatile Action1<Map<String, Object>> listener;
+    private volatile boolean closed = false;
+    private volatile long lastFrameTime = 0;
+
+    // Latest values (accessed by frames only, frames never overlap)
+    private final Map<String, Object> state = new HashMap<>();
+
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            frame();
+        }
+    };
+
+
+    public ProgressChannel(ScheduledExecutorService scheduler, Executor deliveryExecutor, long frameMillis) {
+        this.scheduler = scheduler;
+        this.deliveryExecutor = deliveryExecutor;
+        this.frameMillis = frameMillis;
+    }
+
+
+    /**
+     * Sets listener which receives batches - the current state is delivered to it in the next frame.
+     */
+    public void subscribe(Action1<Map<String, Object>> listener) {
+        this.listener = listener;
+        deliveryForced.set(true);
+        requestFrame();
+    }
+
+
+    /**
+     * Publishes value of the topic (only the latest value of each topic is delivered).
+     */
+    public void publish(String topic, Object value) {
+        pendingValues.put(topic, value);
+        requestFrame();
+    }
+
+
+    /**
+     * Counter is sampled once per frame until the channel is closed.
+     */
+    public void track(String topic, Number counter) {
+        counters.put(topic, counter);
+        requestFrame();
+    }
+
+
+    /**
+     * Returns task which publishes topic + DONE_SUFFIX once it completes (with result, exception or cancelled).
+     */
+    public <T> Promise<T> newTask(Callable<T> callable, final String topic) {
+        Promise<T> promise = new Promise<>(callable);
+        promise.onComplete(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                publish(topic + DONE_SUFFIX, Boolean.TRUE);
+            }
+        });
+        return promise;
+    }
+
+
+    /**
+     * Stops frames - batches which were not delivered yet are dropped.
+     */
+    public void close() {
+        closed = true;
+    }
+
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+
+    private void requestFrame() {
+        if (closed || !frameScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(0, lastFrameTime + frameMillis - System.currentTimeMillis());
+        scheduler.schedule(frameRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void frame() {
+        lastFrameTime = System.currentTimeMillis();
+
+        boolean changed = false;
+        for (String topic : pendingValues.keySet()) {
+            Object value = pendingValues.remove(topic);
+            if (value != null && !value.equals(state.put(topic, value))) {
+                changed = true;
+            }
+        }
+        for (Map.Entry<String, Number> entry : counters.entrySet()) {
+            Long value = entry.getValue().longValue();
+            if (!value.equals(state.put(entry.getKey(), value))) {
+                changed = true;
+            }
+        }
+
+        final Action1<Map<String, Object>> currentListener = listener;
+        if (currentListener != null && (deliveryForced.getAndSet(false) | changed)) {
+            final Map<String, Object> batch = Collections.unmodifiableMap(new HashMap<>(state));
+            deliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        currentListener.invoke(batch);
+                    }
+                }
+            });
+        }
+
+        // Values published during this frame are picked by the next one
+        frameScheduled.set(false);
+        if (!counters.isEmpty() || !pendingValues.isEmpty() || deliveryForced.get()) {
+            requestFrame();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Future which can be chained without blocking - callbacks registered with onComplete() run once the
+ * promise is done and derived promises (then, compose, combine, withTimeout) are completed from them.
+ *
+ * Failure of a source fails derived promises with the same cause, cancellation of a source cancels them.
+ * Cancelling a derived promise cancels its sources (i.e. cancelling the last stage stops the whole pipeline).
+ */
+public class Promise<T> extends FutureTask<T> {
+    private static final Callable<Object> NOT_RUNNABLE = new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+            throw new IllegalStateException("Promise is completed explicitly");
+        }
+    };
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile List<Future<?>> sources = Collections.emptyList();
+    private boolean done = false;
+
+
+    /**
+     * Promise of the callable result (the promise has to be run, e.g. by an executor).
+     */
+    public Promise(Callable<T> callable) {
+        super(callable);
+    }
+
+
+    /**
+     * Promise completed explicitly by complete() or fail().
+     */
+    @SuppressWarnings("unchecked")
+    public Promise() {
+        super((Callable<T>) NOT_RUNNABLE);
+    }
+
+
+    public static <T> Promise<T> submit(Executor executor, Callable<T> callable) {
+        Promise<T> promise = new Promise<>(callable);
+        executor.execute(promise);
+        return promise;
+    }
+
+
+    public static <T> Promise<T> completed(T value) {
+        Promise<T> promise = new Promise<>();
+        promise.complete(value);
+        return promise;
+    }
+
+
+    /**
+     * Promise which mirrors the completion but cancels the given future (e.g. task with cooperative
+     * cancellation) when cancelled.
+     */
+    public static <T> Promise<T> of(final Promise<T> completion, Future<?> source) {
+        final Promise<T> promise = new Promise<>();
+        promise.sources = Collections.<Future<?>>singletonList(source);
+        completion.onComplete(DIRECT_EXECUTOR, new Runnable() {
+            @Override
+            public void run() {
+                if (promise.propagateFailure(completion)) {
+                    promise.complete(getNow(completion));
+                }
+            }
+        });
+        return promise;
+    }
+
+
+    public boolean complete(T value) {
+        if (isDone()) {
+            return false;
+        }
+        set(value);
+        return true;
+    }
+
+
+    public boolean fail(Throwable cause) {
+        if (isDone()) {
+            return false;
+        }
+        setException(cause);
+        return true;
+    }
+
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean result = super.cancel(mayInterruptIfRunning);
+        if (result) {
+            for (Future<?> source : sources) {
+                source.cancel(mayInterruptIfRunning);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Runs the callback by the executor once the promise is done (immediately if it is done already).
+     */
+    public void onComplete(final Executor executor, final Runnable callback) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(callback);
+            }
+        };
+        synchronized (callbacks) {
+            if (!done) {
+                callbacks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+
+    /**
+     * Returns promise of function applied (by the executor) to the result.
+     */
+    public <R> Promise<R> then(final Executor executor, final Func1<? super T, R> function) {
+        final Promise<R> promise = derive(this);
+        onComplete(executor, new Runnable() {
+            @Override
+            public void run() {
+                if (promise.propagateFailure(Promise.this)) {
+                    try {
+                        promise.complete(function.invoke(getNow(Promise.this)));
+                    } catch (Throwable ex) {
+                        promise.fail(ex);
+                    }
+                }
+            }
+        });
+        return promise;
+    }
+
+
+    /**
+     * Returns promise of the promise returned by function (stage started once this one is done).
+     */
+    public <R> Promise<R> compose(final Executor executor, final Func1<? super T, Promise<R>> function) {
+        final Promise<R> promise = derive(this);
+        onComplete(executor, new Runnable() {
+            @Override
+            public void run() {
+                if (promise.propagateFailure(Promise.this)) {
+                    try {
+                        final Promise<R> stage = function.invoke(getNow(Promise.this));
+                        promise.sources = Arrays.<Future<?>>asList(Promise.this, stage);
+                        if (promise.isCancelled()) {
+                            stage.cancel(true);
+                        }
+                        stage.onComplete(DIRECT_EXECUTOR, new Runnable() {
+                            @Override
+                            public void run() {
+                                if (promise.propagateFailure(stage)) {
+                                    promise.complete(getNow(stage));
+                                }
+                            }
+                        });
+                    } catch (Throwable ex) {
+                        promise.fail(ex);
+                    }
+                }
+            }
+        });
+        return promise;
+    }
+
+
+    /**
+     * Returns promise of function applied to results of both promises (once both are done).
+     */
+    public static <T1, T2, R> Promise<R> combine(final Promise<T1> promise1, final Promise<T2> promise2,
+                                                final Executor executor, final Func2<? super T1, ? super T2, R> function) {
+        final Promise<R> promise = derive(promise1, promise2);
+        final AtomicBoolean invoked = new AtomicBoolean(false);
+        Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+                // Fail fast - the other source is cancelled once one of them fails
+                if (!promise.propagateFailure(promise1) || !promise.propagateFailure(promise2)) {
+                    promise1.cancel(true);
+                    promise2.cancel(true);
+                    return;
+                }
+                // Both callbacks may see both sources done - only one of them invokes the function
+                if (promise1.isDone() && promise2.isDone() && invoked.compareAndSet(false, true)) {
+                    try {
+                        promise.complete(function.invoke(getNow(promise1), getNow(promise2)));
+                    } catch (Throwable ex) {
+                        promise.fail(ex);
+                    }
+                }
+            }
+        };
+        promise1.onComplete(executor, callback);
+        promise2.onComplete(executor, callback);
+        return promise;
+    }
+
+
+    /**
+     * Returns promise which fails with TimeoutException (and cancels this one) if this promise is not
+     * done within the timeout.
+     */
+    public Promise<T> withTimeout(ScheduledExecutorService scheduler, final long timeout, final TimeUnit unit) {
+        final Promise<T> promise = derive(this);
+        final Future<?> timer = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (promise.fail(new TimeoutException("Not completed within " + timeout + " " + unit))) {
+                    Promise.this.cancel(true);
+                }
+            }
+        }, timeout, unit);
+
+        onComplete(DIRECT_EXECUTOR, new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+                if (promise.propagateFailure(Promise.this)) {
+                    promise.complete(getNow(Promise.this));
+                }
+            }
+        });
+        return promise;
+    }
+
+
+    @Override
+    protected void done() {
+        List<Runnable> pending;
+        synchronized (callbacks) {
+            done = true;
+            pending = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : pending) {
+            callback.run();
+        }
+    }
+
+
+    private static <R> Promise<R> derive(Future<?>... sources) {
+        Promise<R> promise = new Promise<>();
+        promise.sources = Arrays.asList(sources);
+        return promise;
+    }
+
+
+    /**
+     * Passes failure or cancellation of the done source to this promise - returns true if the source has
+     * result (or is not done yet).
+     */
+    private boolean propagateFailure(Future<?> source) {
+        if (!source.isDone()) {
+            return true;
+        }
+        if (source.isCancelled()) {
+            cancel(false);
+            return false;
+        }
+        try {
+            source.get();
+            return true;
+        } catch (ExecutionException ex) {
+            fail(ex.getCause());
+            return false;
+        } catch (InterruptedException ex) {
+            // Cannot happen - the source is done
+            Thread.currentThread().interrupt();
+            fail(ex);
+            return false;
+        }
+    }
+
+
+    private static <T> T getNow(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IllegalStateException("Future is not completed successfully", ex);
+        }
+    }
+
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+}
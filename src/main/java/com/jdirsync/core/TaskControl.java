@@ -0,0 +1,73 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.core;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Allows pausing, resuming and cancelling of a running task. The task has to call checkpoint()
+ * regularly (e.g. after each copied chunk) - the calls block while the task is paused and throw
+ * CancellationException once the task has been cancelled.
+ */
+public class TaskControl {
+    private boolean paused = false;
+    private boolean cancelled = false;
+
+
+    public synchronized void pause() {
+        paused = true;
+    }
+
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    public synchronized void checkpoint() {
+        while (paused && !cancelled) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+
+        if (cancelled) {
+            throw new CancellationException("Task was cancelled");
+        }
+    }
+}
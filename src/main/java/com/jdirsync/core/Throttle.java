@@ -0,0 +1,69 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.core;
+
+/**
+ * Limits file system bandwidth (bytes/second) and file operations (operations/second).
+ * A single instance is shared by index building and synchronization so that the limits
+ * can be changed while a task is running. Zero means unlimited.
+ */
+public class Throttle {
+    private final TokenBucket bytesBucket;
+    private final TokenBucket operationsBucket;
+
+
+    public Throttle() {
+        this(0, 0);
+    }
+
+
+    public Throttle(long bytesPerSecond, long operationsPerSecond) {
+        this.bytesBucket = new TokenBucket(bytesPerSecond);
+        this.operationsBucket = new TokenBucket(operationsPerSecond);
+    }
+
+
+    public long getBytesPerSecond() {
+        return bytesBucket.getRatePerSecond();
+    }
+
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        bytesBucket.setRatePerSecond(bytesPerSecond);
+    }
+
+
+    public long getOperationsPerSecond() {
+        return operationsBucket.getRatePerSecond();
+    }
+
+
+    public void setOperationsPerSecond(long operationsPerSecond) {
+        operationsBucket.setRatePerSecond(operationsPerSecond);
+    }
+
+
+    public void acquireBytes(long bytes) {
+        bytesBucket.acquire(bytes);
+    }
+
+
+    public void acquireOperation() {
+        operationsBucket.acquire(1);
+    }
+}
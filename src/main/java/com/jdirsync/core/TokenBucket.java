@@ -0,0 +1,85 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.core;
+
+/**
+ * Token bucket limiting the rate of some resource (bytes, operations) per second.
+ * The rate can be changed at any time - threads waiting for tokens pick up the new rate immediately.
+ * Rate 0 means unlimited.
+ */
+public class TokenBucket {
+    private static final long MAX_WAIT_MILLIS = 100;
+
+    private long ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+
+    public TokenBucket(long ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = ratePerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+
+    public synchronized long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+
+    public synchronized void setRatePerSecond(long ratePerSecond) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = Math.min(tokens, ratePerSecond);
+        notifyAll();
+    }
+
+
+    /**
+     * Blocks until the given amount can be taken from the bucket.
+     * Amounts larger than the bucket capacity are allowed - the bucket goes into debt which delays later callers.
+     * When interrupted returns immediately with the interrupted flag set.
+     */
+    public synchronized void acquire(long amount) {
+        while (ratePerSecond > 0) {
+            refill();
+            if (tokens > 0) {
+                tokens = tokens - amount;
+                return;
+            }
+
+            long waitMillis = (long) Math.ceil(-tokens * 1000.0 / ratePerSecond);
+            try {
+                wait(Math.max(1, Math.min(waitMillis, MAX_WAIT_MILLIS)));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (ratePerSecond > 0) {
+            // Bucket holds at most one second worth of tokens
+            tokens = Math.min(ratePerSecond, tokens + (now - lastRefillNanos) * ratePerSecond / 1.0e9);
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histogram with power-of-two microsecond buckets (bucket i holds latencies below 2^i us).
+ * Percentiles are reported as upper bounds of their buckets.
+ */
+public class LatencyHistogram {
+    private static final int BUCKET_COUNT = 40;
+
+    private final StripedCounter[] buckets = new StripedCounter[BUCKET_COUNT];
+    private final StripedCounter totalNanos = new StripedCounter();
+
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new StripedCounter();
+        }
+    }
+
+
+    /**
+     * Records latency of operation started at startNanos (System.nanoTime()).
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket].increment();
+        totalNanos.add(nanos);
+    }
+
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(counts, totalNanos.sum());
+    }
+
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+
+        public Snapshot(long[] counts, long totalNanos) {
+            this.counts = counts;
+            this.totalNanos = totalNanos;
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            this.count = total;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMicros() {
+            return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos / count);
+        }
+
+        /**
+         * Returns upper bound (in microseconds) of the bucket containing the given percentile (0 - 100).
+         */
+        public long getPercentileMicros(double percentile) {
+            long threshold = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= threshold && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + " mean=" + getMeanMicros() + "us"
+                    + " p50<" + getPercentileMicros(50) + "us"
+                    + " p90<" + getPercentileMicros(90) + "us"
+                    + " p99<" + getPercentileMicros(99) + "us"
+                    + " max<" + getPercentileMicros(100) + "us";
+        }
+    }
+}
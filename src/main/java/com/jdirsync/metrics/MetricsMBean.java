@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class MetricsMBean implements MetricsMXBean {
+    public static final String OBJECT_NAME = "com.jdirsync:type=Metrics";
+
+    private final MetricsRegistry registry;
+    private MetricsRegistry.Snapshot lastRateSnapshot;
+
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+        this.lastRateSnapshot = registry.snapshot();
+    }
+
+
+    /**
+     * Registers MBean of the registry in the platform MBean server.
+     */
+    public static void register(MetricsRegistry registry) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(registry), name);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return new TreeMap<>(registry.snapshot().getCounters());
+    }
+
+
+    @Override
+    public synchronized Map<String, Double> getRatesPerSecond() {
+        MetricsRegistry.Snapshot current = registry.snapshot();
+        Map<String, Double> rates = current.ratesSince(lastRateSnapshot);
+        lastRateSnapshot = current;
+        return rates;
+    }
+
+
+    @Override
+    public Map<String, String> getLatencies() {
+        Map<String, String> latencies = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : registry.snapshot().getHistograms().entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().toString());
+        }
+        return latencies;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named counters, gauges and latency histograms for scan, diff and sync throughput.
+ * The process-wide registry is reachable via getDefault(), is exported over JMX by MetricsMBean
+ * and can be read programmatically via snapshot().
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Number> gauges = new ConcurrentHashMap<>();
+
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+
+    public StripedCounter counter(String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Registers gauge read on every snapshot (e.g. AtomicInteger updated by running task). Replaces previous
+     * gauge of the same name.
+     */
+    public void gauge(String name, Number value) {
+        gauges.put(name, value);
+    }
+
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, Number> entry : gauges.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().longValue());
+        }
+        Map<String, LatencyHistogram.Snapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(System.nanoTime(), counterValues, histogramValues);
+    }
+
+
+    public static class Snapshot {
+        private final long nanoTime;
+        private final Map<String, Long> counters;
+        private final Map<String, LatencyHistogram.Snapshot> histograms;
+
+        public Snapshot(long nanoTime, Map<String, Long> counters, Map<String, LatencyHistogram.Snapshot> histograms) {
+            this.nanoTime = nanoTime;
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        public long getCounter(String name) {
+            Long value = counters.get(name);
+            return (value == null) ? 0 : value;
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public Map<String, LatencyHistogram.Snapshot> getHistograms() {
+            return histograms;
+        }
+
+        /**
+         * Returns per-second rates of all counters between the earlier snapshot and this one.
+         */
+        public Map<String, Double> ratesSince(Snapshot earlier) {
+            double seconds = Math.max(1, nanoTime - earlier.nanoTime) / 1e9;
+            Map<String, Double> rates = new TreeMap<>();
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                long delta = entry.getValue() - earlier.getCounter(entry.getKey());
+                rates.put(entry.getKey(), delta / seconds);
+            }
+            return rates;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter striped across cache lines (LongAdder is not available on Java 7) - each thread adds to its own
+ * stripe, so counting on hot paths does not contend. Reading sums all stripes.
+ */
+public class StripedCounter {
+    // 16 longs = 128 bytes between stripes (no false sharing)
+    private static final int PADDING = 16;
+    private static final int STRIPE_COUNT = stripeCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPE_COUNT * PADDING);
+
+
+    private static int stripeCount() {
+        int count = 1;
+        while (count < 2 * Runtime.getRuntime().availableProcessors()) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+
+    public void increment() {
+        add(1);
+    }
+
+
+    public void add(long value) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPE_COUNT - 1));
+        cells.addAndGet(stripe * PADDING, value);
+    }
+
+
+    public long sum() {
+        long result = 0;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            result += cells.get(i * PADDING);
+        }
+        return result;
+    }
+}
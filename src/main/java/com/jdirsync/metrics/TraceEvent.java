@@ -0,0 +1,96 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Slow-operation trace events - an operation taking longer than the threshold of its event type is logged
+ * (at debug level) to logger com.jdirsync.trace.<name> with its duration, subject (e.g. path) and amount
+ * (e.g. bytes). Subject is formatted only when logged. Operations below the threshold cost only the duration comparison.
+ *
+ * Thresholds can be changed by system property jdirsync.trace.<name>.thresholdMillis (0 = trace all).
+ */
+public final class TraceEvent {
+    public static final TraceEvent LISTING = new TraceEvent("listing", "entries", 20);
+    public static final TraceEvent STAT = new TraceEvent("stat", null, 10);
+    public static final TraceEvent COPY = new TraceEvent("copy", "bytes", 50);
+    public static final TraceEvent DELETE = new TraceEvent("delete", null, 20);
+    public static final TraceEvent DIFF = new TraceEvent("diff", "records", 50);
+    public static final TraceEvent SYNC_RECORD = new TraceEvent("syncRecord", "bytes", 200);
+    public static final TraceEvent INDEX_WRITE = new TraceEvent("indexWrite", null, 100);
+    public static final TraceEvent INDEX_READ = new TraceEvent("indexRead", "entries", 100);
+
+    private final String name;
+    private final String amountName;
+    private final long thresholdNanos;
+    private final Logger logger;
+
+
+    private TraceEvent(String name, String amountName, long defaultThresholdMillis) {
+        this.name = name;
+        this.amountName = amountName;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.getLong("jdirsync.trace." + name + ".thresholdMillis", defaultThresholdMillis));
+        this.logger = LoggerFactory.getLogger("com.jdirsync.trace." + name);
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+
+    public void record(long durationNanos, Object subject) {
+        record(durationNanos, subject, -1);
+    }
+
+
+    /**
+     * Logs the operation if it exceeded the threshold. Negative amount is not reported.
+     */
+    public void record(long durationNanos, Object subject, long amount) {
+        if (durationNanos < thresholdNanos || !logger.isDebugEnabled()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(' ').append(TimeUnit.NANOSECONDS.toMillis(durationNanos)).append(" ms");
+        if (amountName != null && amount >= 0) {
+            sb.append(' ').append(amountName).append('=').append(amount);
+        }
+        sb.append(' ');
+        if (subject instanceof String[]) {
+            // path within index (see DiffRecord.getFullPath)
+            String[] path = (String[]) subject;
+            for (int i = 0; i < path.length; i++) {
+                sb.append(i > 0 ? "/" : "").append(path[i]);
+            }
+        } else {
+            sb.append(subject);
+        }
+        logger.debug(sb.toString());
+    }
+}
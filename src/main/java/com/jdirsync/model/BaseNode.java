@@ -1,64 +1,103 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.model;
-
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import com.jdirsync.util.FileUtil;
-
-public abstract class BaseNode implements Node {
-    private static Pattern FORMAT_TOKEN_PATTERN = Pattern.compile("\\{([^}]+)\\}");
-
-    protected abstract String getType();
-
-    protected abstract Date getDate();
-
-
-    @Override
-    public String toFormattedString(String format) {
-        Matcher matcher = FORMAT_TOKEN_PATTERN.matcher(format);
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            String tokenName = matcher.group(1);
-            switch (tokenName) {
-                case "type":
-                    matcher.appendReplacement(sb, getType());
-                    break;
-                case "name":
-                    matcher.appendReplacement(sb, getName());
-                    break;
-                case "size":
-                    // Construct user friendly size
-                    matcher.appendReplacement(sb, FileUtil.formatSize(getSize()));
-                    break;
-                case "date":
-                    DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
-                    matcher.appendReplacement(sb, dateFormat.format(getDate()));
-                    break;
-                default:
-                    throw new RuntimeException("Unsupported format toke " + tokenName);
-            }
-        }
-        matcher.appendTail(sb);
-        return sb.toString();
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.model;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.jdirsync.util.FileUtil;
+
+public abstract class BaseNode implements Node {
+    // Formats are few and fixed (see DiffRecordViewModel) - parsed once into literals and {token} names
+    private static final ConcurrentMap<String, String[]> PARSED_FORMATS = new ConcurrentHashMap<>();
+
+    // SimpleDateFormat is not thread-safe and expensive to create
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+        }
+    };
+
+    protected abstract String getType();
+
+    protected abstract Date getDate();
+
+
+    /**
+     * Splits format into alternating literal (even indexes) and token name (odd indexes) parts.
+     */
+    private static String[] parseFormat(String format) {
+        String[] parts = PARSED_FORMATS.get(format);
+        if (parts == null) {
+            List<String> partList = new ArrayList<>();
+            int position = 0;
+            while (true) {
+                int tokenStart = format.indexOf('{', position);
+                int tokenEnd = (tokenStart < 0) ? -1 : format.indexOf('}', tokenStart + 1);
+                if (tokenEnd < 0) {
+                    partList.add(format.substring(position));
+                    break;
+                }
+                partList.add(format.substring(position, tokenStart));
+                partList.add(format.substring(tokenStart + 1, tokenEnd));
+                position = tokenEnd + 1;
+            }
+            parts = partList.toArray(new String[partList.size()]);
+            PARSED_FORMATS.putIfAbsent(format, parts);
+        }
+        return parts;
+    }
+
+
+    @Override
+    public String toFormattedString(String format) {
+        String[] parts = parseFormat(format);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i % 2 == 0) {
+                sb.append(parts[i]);
+                continue;
+            }
+            String tokenName = parts[i];
+            switch (tokenName) {
+                case "type":
+                    sb.append(getType());
+                    break;
+                case "name":
+                    sb.append(getName());
+                    break;
+                case "size":
+                    // Construct user friendly size
+                    sb.append(FileUtil.formatSize(getSize()));
+                    break;
+                case "date":
+                    sb.append(DATE_FORMAT.get().format(getDate()));
+                    break;
+                default:
+                    throw new RuntimeException("Unsupported format toke " + tokenName);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.model;
+
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Selects diff records for bulk actions (see DiffTableModel.applyAction).
+ */
+public abstract class DiffRecordFilter {
+
+    public abstract boolean matches(DiffRecord diffRecord);
+
+
+    public static final DiffRecordFilter ALL = new DiffRecordFilter() {
+        @Override
+        public boolean matches(DiffRecord diffRecord) {
+            return true;
+        }
+    };
+
+
+    public static DiffRecordFilter ofType(DiffRecord.DiffType first, DiffRecord.DiffType... rest) {
+        final EnumSet<DiffRecord.DiffType> diffTypes = EnumSet.of(first, rest);
+        return new DiffRecordFilter() {
+            @Override
+            public boolean matches(DiffRecord diffRecord) {
+                return diffTypes.contains(diffRecord.getDiffType());
+            }
+        };
+    }
+
+
+    /**
+     * Records where the bigger of both entries has at least minSize bytes (directories are summed).
+     */
+    public static DiffRecordFilter minSize(final long minSize) {
+        return new DiffRecordFilter() {
+            @Override
+            public boolean matches(DiffRecord diffRecord) {
+                return getSize(diffRecord.getLeftNode()) >= minSize || getSize(diffRecord.getRightNode()) >= minSize;
+            }
+        };
+    }
+
+
+    public static DiffRecordFilter within(final String[] directoryPath) {
+        return new DiffRecordFilter() {
+            @Override
+            public boolean matches(DiffRecord diffRecord) {
+                return diffRecord.isWithin(directoryPath);
+            }
+        };
+    }
+
+
+    /**
+     * Records of files with the given extension (without the dot, case insensitive).
+     */
+    public static DiffRecordFilter extension(String extension) {
+        final String suffix = "." + extension.toLowerCase(Locale.ENGLISH);
+        return new DiffRecordFilter() {
+            @Override
+            public boolean matches(DiffRecord diffRecord) {
+                String name = diffRecord.getName();
+                return name.regionMatches(true, name.length() - suffix.length(), suffix, 0, suffix.length())
+                        && (diffRecord.getLeftNode() instanceof FileNode || diffRecord.getRightNode() instanceof FileNode);
+            }
+        };
+    }
+
+
+    /**
+     * Records whose name contains the text (case insensitive).
+     */
+    public static DiffRecordFilter nameContains(String text) {
+        final String lowerCaseText = text.toLowerCase(Locale.ENGLISH);
+        return new DiffRecordFilter() {
+            @Override
+            public boolean matches(DiffRecord diffRecord) {
+                return diffRecord.getName().toLowerCase(Locale.ENGLISH).contains(lowerCaseText);
+            }
+        };
+    }
+
+
+    public static DiffRecordFilter and(final DiffRecordFilter... filters) {
+        return new DiffRecordFilter() {
+            @Override
+            public boolean matches(DiffRecord diffRecord) {
+                for (DiffRecordFilter filter : filters) {
+                    if (!filter.matches(diffRecord)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+
+    private static long getSize(Node node) {
+        return (node == null) ? 0 : node.getSize();
+    }
+}
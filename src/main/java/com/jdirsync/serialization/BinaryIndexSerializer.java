@@ -0,0 +1,342 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.serialization;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.FileUtil;
+
+/**
+ * Compact binary index format.
+ *
+ * <pre>
+ * index     := MAGIC version:u8 directory
+ * directory := childCount:varint child*
+ * child     := flags:u8 prefixLength:varint suffixLength:varint suffix:utf8 (file | directory)?
+ * file      := size:varint mtimeDelta:zigzag-varint digest?
+ * digest    := length:varint bytes
+ * </pre>
+ *
+ * Names share prefix (in characters) with the previous sibling, modification times are stored as a delta
+ * to the previous file in the same directory. Unexpanded directories have no body.
+ */
+public class BinaryIndexSerializer implements IndexSerializer {
+    private static final Charset UTF8 = Charset.forName("UTF8");
+    private static final byte[] MAGIC = new byte[] { 'J', 'D', 'S', 'I' };
+    private static final int VERSION = 1;
+
+    static final int FLAG_DIRECTORY = 0x01;
+    static final int FLAG_UNEXPANDED = 0x02;
+    static final int FLAG_DIGEST_HEX = 0x04;
+    static final int FLAG_DIGEST_TEXT = 0x08;
+
+
+    @Override
+    public void indexToStream(DirectoryNode rootNode, OutputStream outputStream) {
+        long start = System.nanoTime();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            directoryToStream(rootNode, out, Collections.<DirectoryNode>emptySet());
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write index to stream !", ex);
+        }
+        TraceEvent.INDEX_WRITE.record(System.nanoTime() - start, "binary index");
+    }
+
+
+    @Override
+    public DirectoryNode indexFromStream(InputStream inputStream) {
+        long start = System.nanoTime();
+        try (IndexReader in = new IndexReader(inputStream)) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic, 0, magic.length);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new RuntimeException("Stream does not contain binary index !");
+            }
+            int version = in.readByte();
+            if (version != VERSION) {
+                throw new RuntimeException("Unsupported binary index version " + version + " !");
+            }
+
+            DirectoryNode rootNode = new DirectoryNode(null);
+            directoryFromStream(rootNode, in);
+            TraceEvent.INDEX_READ.record(System.nanoTime() - start, "binary index");
+            return rootNode;
+        } catch (EOFException ex) {
+            throw new RuntimeException("Binary index is truncated !", ex);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read index from stream !", ex);
+        }
+    }
+
+
+    /**
+     * Writes the directory recursively - deferred directories are written as unexpanded (without content).
+     */
+    static void directoryToStream(DirectoryNode directoryNode, DataOutputStream out,
+                                  Set<DirectoryNode> deferredDirectories) throws IOException {
+        List<Node> children = directoryNode.getChildren();
+        writeVarLong(out, children.size());
+
+        String previousName = "";
+        long previousTime = 0;
+        for (Node child : children) {
+            String name = child.getName();
+            if (child instanceof DirectoryNode) {
+                DirectoryNode childDirectory = (DirectoryNode) child;
+                boolean expanded = childDirectory.isExpanded() && !deferredDirectories.contains(childDirectory);
+                out.writeByte(FLAG_DIRECTORY | (expanded ? 0 : FLAG_UNEXPANDED));
+                writeName(out, previousName, name);
+                if (expanded) {
+                    directoryToStream(childDirectory, out, deferredDirectories);
+                }
+            } else {
+                FileNode fileNode = (FileNode) child;
+                int flags = getFileFlags(fileNode);
+                out.writeByte(flags);
+                writeName(out, previousName, name);
+                previousTime = writeFile(out, flags, fileNode, previousTime);
+            }
+            previousName = name;
+        }
+    }
+
+
+    static void directoryFromStream(DirectoryNode directoryNode, IndexReader in) throws IOException {
+        long childCount = in.readVarLong();
+
+        String previousName = "";
+        long previousTime = 0;
+        for (long i=0; i<childCount; i++) {
+            int flags = in.readByte();
+            String name = in.readName(previousName);
+
+            if ((flags & FLAG_DIRECTORY) != 0) {
+                boolean expanded = (flags & FLAG_UNEXPANDED) == 0;
+                DirectoryNode childDirectory = new DirectoryNode(name, expanded);
+                if (expanded) {
+                    directoryFromStream(childDirectory, in);
+                }
+                directoryNode.add(childDirectory);
+            } else {
+                long size = in.readVarLong();
+                long time = previousTime + unZigZag(in.readVarLong());
+                previousTime = time;
+
+                String digest = null;
+                if ((flags & (FLAG_DIGEST_HEX | FLAG_DIGEST_TEXT)) != 0) {
+                    byte[] digestBytes = new byte[(int) in.readVarLong()];
+                    in.readFully(digestBytes, 0, digestBytes.length);
+                    digest = ((flags & FLAG_DIGEST_HEX) != 0)
+                            ? FileUtil.toHexString(digestBytes)
+                            : new String(digestBytes, UTF8);
+                }
+                directoryNode.add(new FileNode(name, size, new Date(time), digest));
+            }
+            previousName = name;
+        }
+    }
+
+
+    static int getFileFlags(FileNode fileNode) {
+        String digest = fileNode.getDigest();
+        return (digest == null) ? 0 : (isHexString(digest) ? FLAG_DIGEST_HEX : FLAG_DIGEST_TEXT);
+    }
+
+
+    /**
+     * Writes size, modification time (delta to the previous file) and digest - returns modification time.
+     */
+    static long writeFile(DataOutputStream out, int flags, FileNode fileNode, long previousTime) throws IOException {
+        long time = fileNode.getModificationTime().getTime();
+        writeVarLong(out, fileNode.getSize());
+        writeVarLong(out, zigZag(time - previousTime));
+
+        String digest = fileNode.getDigest();
+        if (digest != null) {
+            byte[] digestBytes = ((flags & FLAG_DIGEST_HEX) != 0) ? fromHexString(digest) : digest.getBytes(UTF8);
+            writeVarLong(out, digestBytes.length);
+            out.write(digestBytes);
+        }
+        return time;
+    }
+
+
+    static void writeName(DataOutputStream out, String previousName, String name) throws IOException {
+        int prefixLength = 0;
+        int maxPrefixLength = Math.min(previousName.length(), name.length());
+        while (prefixLength < maxPrefixLength && previousName.charAt(prefixLength) == name.charAt(prefixLength)) {
+            prefixLength++;
+        }
+        // Do not split surrogate pair
+        if (prefixLength > 0 && Character.isHighSurrogate(name.charAt(prefixLength - 1))) {
+            prefixLength--;
+        }
+
+        byte[] suffix = name.substring(prefixLength).getBytes(UTF8);
+        writeVarLong(out, prefixLength);
+        writeVarLong(out, suffix.length);
+        out.write(suffix);
+    }
+
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    private static boolean isHexString(String value) {
+        if (value.length() % 2 != 0) {
+            return false;
+        }
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static byte[] fromHexString(String value) {
+        byte[] result = new byte[value.length() / 2];
+        for (int i=0; i<result.length; i++) {
+            result[i] = (byte) Integer.parseInt(value.substring(2*i, 2*i + 2), 16);
+        }
+        return result;
+    }
+
+
+    /**
+     * Unsynchronized buffered reader (DataInputStream over BufferedInputStream locks on every byte).
+     */
+    static class IndexReader implements Closeable {
+        private final InputStream inputStream;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position = 0;
+        private int limit = 0;
+
+        public IndexReader(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+
+        public int readByte() throws IOException {
+            if (position == limit) {
+                fill();
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+
+        public void readFully(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (position == limit) {
+                    fill();
+                }
+                int count = Math.min(length, limit - position);
+                System.arraycopy(buffer, position, data, offset, count);
+                position += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+
+        public long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new RuntimeException("Binary index is corrupted - invalid varint");
+        }
+
+
+        public String readName(String previousName) throws IOException {
+            int prefixLength = (int) readVarLong();
+            int suffixLength = (int) readVarLong();
+            if (prefixLength > previousName.length()) {
+                throw new RuntimeException("Binary index is corrupted - invalid name prefix length " + prefixLength);
+            }
+
+            String suffix;
+            if (limit - position >= suffixLength) {
+                // Decode directly from the buffer
+                suffix = new String(buffer, position, suffixLength, UTF8);
+                position += suffixLength;
+            } else {
+                byte[] data = new byte[suffixLength];
+                readFully(data, 0, suffixLength);
+                suffix = new String(data, UTF8);
+            }
+            return (prefixLength == 0) ? suffix : previousName.substring(0, prefixLength).concat(suffix);
+        }
+
+
+        private void fill() throws IOException {
+            int count = inputStream.read(buffer, 0, buffer.length);
+            if (count <= 0) {
+                throw new EOFException();
+            }
+            position = 0;
+            limit = count;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
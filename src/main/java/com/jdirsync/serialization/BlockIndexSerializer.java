@@ -0,0 +1,400 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index container made of independently compressed (Deflater) and checksummed (CRC32) blocks.
+ *
+ * <pre>
+ * index := MAGIC version:u8 blockCount:i32 block*
+ * block := compressedLength:i32 length:i32 crc32:i32 compressed:bytes
+ * data  := pathLength:varint (nameLength:varint name:utf8)* directory
+ * </pre>
+ *
+ * Each block holds one directory (at the given path) encoded as in BinaryIndexSerializer - large
+ * sub-directories are written as unexpanded and stored in their own blocks (parents are written first).
+ * Blocks are compressed and decoded in parallel. Directory of a corrupted block is left unexpanded
+ * (it is scanned again once needed) and the rest of the index is loaded - except for the root block,
+ * whose corruption fails the whole load.
+ */
+public class BlockIndexSerializer implements IndexSerializer {
+    private static final Logger logger = LoggerFactory.getLogger(BlockIndexSerializer.class);
+    private static final Charset UTF8 = Charset.forName("UTF8");
+    private static final byte[] MAGIC = new byte[] { 'J', 'D', 'S', 'B' };
+    private static final int VERSION = 1;
+    private static final int DEFAULT_BLOCK_ENTRY_COUNT = 64 * 1024;
+
+    private final ExecutorService executorService;
+    private final int blockEntryCount;
+
+
+    public BlockIndexSerializer(ExecutorService executorService) {
+        this(executorService, DEFAULT_BLOCK_ENTRY_COUNT);
+    }
+
+
+    /**
+     * @param blockEntryCount approximate number of entries per block (directory with more files
+     *                        than that is still stored in one block)
+     */
+    public BlockIndexSerializer(ExecutorService executorService, int blockEntryCount) {
+        this.executorService = executorService;
+        this.blockEntryCount = blockEntryCount;
+    }
+
+
+    @Override
+    public void indexToStream(DirectoryNode rootNode, OutputStream outputStream) {
+        // Split tree into blocks and compress them in parallel
+        List<Block> blocks = new ArrayList<>();
+        splitIntoBlocks(new String[0], rootNode, blocks);
+
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (final Block block : blocks) {
+            futures.add(executorService.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return encodeBlock(block);
+                }
+            }));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(blocks.size());
+            for (Future<byte[]> future : futures) {
+                out.write(future.get());
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write index to stream !", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Writing of index was interrupted !", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to encode index block !", ex.getCause());
+        } finally {
+            for (Future<byte[]> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+
+    @Override
+    public DirectoryNode indexFromStream(InputStream inputStream) {
+        // Read blocks sequentially (slow media) and decode them in parallel
+        List<Future<Fragment>> futures = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new RuntimeException("Stream does not contain block index !");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new RuntimeException("Unsupported block index version " + version + " !");
+            }
+
+            int blockCount = in.readInt();
+            for (int i = 0; i < blockCount; i++) {
+                final int blockIndex = i;
+                final byte[] compressed;
+                final int length;
+                final int crc;
+                try {
+                    int compressedLength = in.readInt();
+                    length = in.readInt();
+                    crc = in.readInt();
+                    if (compressedLength < 0 || length < 0) {
+                        throw new IOException("Invalid block length");
+                    }
+                    compressed = new byte[compressedLength];
+                    in.readFully(compressed);
+                } catch (IOException ex) {
+                    // Block boundaries are lost - the remaining blocks cannot be read
+                    logger.warn("Index block " + blockIndex + " of " + blockCount
+                            + " cannot be read - remaining blocks are skipped", ex);
+                    break;
+                }
+
+                futures.add(executorService.submit(new Callable<Fragment>() {
+                    @Override
+                    public Fragment call() throws Exception {
+                        return decodeBlock(blockIndex, compressed, length, crc);
+                    }
+                }));
+            }
+        } catch (EOFException ex) {
+            throw new RuntimeException("Block index is truncated !", ex);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read index from stream !", ex);
+        }
+        if (futures.isEmpty()) {
+            throw new RuntimeException("Root block of index cannot be read !");
+        }
+
+        // Stitch fragments together (parents come first)
+        DirectoryNode rootNode = new DirectoryNode(null);
+        try {
+            for (Future<Fragment> future : futures) {
+                Fragment fragment = future.get();
+                if (fragment == null && future == futures.get(0)) {
+                    // Files of the root would be silently missing - nothing to leave unexpanded above the root
+                    throw new RuntimeException("Root block of index is corrupted !");
+                }
+                if (fragment != null) {
+                    attachFragment(rootNode, fragment);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Reading of index was interrupted !", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to decode index block !", ex.getCause());
+        } finally {
+            for (Future<Fragment> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return rootNode;
+    }
+
+
+    private void splitIntoBlocks(String[] path, DirectoryNode directoryNode, List<Block> blocks) {
+        Block block = new Block(path, directoryNode);
+        blocks.add(block);
+
+        // Keep sub-directories in the block while they fit, larger ones get their own blocks
+        List<String[]> deferredPaths = new ArrayList<>();
+        List<DirectoryNode> deferredDirectories = new ArrayList<>();
+        collectDeferred(path, directoryNode, block, new long[] { 0 }, deferredPaths, deferredDirectories);
+
+        for (int i = 0; i < deferredDirectories.size(); i++) {
+            splitIntoBlocks(deferredPaths.get(i), deferredDirectories.get(i), blocks);
+        }
+    }
+
+
+    private void collectDeferred(String[] path, DirectoryNode directoryNode, Block block, long[] entryCount,
+                                 List<String[]> deferredPaths, List<DirectoryNode> deferredDirectories) {
+        for (Node child : directoryNode.getChildren()) {
+            entryCount[0]++;
+            if (child instanceof DirectoryNode && ((DirectoryNode) child).isExpanded()) {
+                DirectoryNode childDirectory = (DirectoryNode) child;
+                long childEntryCount = countEntries(childDirectory);
+                String[] childPath = Arrays.copyOf(path, path.length + 1);
+                childPath[path.length] = child.getName();
+
+                if (entryCount[0] + childEntryCount <= blockEntryCount) {
+                    entryCount[0] += childEntryCount;
+                } else if (childEntryCount <= blockEntryCount) {
+                    block.deferredDirectories.add(childDirectory);
+                    deferredPaths.add(childPath);
+                    deferredDirectories.add(childDirectory);
+                } else {
+                    // Too large - keep the directory itself in this block and split its content
+                    collectDeferred(childPath, childDirectory, block, entryCount, deferredPaths, deferredDirectories);
+                }
+            }
+        }
+    }
+
+
+    private static long countEntries(DirectoryNode directoryNode) {
+        long result = 0;
+        for (Node child : directoryNode.getChildren()) {
+            result++;
+            if (child instanceof DirectoryNode) {
+                result += countEntries((DirectoryNode) child);
+            }
+        }
+        return result;
+    }
+
+
+    private static byte[] encodeBlock(Block block) throws IOException {
+        // Serialize
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(data)) {
+            BinaryIndexSerializer.writeVarLong(out, block.path.length);
+            for (String name : block.path) {
+                byte[] nameBytes = name.getBytes(UTF8);
+                BinaryIndexSerializer.writeVarLong(out, nameBytes.length);
+                out.write(nameBytes);
+            }
+            BinaryIndexSerializer.directoryToStream(block.directoryNode, out, block.deferredDirectories);
+        }
+        byte[] uncompressed = data.toByteArray();
+
+        // Compress
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(uncompressed.length / 2 + 64);
+        try {
+            deflater.setInput(uncompressed);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                compressed.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] compressedBytes = compressed.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(compressedBytes);
+
+        // Frame
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(compressedBytes.length + 12);
+        try (DataOutputStream out = new DataOutputStream(frame)) {
+            out.writeInt(compressedBytes.length);
+            out.writeInt(uncompressed.length);
+            out.writeInt((int) crc.getValue());
+            out.write(compressedBytes);
+        }
+        return frame.toByteArray();
+    }
+
+
+    /**
+     * Returns null (and logs the problem) if the block is corrupted.
+     */
+    private static Fragment decodeBlock(int blockIndex, byte[] compressed, int length, int expectedCrc) {
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(compressed);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Checksum mismatch");
+            }
+
+            byte[] data = new byte[length];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int count = 0;
+                while (count < length && !inflater.finished()) {
+                    int inflated = inflater.inflate(data, count, length - count);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    count += inflated;
+                }
+                if (count != length || !inflater.finished()) {
+                    throw new IOException("Unexpected length of block data");
+                }
+            } finally {
+                inflater.end();
+            }
+
+            try (BinaryIndexSerializer.IndexReader in = new BinaryIndexSerializer.IndexReader(new ByteArrayInputStream(data))) {
+                String[] path = new String[(int) in.readVarLong()];
+                for (int i = 0; i < path.length; i++) {
+                    byte[] nameBytes = new byte[(int) in.readVarLong()];
+                    in.readFully(nameBytes, 0, nameBytes.length);
+                    path[i] = new String(nameBytes, UTF8);
+                }
+                DirectoryNode directoryNode = new DirectoryNode(path.length == 0 ? null : path[path.length - 1]);
+                BinaryIndexSerializer.directoryFromStream(directoryNode, in);
+                return new Fragment(path, directoryNode);
+            }
+        } catch (IOException | DataFormatException | RuntimeException ex) {
+            logger.warn("Index block " + blockIndex + " is corrupted - its directories are left unexpanded", ex);
+            return null;
+        }
+    }
+
+
+    /**
+     * Places the fragment into the tree - missing parents (from corrupted blocks) are added as unexpanded.
+     */
+    private static void attachFragment(DirectoryNode rootNode, Fragment fragment) {
+        if (fragment.path.length == 0) {
+            for (Node child : fragment.directoryNode.getChildren()) {
+                rootNode.replace(child.getName(), child);
+            }
+            return;
+        }
+
+        DirectoryNode parent = rootNode;
+        for (int i = 0; i < fragment.path.length - 1; i++) {
+            Node child = parent.getChild(fragment.path[i]);
+            if (!(child instanceof DirectoryNode)) {
+                child = new DirectoryNode(fragment.path[i], false);
+                parent.replace(fragment.path[i], child);
+            }
+            parent = (DirectoryNode) child;
+        }
+        parent.replace(fragment.directoryNode.getName(), fragment.directoryNode);
+    }
+
+
+    private static class Block {
+        private final String[] path;
+        private final DirectoryNode directoryNode;
+        private final Set<DirectoryNode> deferredDirectories = Collections.newSetFromMap(new IdentityHashMap<DirectoryNode, Boolean>());
+
+        public Block(String[] path, DirectoryNode directoryNode) {
+            this.path = path;
+            this.directoryNode = directoryNode;
+        }
+    }
+
+
+    private static class Fragment {
+        private final String[] path;
+        private final DirectoryNode directoryNode;
+
+        public Fragment(String[] path, DirectoryNode directoryNode) {
+            this.path = path;
+            this.directoryNode = directoryNode;
+        }
+    }
+}
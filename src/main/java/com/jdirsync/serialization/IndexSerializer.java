@@ -1,29 +1,29 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.serialization;
-
-import java.io.InputStream;
-import java.io.OutputStream;
-
-import com.jdirsync.model.DirectoryNode;
-
-public interface IndexSerializer {
-    public void indexToStream(DirectoryNode rootNode, OutputStream outputStream);
-
-    public DirectoryNode indexFromStream(InputStream inputStream);
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.serialization;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.jdirsync.model.DirectoryNode;
+
+public interface IndexSerializer {
+    public void indexToStream(DirectoryNode rootNode, OutputStream outputStream);
+
+    public DirectoryNode indexFromStream(InputStream inputStream);
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.serialization;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.FileUtil;
+
+/**
+ * Directory of a MappedIndexFile - children are decoded from the mapped file when first accessed.
+ */
+public class MappedDirectoryNode extends DirectoryNode {
+    private static final Charset UTF8 = Charset.forName("UTF8");
+
+    private final MappedIndexFile indexFile;
+    private final int offset;
+    private boolean loaded;
+
+
+    MappedDirectoryNode(String name, MappedIndexFile indexFile, int offset) {
+        super(name);
+        this.indexFile = indexFile;
+        this.offset = offset;
+    }
+
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+
+    @Override
+    public Node copy() {
+        ensureLoaded();
+        return super.copy();
+    }
+
+    @Override
+    public long getSize() {
+        ensureLoaded();
+        return super.getSize();
+    }
+
+    @Override
+    public boolean isFullyExpanded() {
+        ensureLoaded();
+        return super.isFullyExpanded();
+    }
+
+    @Override
+    public List<Node> getChildren() {
+        ensureLoaded();
+        return super.getChildren();
+    }
+
+    @Override
+    public Node getChild(String name) {
+        ensureLoaded();
+        return super.getChild(name);
+    }
+
+    @Override
+    public void remove(Node node) {
+        ensureLoaded();
+        super.remove(node);
+    }
+
+    @Override
+    public void add(Node node) {
+        ensureLoaded();
+        super.add(node);
+    }
+
+
+    private synchronized void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        boolean decoded = false;
+        try {
+            ByteBuffer in = indexFile.getBuffer(offset);
+            long childCount = readVarLong(in);
+
+            String previousName = "";
+            long previousTime = 0;
+            for (long i=0; i<childCount; i++) {
+                int flags = in.get() & 0xFF;
+                String name = readName(in, previousName);
+
+                if ((flags & BinaryIndexSerializer.FLAG_DIRECTORY) != 0) {
+                    if ((flags & BinaryIndexSerializer.FLAG_UNEXPANDED) != 0) {
+                        super.add(new DirectoryNode(name, false));
+                    } else {
+                        int childOffset = indexFile.getDirectoryOffset(readVarLong(in));
+                        super.add(new MappedDirectoryNode(name, indexFile, childOffset));
+                    }
+                } else {
+                    long size = readVarLong(in);
+                    long time = previousTime + BinaryIndexSerializer.unZigZag(readVarLong(in));
+                    previousTime = time;
+
+                    String digest = null;
+                    if ((flags & (BinaryIndexSerializer.FLAG_DIGEST_HEX | BinaryIndexSerializer.FLAG_DIGEST_TEXT)) != 0) {
+                        byte[] digestBytes = new byte[(int) readVarLong(in)];
+                        in.get(digestBytes);
+                        digest = ((flags & BinaryIndexSerializer.FLAG_DIGEST_HEX) != 0)
+                                ? FileUtil.toHexString(digestBytes)
+                                : new String(digestBytes, UTF8);
+                    }
+                    super.add(new FileNode(name, size, new Date(time), digest));
+                }
+                previousName = name;
+            }
+            decoded = true;
+            loaded = true;
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new RuntimeException("Mapped index is corrupted - directory at offset " + offset + " cannot be read !", ex);
+        } finally {
+            if (!decoded) {
+                // Partially decoded children would look like deleted entries - every access fails instead
+                for (Node child : new ArrayList<>(super.getChildren())) {
+                    super.remove(child);
+                }
+            }
+        }
+    }
+
+
+    private static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get() & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new RuntimeException("Mapped index is corrupted - invalid varint");
+    }
+
+
+    private static String readName(ByteBuffer in, String previousName) {
+        int prefixLength = (int) readVarLong(in);
+        int suffixLength = (int) readVarLong(in);
+        if (prefixLength > previousName.length()) {
+            throw new RuntimeException("Mapped index is corrupted - invalid name prefix length " + prefixLength);
+        }
+        byte[] suffixBytes = new byte[suffixLength];
+        in.get(suffixBytes);
+        String suffix = new String(suffixBytes, UTF8);
+        return (prefixLength == 0) ? suffix : previousName.substring(0, prefixLength).concat(suffix);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.serialization;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+
+/**
+ * Random-access index file which is read through a memory mapped buffer - opening the index only maps
+ * the file and directories decode their children when they are first accessed (see MappedDirectoryNode).
+ *
+ * <pre>
+ * file      := MAGIC version:u8 directory* offset:i32[directoryCount] tableOffset:i32 directoryCount:i32
+ * directory := childCount:varint child*
+ * child     := flags:u8 name (file | directoryId:varint)?
+ * </pre>
+ *
+ * Entries are encoded the same way as in BinaryIndexSerializer, sub-directories are referenced by id
+ * (index into the offset table). Directories are written breadth first so the top levels are close together.
+ * File size is limited to 2GB (single mapping).
+ */
+public class MappedIndexFile {
+    private static final byte[] MAGIC = new byte[] { 'J', 'D', 'S', 'M' };
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 8;
+
+    private final ByteBuffer buffer;
+    private final int tableOffset;
+    private final int directoryCount;
+
+
+    private MappedIndexFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new RuntimeException("File does not contain mapped index !");
+        }
+        int version = buffer.get() & 0xFF;
+        if (version != VERSION) {
+            throw new RuntimeException("Unsupported mapped index version " + version + " !");
+        }
+
+        this.tableOffset = buffer.getInt(buffer.limit() - TRAILER_SIZE);
+        this.directoryCount = buffer.getInt(buffer.limit() - TRAILER_SIZE + 4);
+        if (tableOffset < 0 || directoryCount <= 0
+                || (long) tableOffset + 4L * directoryCount != buffer.limit() - TRAILER_SIZE) {
+            throw new RuntimeException("Mapped index is corrupted - invalid offset table !");
+        }
+    }
+
+
+    /**
+     * Maps the index file and returns its root directory (nothing is decoded yet).
+     */
+    public static DirectoryNode open(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("Mapped index " + path.toAbsolutePath() + " is too large !");
+            }
+            if (size < MAGIC.length + 1 + TRAILER_SIZE) {
+                throw new RuntimeException("Mapped index " + path.toAbsolutePath() + " is truncated !");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            MappedIndexFile indexFile = new MappedIndexFile(buffer);
+            return new MappedDirectoryNode(null, indexFile, indexFile.getDirectoryOffset(0));
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to open mapped index " + path.toAbsolutePath(), ex);
+        }
+    }
+
+
+    public static void write(DirectoryNode rootNode, Path path) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+
+            // Write directories breadth first (ids are assigned when the parent is written)
+            List<DirectoryNode> directories = new ArrayList<>();
+            directories.add(rootNode);
+            int[] offsets = new int[16];
+            for (int id = 0; id < directories.size(); id++) {
+                if (id == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[id] = checkedSize(out);
+                writeDirectory(directories.get(id), directories, out);
+                directories.set(id, null);
+            }
+
+            // Offset table and trailer
+            int tableOffset = checkedSize(out);
+            for (int id = 0; id < directories.size(); id++) {
+                out.writeInt(offsets[id]);
+            }
+            out.writeInt(tableOffset);
+            out.writeInt(directories.size());
+            checkedSize(out);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write mapped index " + path.toAbsolutePath(), ex);
+        }
+    }
+
+
+    private static void writeDirectory(DirectoryNode directoryNode, List<DirectoryNode> directories,
+                                       DataOutputStream out) throws IOException {
+        List<Node> children = directoryNode.getChildren();
+        BinaryIndexSerializer.writeVarLong(out, children.size());
+
+        String previousName = "";
+        long previousTime = 0;
+        for (Node child : children) {
+            String name = child.getName();
+            if (child instanceof DirectoryNode) {
+                DirectoryNode childDirectory = (DirectoryNode) child;
+                out.writeByte(BinaryIndexSerializer.FLAG_DIRECTORY
+                        | (childDirectory.isExpanded() ? 0 : BinaryIndexSerializer.FLAG_UNEXPANDED));
+                BinaryIndexSerializer.writeName(out, previousName, name);
+                if (childDirectory.isExpanded()) {
+                    BinaryIndexSerializer.writeVarLong(out, directories.size());
+                    directories.add(childDirectory);
+                }
+            } else {
+                FileNode fileNode = (FileNode) child;
+                int flags = BinaryIndexSerializer.getFileFlags(fileNode);
+                out.writeByte(flags);
+                BinaryIndexSerializer.writeName(out, previousName, name);
+                previousTime = BinaryIndexSerializer.writeFile(out, flags, fileNode, previousTime);
+            }
+            previousName = name;
+        }
+    }
+
+
+    private static int checkedSize(DataOutputStream out) {
+        // DataOutputStream.size() stops at Integer.MAX_VALUE
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new RuntimeException("Mapped index is too large !");
+        }
+        return out.size();
+    }
+
+
+    /**
+     * Returns independent view of the file positioned at the given offset.
+     */
+    ByteBuffer getBuffer(int offset) {
+        ByteBuffer result = buffer.duplicate();
+        result.position(offset);
+        return result;
+    }
+
+
+    int getDirectoryOffset(long id) {
+        if (id < 0 || id >= directoryCount) {
+            throw new RuntimeException("Mapped index is corrupted - invalid directory id " + id);
+        }
+        return buffer.getInt(tableOffset + (int) id * 4);
+    }
+}
@@ -1,176 +1,506 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.serialization;
-
-import java.io.BufferedReader;
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.Charset;
-import java.util.Date;
-
-import com.jdirsync.model.DirectoryNode;
-import com.jdirsync.model.FileNode;
-import com.jdirsync.model.Node;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class StringIndexSerializer implements IndexSerializer {
-    private static final Logger logger = LoggerFactory.getLogger(StringIndexSerializer.class);
-    private static final Charset UTF8 = Charset.forName("UTF8");
-    private static final String SEPARATOR = "\t";
-
-
-    @Override
-    public void indexToStream(DirectoryNode rootNode, OutputStream outputStream) {
-        try (Writer writer = new OutputStreamWriter(outputStream, UTF8)) {
-            for (Node child : rootNode.getChildren()) {
-                nodeToStream(0, child, writer);
-            }
-        } catch (IOException ex) {
-            throw new RuntimeException("Failed to write index to stream !", ex);
-        }
-    }
-
-
-    @Override
-    public DirectoryNode indexFromStream(InputStream inputStream) {
-        try (EntryIterator iterator = new EntryIterator(new BufferedReader(new InputStreamReader(inputStream, UTF8)))) {
-            DirectoryNode rootNode = new DirectoryNode(null);
-            while (iterator.getCurrentData() != null) {
-                rootNode.add( nodeFromStream(iterator) );
-            }
-            return rootNode;
-        }
-    }
-
-
-    private void nodeToStream(int level, Node node, Writer writer) throws IOException {
-        if (node instanceof DirectoryNode) {
-            DirectoryNode directoryNode = (DirectoryNode) node;
-            writer.write(level + SEPARATOR + directoryNode.getName() + "\n" );
-
-            level = level + 1;
-            for (Node child :  directoryNode.getChildren()) {
-                nodeToStream(level, child, writer);
-            }
-        } else if (node instanceof FileNode) {
-            FileNode fileNode = (FileNode) node;
-            writer.write(level
-                    + SEPARATOR + fileNode.getName()
-                    + SEPARATOR + fileNode.getSize()
-                    + SEPARATOR + fileNode.getModificationTime().getTime()
-                    + "\n" );
-        }
-    }
-
-
-    private Node nodeFromStream(EntryIterator iterator) {
-        if (iterator.getCurrentData() != null) {
-            int level = iterator.getCurrentLevel();
-
-            // Directory
-            if (iterator.getCurrentData().length == 2) {
-                DirectoryNode directoryNode = new DirectoryNode(iterator.getCurrentData()[1]);
-                iterator.moveToNext();
-                while (iterator.getCurrentLevel() == (level+1)) {
-                    directoryNode.add(nodeFromStream(iterator));
-                }
-                return directoryNode;
-            }
-
-            // File
-            if (iterator.getCurrentData().length == 4) {
-                try {
-                    String name = iterator.getCurrentData()[1];
-                    long fileSize = Long.parseLong(iterator.getCurrentData()[2]);
-                    long modificationTimestamp = Long.parseLong(iterator.getCurrentData()[3]);
-                    iterator.moveToNext();
-                    return new FileNode(name, fileSize, new Date(modificationTimestamp));
-                } catch (NumberFormatException ex) {
-                    throw new RuntimeException("Failed to read file entry on line " + iterator.getCurrentLineNumber(), ex);
-                }
-            }
-        }
-
-        throw new RuntimeException("Invalid entry on line " + iterator.getCurrentLineNumber());
-    }
-
-
-    private static class EntryIterator implements Closeable {
-        private BufferedReader reader;
-        private long currentLineNumber = 1;
-        private String[] currentData = null;
-        private Integer currentLevel = null;
-
-        public EntryIterator(BufferedReader reader) {
-            this.reader = reader;
-            moveToNext();
-        }
-
-        public void moveToNext() {
-            try {
-                String line = reader.readLine();
-                if (line == null) {
-                    currentData = null;
-                    currentLevel = null;
-                } else {
-                    currentData = line.split(SEPARATOR);
-                    currentLevel = Integer.parseInt(currentData[0]);
-                    currentLineNumber++;
-                }
-            } catch (NumberFormatException ex) {
-                throw new RuntimeException("Line " + (currentLineNumber+1) + " contains invalid level " + currentData[0], ex);
-            } catch (IOException ex) {
-                throw new RuntimeException("Line " + (currentLineNumber+1) + " could not be read !", ex);
-            }
-        }
-
-
-        public long getCurrentLineNumber() {
-            return currentLineNumber;
-        }
-
-
-        public String[] getCurrentData() {
-            return currentData;
-        }
-
-
-        public Integer getCurrentLevel() {
-            return currentLevel;
-        }
-
-
-        @Override
-        public void close() {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ex) {
-                    logger.debug("Failed to close EntryIterator", ex);
-                }
-            }
-        }
-    }
-
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class StringIndexSerializer implements IndexSerializer {
+    private static final Logger logger = LoggerFactory.getLogger(StringIndexSerializer.class);
+    private static final Charset UTF8 = Charset.forName("UTF8");
+    private static final String SEPARATOR = "\t";
+    private static final String UNEXPANDED_MARK = "?";
+    private static final byte[] UNEXPANDED_MARK_BYTES = UNEXPANDED_MARK.getBytes(UTF8);
+    private static final int DEFAULT_CHUNK_ENTRY_COUNT = 64 * 1024;
+
+    private final ExecutorService executorService;
+    private final int chunkEntryCount;
+
+
+    public StringIndexSerializer() {
+        this(null);
+    }
+
+
+    /**
+     * Parallel writer - large trees are split into chunks (whole sub-trees, huge directories are split
+     * further) which are encoded concurrently and written in the original order. Output is the same
+     * as of the sequential writer.
+     */
+    public StringIndexSerializer(ExecutorService executorService) {
+        this(executorService, DEFAULT_CHUNK_ENTRY_COUNT);
+    }
+
+
+    /**
+     * @param chunkEntryCount approximate number of entries encoded by one task
+     */
+    public StringIndexSerializer(ExecutorService executorService, int chunkEntryCount) {
+        this.executorService = executorService;
+        this.chunkEntryCount = chunkEntryCount;
+    }
+
+
+    @Override
+    public void indexToStream(DirectoryNode rootNode, OutputStream outputStream) {
+        long start = System.nanoTime();
+        if (executorService != null) {
+            parallelIndexToStream(rootNode, outputStream);
+            TraceEvent.INDEX_WRITE.record(System.nanoTime() - start, "text index (parallel)");
+            return;
+        }
+
+        try (Writer writer = new OutputStreamWriter(outputStream, UTF8)) {
+            for (Node child : rootNode.getChildren()) {
+                nodeToStream(0, child, writer);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write index to stream !", ex);
+        }
+        TraceEvent.INDEX_WRITE.record(System.nanoTime() - start, "text index");
+    }
+
+
+    private void parallelIndexToStream(DirectoryNode rootNode, OutputStream outputStream) {
+        List<List<Chunk>> tasks = new ArrayList<>();
+        List<Chunk> chunks = new ArrayList<>();
+        for (Node child : rootNode.getChildren()) {
+            splitIntoChunks(0, child, countEntries(child), chunks);
+        }
+
+        // Group consecutive chunks (e.g. files of huge directory) into tasks of similar size
+        List<Chunk> task = new ArrayList<>();
+        long taskEntryCount = 0;
+        for (Chunk chunk : chunks) {
+            if (!task.isEmpty() && taskEntryCount + chunk.entryCount > chunkEntryCount) {
+                tasks.add(task);
+                task = new ArrayList<>();
+                taskEntryCount = 0;
+            }
+            task.add(chunk);
+            taskEntryCount += chunk.entryCount;
+        }
+        if (!task.isEmpty()) {
+            tasks.add(task);
+        }
+
+        // Only limited number of encoded tasks is kept in memory
+        int window = 2 * Runtime.getRuntime().availableProcessors();
+        LinkedList<Future<byte[]>> futures = new LinkedList<>();
+        Iterator<List<Chunk>> taskIterator = tasks.iterator();
+        try (OutputStream stream = outputStream) {
+            while (taskIterator.hasNext() || !futures.isEmpty()) {
+                while (taskIterator.hasNext() && futures.size() < window) {
+                    final List<Chunk> taskChunks = taskIterator.next();
+                    futures.add(executorService.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            return encodeChunks(taskChunks);
+                        }
+                    }));
+                }
+                stream.write(futures.removeFirst().get());
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write index to stream !", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Writing of index was interrupted !", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to encode index !", ex.getCause());
+        } finally {
+            for (Future<byte[]> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+
+    private void splitIntoChunks(int level, Node node, long entryCount, List<Chunk> chunks) {
+        if (entryCount <= chunkEntryCount || !(node instanceof DirectoryNode)) {
+            chunks.add(new Chunk(level, node, true, entryCount));
+            return;
+        }
+
+        // Directory line only, children are chunked separately
+        chunks.add(new Chunk(level, node, false, 1));
+        for (Node child : ((DirectoryNode) node).getChildren()) {
+            splitIntoChunks(level + 1, child, countEntries(child), chunks);
+        }
+    }
+
+
+    private static long countEntries(Node node) {
+        long result = 1;
+        if (node instanceof DirectoryNode) {
+            for (Node child : ((DirectoryNode) node).getChildren()) {
+                result += countEntries(child);
+            }
+        }
+        return result;
+    }
+
+
+    private byte[] encodeChunks(List<Chunk> chunks) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, UTF8)) {
+            for (Chunk chunk : chunks) {
+                if (chunk.isSubTree) {
+                    nodeToStream(chunk.level, chunk.node, writer);
+                } else {
+                    entryToStream(chunk.level, chunk.node, writer);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+
+    @Override
+    public DirectoryNode indexFromStream(InputStream inputStream) {
+        long start = System.nanoTime();
+        try (EntryTokenizer tokenizer = new EntryTokenizer(inputStream)) {
+            // Stack of open directories - directory at index i accepts children with level levels[i]
+            // (root accepts any level, entries with unexpected level close the directories above)
+            DirectoryNode rootNode = new DirectoryNode(null);
+            DirectoryNode[] directories = new DirectoryNode[16];
+            int[] levels = new int[16];
+            directories[0] = rootNode;
+            int depth = 1;
+
+            while (tokenizer.moveToNext()) {
+                int level = tokenizer.getLevel();
+                while (depth > 1 && levels[depth - 1] != level) {
+                    depth--;
+                }
+
+                Node node = nodeFromTokenizer(tokenizer);
+                directories[depth - 1].add(node);
+
+                if (node instanceof DirectoryNode) {
+                    if (depth == directories.length) {
+                        directories = Arrays.copyOf(directories, depth * 2);
+                        levels = Arrays.copyOf(levels, depth * 2);
+                    }
+                    directories[depth] = (DirectoryNode) node;
+                    levels[depth] = level + 1;
+                    depth++;
+                }
+            }
+            TraceEvent.INDEX_READ.record(System.nanoTime() - start, "text index", tokenizer.getLineNumber());
+            return rootNode;
+        }
+    }
+
+
+    private void nodeToStream(int level, Node node, Writer writer) throws IOException {
+        entryToStream(level, node, writer);
+        if (node instanceof DirectoryNode) {
+            for (Node child : ((DirectoryNode) node).getChildren()) {
+                nodeToStream(level + 1, child, writer);
+            }
+        }
+    }
+
+
+    private void entryToStream(int level, Node node, Writer writer) throws IOException {
+        if (node instanceof DirectoryNode) {
+            DirectoryNode directoryNode = (DirectoryNode) node;
+            writer.write(level
+                    + SEPARATOR + directoryNode.getName()
+                    + (directoryNode.isExpanded() ? "" : SEPARATOR + UNEXPANDED_MARK)
+                    + "\n" );
+        } else if (node instanceof FileNode) {
+            FileNode fileNode = (FileNode) node;
+            writer.write(level
+                    + SEPARATOR + fileNode.getName()
+                    + SEPARATOR + fileNode.getSize()
+                    + SEPARATOR + fileNode.getModificationTime().getTime()
+                    + (fileNode.getDigest() != null ? SEPARATOR + fileNode.getDigest() : "")
+                    + "\n" );
+        }
+    }
+
+
+    private Node nodeFromTokenizer(EntryTokenizer tokenizer) {
+        int fieldCount = tokenizer.getFieldCount();
+
+        // Directory (unexpanded directory is marked)
+        if (fieldCount == 2 || (fieldCount == 3 && tokenizer.fieldEquals(2, UNEXPANDED_MARK_BYTES))) {
+            return new DirectoryNode(tokenizer.getString(1), fieldCount == 2);
+        }
+
+        // File (digest is optional)
+        if (fieldCount == 4 || fieldCount == 5) {
+            try {
+                String name = tokenizer.getString(1);
+                long fileSize = tokenizer.getLong(2);
+                long modificationTimestamp = tokenizer.getLong(3);
+                String digest = (fieldCount == 5) ? tokenizer.getString(4) : null;
+                return new FileNode(name, fileSize, new Date(modificationTimestamp), digest);
+            } catch (NumberFormatException ex) {
+                throw new RuntimeException("Failed to read file entry on line " + tokenizer.getLineNumber(), ex);
+            }
+        }
+
+        throw new RuntimeException("Invalid entry on line " + tokenizer.getLineNumber());
+    }
+
+
+    private static class Chunk {
+        private final int level;
+        private final Node node;
+        private final boolean isSubTree;
+        private final long entryCount;
+
+        public Chunk(int level, Node node, boolean isSubTree, long entryCount) {
+            this.level = level;
+            this.node = node;
+            this.isSubTree = isSubTree;
+            this.entryCount = entryCount;
+        }
+    }
+
+
+    /**
+     * Splits the stream into lines and tab separated fields directly in a reusable byte buffer
+     * (only names and digests are turned into Strings). Fields are split the same way as String.split
+     * (trailing empty fields are dropped), line may end with LF or CRLF.
+     */
+    private static class EntryTokenizer implements Closeable {
+        private final InputStream inputStream;
+        private byte[] buffer = new byte[64 * 1024];
+        private int position = 0;
+        private int limit = 0;
+        private boolean endOfStream = false;
+        private long lineNumber = 0;
+
+        // Fields of the current line (start and end offsets within the buffer)
+        private int[] fieldStarts = new int[8];
+        private int[] fieldEnds = new int[8];
+        private int fieldCount = 0;
+        private int level;
+
+
+        public EntryTokenizer(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+
+        /**
+         * Moves to the next line, returns false at the end of the stream.
+         */
+        public boolean moveToNext() {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                return false;
+            }
+            lineNumber++;
+
+            // Split fields
+            int lineStart = position;
+            int contentEnd = (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+            fieldCount = 0;
+            int fieldStart = lineStart;
+            for (int i = lineStart; i < contentEnd; i++) {
+                if (buffer[i] == '\t') {
+                    addField(fieldStart, i);
+                    fieldStart = i + 1;
+                }
+            }
+            addField(fieldStart, contentEnd);
+            while (fieldCount > 1 && fieldStarts[fieldCount - 1] == fieldEnds[fieldCount - 1]) {
+                fieldCount--;
+            }
+            position = (lineEnd < limit) ? lineEnd + 1 : lineEnd;
+
+            try {
+                level = (int) parseLong(fieldStarts[0], fieldEnds[0], Integer.MIN_VALUE, Integer.MAX_VALUE);
+            } catch (NumberFormatException ex) {
+                throw new RuntimeException("Line " + lineNumber + " contains invalid level " + getString(0), ex);
+            }
+            return true;
+        }
+
+
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+
+        public int getLevel() {
+            return level;
+        }
+
+
+        public int getFieldCount() {
+            return fieldCount;
+        }
+
+
+        public String getString(int field) {
+            return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field], UTF8);
+        }
+
+
+        public long getLong(int field) {
+            return parseLong(fieldStarts[field], fieldEnds[field], Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+
+
+        public boolean fieldEquals(int field, byte[] value) {
+            int start = fieldStarts[field];
+            if (fieldEnds[field] - start != value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (buffer[start + i] != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+        private void addField(int start, int end) {
+            if (fieldCount == fieldStarts.length) {
+                fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+                fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            }
+            fieldStarts[fieldCount] = start;
+            fieldEnds[fieldCount] = end;
+            fieldCount++;
+        }
+
+
+        /**
+         * Returns offset of the LF ending the current line (or end of data for the last line without LF),
+         * reading more data as needed. Returns -1 if there are no more lines.
+         */
+        private int findLineEnd() {
+            int scanFrom = position;
+            while (true) {
+                for (int i = scanFrom; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        return i;
+                    }
+                }
+                if (endOfStream) {
+                    return (position < limit) ? limit : -1;
+                }
+                scanFrom = limit - position;
+                fill();
+                scanFrom = position + scanFrom;
+            }
+        }
+
+
+        /**
+         * Moves unread data to the beginning of the buffer (growing it for long lines) and reads more.
+         */
+        private void fill() {
+            int remaining = limit - position;
+            if (remaining == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, remaining);
+            }
+            position = 0;
+            limit = remaining;
+
+            try {
+                int count = inputStream.read(buffer, limit, buffer.length - limit);
+                if (count < 0) {
+                    endOfStream = true;
+                } else {
+                    limit += count;
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException("Line " + (lineNumber + 1) + " could not be read !", ex);
+            }
+        }
+
+
+        /**
+         * Parses decimal number (with optional sign) - same rules as Long.parseLong.
+         */
+        private long parseLong(int start, int end, long minValue, long maxValue) {
+            if (start == end) {
+                throw new NumberFormatException("Empty number");
+            }
+            boolean negative = false;
+            int i = start;
+            if (buffer[i] == '-' || buffer[i] == '+') {
+                negative = (buffer[i] == '-');
+                i++;
+                if (i == end) {
+                    throw new NumberFormatException("Sign without digits");
+                }
+            }
+
+            // Accumulate negatively so that MIN_VALUE can be parsed
+            long limitValue = negative ? minValue : -maxValue;
+            long result = 0;
+            for (; i < end; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Invalid digit in " + new String(buffer, start, end - start, UTF8));
+                }
+                if (result < (limitValue + digit) / 10) {
+                    throw new NumberFormatException("Number out of range " + new String(buffer, start, end - start, UTF8));
+                }
+                result = result * 10 - digit;
+            }
+            return negative ? result : -result;
+        }
+
+
+        @Override
+        public void close() {
+            try {
+                inputStream.close();
+            } catch (IOException ex) {
+                logger.debug("Failed to close EntryTokenizer", ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,580 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.serialization.BinaryIndexSerializer;
+import com.jdirsync.serialization.IndexSerializer;
+import com.jdirsync.util.ArrayUtil;
+import com.jdirsync.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index history stored as base files and append-only journal segments.
+ *
+ * <pre>
+ * base-&lt;id&gt;-&lt;time&gt;.idx   tree of snapshot id (BinaryIndexSerializer)
+ * journal-&lt;id&gt;.log        frames with snapshots following base id
+ * frame := length:i32 crc32:i32 payload
+ * payload := snapshotId:i64 time:i64 eventCount:varint event*
+ * event := pathLength:varint (name)* entry (directory with zero (removed) or one (added/modified) child)
+ * </pre>
+ *
+ * Each commit appends changes against the previous snapshot as one frame. A torn frame (crash or failure
+ * during append) is cut off the segment when the store is opened or when the append fails, so frames
+ * appended later stay readable and only the torn frame is lost. Changes are exact - an entry is journaled whenever anything the index stores
+ * differs (name, type, size, modification time, digest, expanded flag), so replay reproduces the committed tree. Once a segment grows over the compaction limit a new segment is started
+ * and the new base is written in the background - bases and segments no longer needed by retained
+ * snapshots are deleted afterwards.
+ */
+public class IndexStore {
+    private static final Logger logger = LoggerFactory.getLogger(IndexStore.class);
+    private static final Charset UTF8 = Charset.forName("UTF8");
+    private static final Pattern BASE_PATTERN = Pattern.compile("base-(\\d+)-(\\d+)\\.idx");
+    private static final Pattern JOURNAL_PATTERN = Pattern.compile("journal-(\\d+)\\.log");
+
+    private final Path directory;
+    private final ExecutorService executorService;
+    private final long retentionMillis;
+    private final int compactionEventCount;
+    private final IndexSerializer serializer = new BinaryIndexSerializer();
+
+    private boolean opened = false;
+    private TreeMap<Long, Snapshot> snapshots = new TreeMap<>();
+    private TreeMap<Long, Path> bases = new TreeMap<>();
+    private TreeMap<Long, Path> journals = new TreeMap<>();
+    private long journalEventCount = 0;
+    private boolean compacting = false;
+    private DirectoryNode lastTree;
+
+
+    public static class Snapshot {
+        private final long id;
+        private final Date time;
+
+        public Snapshot(long id, Date time) {
+            this.id = id;
+            this.time = time;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Date getTime() {
+            return time;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot[id=" + id + ", time=" + time + "]";
+        }
+    }
+
+
+    /**
+     * @param retentionMillis snapshots older than that may be removed by compaction
+     * @param compactionEventCount number of events in the current journal segment which triggers compaction
+     */
+    public IndexStore(Path directory, ExecutorService executorService, long retentionMillis, int compactionEventCount) {
+        this.directory = directory;
+        this.executorService = executorService;
+        this.retentionMillis = retentionMillis;
+        this.compactionEventCount = compactionEventCount;
+    }
+
+
+    /**
+     * Stores the tree as a new snapshot. The store keeps reference to the tree (to compute the next delta)
+     * so it must not be modified afterwards.
+     */
+    public synchronized Snapshot commit(DirectoryNode tree) {
+        open();
+        Snapshot snapshot = new Snapshot(snapshots.isEmpty() ? 1 : snapshots.lastKey() + 1, new Date());
+
+        if (bases.isEmpty()) {
+            // First snapshot - write base directly
+            writeBase(snapshot, tree);
+        } else {
+            if (lastTree == null) {
+                lastTree = loadSnapshot(snapshots.lastEntry().getValue());
+            }
+            List<Change> changes = new ArrayList<>();
+            buildChanges(new String[0], lastTree, tree, changes);
+            appendFrame(snapshot, changes);
+            journalEventCount += changes.size();
+        }
+        snapshots.put(snapshot.getId(), snapshot);
+        lastTree = tree;
+
+        if (journalEventCount >= compactionEventCount && !compacting) {
+            startCompaction(snapshot, tree);
+        }
+        return snapshot;
+    }
+
+
+    public synchronized List<Snapshot> listSnapshots() {
+        open();
+        return Collections.unmodifiableList(new ArrayList<>(snapshots.values()));
+    }
+
+
+    /**
+     * Reconstructs the tree as of the given snapshot (base file + journal replay).
+     */
+    public DirectoryNode loadSnapshot(Snapshot snapshot) {
+        long baseId;
+        Path basePath;
+        List<Path> journalPaths = new ArrayList<>();
+        synchronized (this) {
+            open();
+            Long floorKey = bases.floorKey(snapshot.getId());
+            if (floorKey == null || !snapshots.containsKey(snapshot.getId())) {
+                throw new RuntimeException(snapshot + " is not retained in " + directory.toAbsolutePath());
+            }
+            baseId = floorKey;
+            basePath = bases.get(baseId);
+            for (Long journalId : journals.tailMap(baseId, true).keySet()) {
+                if (journalId <= snapshot.getId()) {
+                    journalPaths.add(journals.get(journalId));
+                }
+            }
+        }
+
+        DirectoryNode tree;
+        try (InputStream in = Files.newInputStream(basePath)) {
+            tree = serializer.indexFromStream(in);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read " + basePath.toAbsolutePath(), ex);
+        }
+
+        for (Path journalPath : journalPaths) {
+            for (Frame frame : readFrames(journalPath)) {
+                if (frame.snapshotId > baseId && frame.snapshotId <= snapshot.getId()) {
+                    applyFrame(tree, frame);
+                }
+            }
+        }
+        return tree;
+    }
+
+
+    private void open() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                Matcher baseMatcher = BASE_PATTERN.matcher(fileName);
+                Matcher journalMatcher = JOURNAL_PATTERN.matcher(fileName);
+                if (baseMatcher.matches()) {
+                    long id = Long.parseLong(baseMatcher.group(1));
+                    bases.put(id, path);
+                    snapshots.put(id, new Snapshot(id, new Date(Long.parseLong(baseMatcher.group(2)))));
+                } else if (journalMatcher.matches()) {
+                    journals.put(Long.parseLong(journalMatcher.group(1)), path);
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            throw new RuntimeException("Failed to open index store " + directory.toAbsolutePath(), ex);
+        }
+
+        for (Path journalPath : journals.values()) {
+            List<Frame> frames = readFrames(journalPath);
+            long validLength = 0;
+            journalEventCount = 0;
+            for (Frame frame : frames) {
+                snapshots.put(frame.snapshotId, new Snapshot(frame.snapshotId, new Date(frame.time)));
+                validLength += frame.getFrameLength();
+                journalEventCount += frame.eventCount;
+            }
+            try {
+                if (Files.exists(journalPath) && Files.size(journalPath) > validLength) {
+                    logger.warn("Truncating damaged journal " + journalPath.toAbsolutePath() + " to " + frames.size() + " frame(s)");
+                    truncateJournal(journalPath, validLength);
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to repair journal " + journalPath.toAbsolutePath(), ex);
+            }
+        }
+    }
+
+
+    private static void truncateJournal(Path journalPath, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+
+    private void writeBase(Snapshot snapshot, DirectoryNode tree) {
+        Path path = directory.resolve("base-" + snapshot.getId() + "-" + snapshot.getTime().getTime() + ".idx");
+        Path tempPath = directory.resolve(path.getFileName() + ".tmp");
+        FileUtil.createDirectories(directory);
+        try (OutputStream out = Files.newOutputStream(tempPath)) {
+            serializer.indexToStream(tree, out);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write " + path.toAbsolutePath(), ex);
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write " + path.toAbsolutePath(), ex);
+        }
+
+        synchronized (this) {
+            bases.put(snapshot.getId(), path);
+            if (!journals.containsKey(snapshot.getId()) && (journals.isEmpty() || journals.lastKey() < snapshot.getId())) {
+                journals.put(snapshot.getId(), directory.resolve("journal-" + snapshot.getId() + ".log"));
+                journalEventCount = 0;
+            }
+        }
+    }
+
+
+    private void startCompaction(final Snapshot snapshot, final DirectoryNode tree) {
+        // New frames go to the new segment right away, base is written in the background
+        compacting = true;
+        journals.put(snapshot.getId(), directory.resolve("journal-" + snapshot.getId() + ".log"));
+        journalEventCount = 0;
+
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    logger.info("Compacting index store " + directory.toAbsolutePath() + " at " + snapshot);
+                    writeBase(snapshot, tree);
+                    purgeExpired();
+                } catch (RuntimeException ex) {
+                    logger.warn("Compaction of index store " + directory.toAbsolutePath() + " failed", ex);
+                } finally {
+                    synchronized (IndexStore.this) {
+                        compacting = false;
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Deletes bases and segments which are not needed to reconstruct snapshots within retention period.
+     */
+    private void purgeExpired() {
+        List<Path> expiredPaths = new ArrayList<>();
+        synchronized (this) {
+            long minTime = System.currentTimeMillis() - retentionMillis;
+            long oldestRetainedId = snapshots.lastKey();
+            for (Snapshot snapshot : snapshots.values()) {
+                if (snapshot.getTime().getTime() >= minTime) {
+                    oldestRetainedId = snapshot.getId();
+                    break;
+                }
+            }
+
+            long keepFromId = bases.floorKey(oldestRetainedId);
+            expiredPaths.addAll(bases.headMap(keepFromId).values());
+            expiredPaths.addAll(journals.headMap(keepFromId).values());
+            bases.headMap(keepFromId).clear();
+            journals.headMap(keepFromId).clear();
+            snapshots.headMap(keepFromId).clear();
+        }
+
+        for (Path path : expiredPaths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ex) {
+                logger.warn("Failed to delete " + path.toAbsolutePath(), ex);
+            }
+        }
+    }
+
+
+    /**
+     * Collects entries of the new directory which differ from the old one - modified directories
+     * are compared recursively, other entries are replaced as a whole.
+     */
+    private static void buildChanges(String[] path, DirectoryNode oldDirectory, DirectoryNode newDirectory, List<Change> changes) {
+        // Children are sorted by name
+        Iterator<Node> oldIterator = oldDirectory.getChildren().iterator();
+        Iterator<Node> newIterator = newDirectory.getChildren().iterator();
+        Node oldChild = oldIterator.hasNext() ? oldIterator.next() : null;
+        Node newChild = newIterator.hasNext() ? newIterator.next() : null;
+        while (oldChild != null || newChild != null) {
+            int compare = (oldChild == null) ? 1 : (newChild == null) ? -1 : oldChild.getName().compareTo(newChild.getName());
+            if (compare < 0) {
+                changes.add(new Change(path, oldChild.getName(), null));
+                oldChild = oldIterator.hasNext() ? oldIterator.next() : null;
+            } else if (compare > 0) {
+                changes.add(new Change(path, newChild.getName(), newChild));
+                newChild = newIterator.hasNext() ? newIterator.next() : null;
+            } else {
+                if (oldChild instanceof DirectoryNode && newChild instanceof DirectoryNode
+                        && ((DirectoryNode) oldChild).isExpanded() && ((DirectoryNode) newChild).isExpanded()) {
+                    buildChanges(ArrayUtil.arrayExtend(path, newChild.getName()), (DirectoryNode) oldChild, (DirectoryNode) newChild, changes);
+                } else if (!isSameEntry(oldChild, newChild)) {
+                    changes.add(new Change(path, newChild.getName(), newChild));
+                }
+                oldChild = oldIterator.hasNext() ? oldIterator.next() : null;
+                newChild = newIterator.hasNext() ? newIterator.next() : null;
+            }
+        }
+    }
+
+
+    /**
+     * Compares everything stored in the index except the content of expanded directories.
+     */
+    private static boolean isSameEntry(Node oldNode, Node newNode) {
+        if (oldNode instanceof FileNode && newNode instanceof FileNode) {
+            FileNode oldFile = (FileNode) oldNode;
+            FileNode newFile = (FileNode) newNode;
+            return oldFile.equals(newFile)
+                    && ((oldFile.getDigest() == null) ? newFile.getDigest() == null : oldFile.getDigest().equals(newFile.getDigest()));
+        }
+        return oldNode instanceof DirectoryNode && newNode instanceof DirectoryNode
+                && ((DirectoryNode) oldNode).isExpanded() == ((DirectoryNode) newNode).isExpanded();
+    }
+
+
+    private void appendFrame(Snapshot snapshot, List<Change> changes) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeLong(snapshot.getId());
+            out.writeLong(snapshot.getTime().getTime());
+            writeVarLong(out, changes.size());
+            for (Change change : changes) {
+                writeVarLong(out, change.path.length);
+                for (String name : change.path) {
+                    writeString(out, name);
+                }
+                writeString(out, change.name);
+
+                // Entry as it is in the new tree (missing = removed)
+                DirectoryNode entry = new DirectoryNode(null);
+                if (change.node != null) {
+                    entry.add(change.node);
+                }
+                ByteArrayOutputStream entryData = new ByteArrayOutputStream();
+                serializer.indexToStream(entry, entryData);
+                writeVarLong(out, entryData.size());
+                entryData.writeTo(out);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to encode journal frame", ex);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        Path journalPath = journals.lastEntry().getValue();
+        long validLength;
+        try {
+            validLength = Files.exists(journalPath) ? Files.size(journalPath) : 0;
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to append to " + journalPath.toAbsolutePath(), ex);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)))) {
+            out.writeInt(payload.size());
+            out.writeInt((int) crc.getValue());
+            payload.writeTo(out);
+        } catch (IOException ex) {
+            // Cut the partial frame off, next frames would be unreadable behind it
+            try {
+                truncateJournal(journalPath, validLength);
+            } catch (IOException ex2) {
+                logger.warn("Failed to truncate " + journalPath.toAbsolutePath() + ", starting new segment", ex2);
+                journals.put(snapshot.getId(), directory.resolve("journal-" + snapshot.getId() + ".log"));
+                journalEventCount = 0;
+            }
+            throw new RuntimeException("Failed to append to " + journalPath.toAbsolutePath(), ex);
+        }
+    }
+
+
+    private List<Frame> readFrames(Path journalPath) {
+        List<Frame> result = new ArrayList<>();
+        if (!Files.exists(journalPath)) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new IOException("Checksum mismatch");
+                }
+                result.add(new Frame(payload));
+            }
+        } catch (IOException | NegativeArraySizeException ex) {
+            // Torn write (e.g. crash during append) - the rest of the segment is ignored
+            logger.warn("Journal " + journalPath.toAbsolutePath() + " is damaged after " + result.size() + " frame(s)", ex);
+        }
+        return result;
+    }
+
+
+    private void applyFrame(DirectoryNode tree, Frame frame) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.payload, 16, frame.payload.length - 16))) {
+            long eventCount = readVarLong(in);
+            for (long i = 0; i < eventCount; i++) {
+                String[] path = new String[(int) readVarLong(in)];
+                for (int j = 0; j < path.length; j++) {
+                    path[j] = readString(in);
+                }
+                String name = readString(in);
+                byte[] entryData = new byte[(int) readVarLong(in)];
+                in.readFully(entryData);
+                DirectoryNode entry = serializer.indexFromStream(new ByteArrayInputStream(entryData));
+
+                DirectoryNode parent = tree.getDirectory(path);
+                if (parent == null) {
+                    throw new RuntimeException("Journal refers to missing directory " + Arrays.toString(path));
+                }
+                Node node = entry.getChildren().isEmpty() ? null : entry.getChildren().get(0);
+                parent.replace(name, node);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to replay snapshot " + frame.snapshotId, ex);
+        }
+    }
+
+
+    /**
+     * Entry with the given name in the directory at path - node is null if the entry was removed.
+     */
+    private static class Change {
+        private final String[] path;
+        private final String name;
+        private final Node node;
+
+        public Change(String[] path, String name, Node node) {
+            this.path = path;
+            this.name = name;
+            this.node = node;
+        }
+    }
+
+
+    private static class Frame {
+        private final long snapshotId;
+        private final long time;
+        private final long eventCount;
+        private final byte[] payload;
+
+        public Frame(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            this.snapshotId = in.readLong();
+            this.time = in.readLong();
+            this.eventCount = readVarLong(in);
+            this.payload = payload;
+        }
+
+        /**
+         * Length of the frame in the segment (header and payload).
+         */
+        public long getFrameLength() {
+            return 8 + payload.length;
+        }
+    }
+
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] data = value.getBytes(UTF8);
+        writeVarLong(out, data.length);
+        out.write(data);
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] data = new byte[(int) readVarLong(in)];
+        in.readFully(data);
+        return new String(data, UTF8);
+    }
+
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+}
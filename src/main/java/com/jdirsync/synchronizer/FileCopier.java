@@ -0,0 +1,33 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.model.Node;
+
+public interface FileCopier {
+    /**
+     * Copies file or directory subtree described by node from sourcePath to targetPath.
+     * Assumes that target does not exist and that its parent directory exists.
+     * Calls taskControl.checkpoint() regularly so that copying can be paused or cancelled.
+     */
+    void copy(Node node, Path sourcePath, Path targetPath, AtomicLong bytesCounter, TaskControl taskControl);
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.core.Throttle;
+import com.jdirsync.metrics.LatencyHistogram;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.metrics.StripedCounter;
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.Node;
+
+/**
+ * Copies using Files.copy - reads and writes are performed one after the other.
+ * The throttle and the task control are applied per file (Files.copy cannot be paused in the middle of a file).
+ */
+public class FileCopierNio implements FileCopier {
+    private static final LatencyHistogram copyLatency = MetricsRegistry.getDefault().histogram("copy");
+    private static final StripedCounter filesCopied = MetricsRegistry.getDefault().counter("copy.files");
+    private static final StripedCounter bytesCopied = MetricsRegistry.getDefault().counter("copy.bytes");
+
+    private final Throttle throttle;
+
+
+    public FileCopierNio() {
+        this(new Throttle());
+    }
+
+
+    public FileCopierNio(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+
+    @Override
+    public void copy(Node node, Path sourcePath, Path targetPath, AtomicLong bytesCounter, TaskControl taskControl) {
+        try {
+            taskControl.checkpoint();
+            throttle.acquireOperation();
+            if (node instanceof DirectoryNode) {
+                Files.copy(sourcePath, targetPath, StandardCopyOption.COPY_ATTRIBUTES);
+                for (Node child : ((DirectoryNode) node).getChildren()) {
+                    copy(child, sourcePath.resolve(child.getName()), targetPath.resolve(child.getName()), bytesCounter, taskControl);
+                }
+            } else {
+                // Size from the index - no extra stat of the target per file
+                long size = node.getSize();
+                throttle.acquireBytes(size);
+                long start = System.nanoTime();
+                Files.copy(sourcePath, targetPath, StandardCopyOption.COPY_ATTRIBUTES);
+                long duration = System.nanoTime() - start;
+                copyLatency.record(duration);
+                TraceEvent.COPY.record(duration, targetPath, size);
+                filesCopied.increment();
+                bytesCopied.add(size);
+                if (bytesCounter != null) {
+                    bytesCounter.addAndGet(size);
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to copy " + sourcePath.toAbsolutePath().toString()
+                    + " to " + targetPath.toAbsolutePath().toString(), ex);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import java.nio.file.Path;
+
+import com.jdirsync.core.Throttle;
+import com.jdirsync.util.FileUtil;
+
+/**
+ * Deletes immediately - all files of a directory subtree are unlinked one by one.
+ */
+public class FileDeleterNio implements FileDeleter {
+    private final Throttle throttle;
+
+
+    public FileDeleterNio() {
+        this(new Throttle());
+    }
+
+
+    public FileDeleterNio(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+
+    @Override
+    public void delete(Path baseDir, Path path) {
+        FileUtil.deleteRecursively(path, throttle);
+    }
+
+
+    @Override
+    public void onSynchronizationFinished(Path baseDir) {
+        // Nothing is deferred
+    }
+}
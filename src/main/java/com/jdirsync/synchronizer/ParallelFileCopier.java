@@ -0,0 +1,201 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.core.MonitoredExecutor;
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.Node;
+
+/**
+ * Copies directory subtrees with files copied in parallel by the delegate (which has to be thread-safe,
+ * e.g. FileCopierNio) on a pool of permitCount threads. The calling thread walks the subtree, creates
+ * directories before their content and keeps at most permitCount files in progress, so neither the number
+ * of concurrent copies nor the number of threads exceeds permits.
+ *
+ * If any file fails no more files are started, the files in progress are awaited and the first failure
+ * is thrown (the synchronizer then rolls back the whole subtree).
+ */
+public class ParallelFileCopier implements FileCopier {
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final FileCopier delegate;
+    private final int permitCount;
+    private final MonitoredExecutor executor;
+
+
+    /**
+     * @param permitCount maximum number of files copied at the same time
+     */
+    public ParallelFileCopier(FileCopier delegate, int permitCount) {
+        this.delegate = delegate;
+        this.permitCount = permitCount;
+        this.executor = new MonitoredExecutor("copy", permitCount, QUEUE_CAPACITY);
+    }
+
+
+    /**
+     * Largest number of copying threads which existed at the same time.
+     */
+    public int getPeakThreadCount() {
+        return executor.getLargestPoolSize();
+    }
+
+
+    /**
+     * Stops the copying threads.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+
+    @Override
+    public void copy(Node node, Path sourcePath, Path targetPath, AtomicLong bytesCounter, TaskControl taskControl) {
+        if (!(node instanceof DirectoryNode)) {
+            delegate.copy(node, sourcePath, targetPath, bytesCounter, taskControl);
+            return;
+        }
+
+        CopyRun copyRun = new CopyRun(bytesCounter, taskControl);
+        try {
+            copyRun.copyDirectory((DirectoryNode) node, sourcePath, targetPath);
+        } catch (RuntimeException ex) {
+            copyRun.fail(ex);
+        } finally {
+            copyRun.awaitAll();
+        }
+        copyRun.rethrowFailure();
+    }
+
+
+    /**
+     * Copying of one subtree - the walk over the subtree is done by the calling thread, files are copied
+     * by the pool.
+     */
+    private class CopyRun {
+        private final AtomicLong bytesCounter;
+        private final TaskControl taskControl;
+        private final CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        private int inProgressCount = 0;
+        private RuntimeException failure;
+
+        public CopyRun(AtomicLong bytesCounter, TaskControl taskControl) {
+            this.bytesCounter = bytesCounter;
+            this.taskControl = taskControl;
+        }
+
+        public void copyDirectory(DirectoryNode node, Path sourcePath, Path targetPath) {
+            taskControl.checkpoint();
+            try {
+                Files.copy(sourcePath, targetPath, StandardCopyOption.COPY_ATTRIBUTES);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to copy " + sourcePath.toAbsolutePath().toString()
+                        + " to " + targetPath.toAbsolutePath().toString(), ex);
+            }
+
+            for (Node child : node.getChildren()) {
+                if (failure != null) {
+                    return;
+                }
+                Path childSourcePath = sourcePath.resolve(child.getName());
+                Path childTargetPath = targetPath.resolve(child.getName());
+                if (child instanceof DirectoryNode) {
+                    copyDirectory((DirectoryNode) child, childSourcePath, childTargetPath);
+                } else {
+                    copyFile(child, childSourcePath, childTargetPath);
+                }
+            }
+        }
+
+        private void copyFile(final Node node, final Path sourcePath, final Path targetPath) {
+            // Wait for a permit - one of the files in progress has to finish
+            if (inProgressCount >= permitCount) {
+                awaitOne();
+            }
+            completionService.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    delegate.copy(node, sourcePath, targetPath, bytesCounter, taskControl);
+                    return null;
+                }
+            });
+            inProgressCount++;
+        }
+
+        /**
+         * Waits for any file in progress (uninterruptibly - the copies use the pool, they are cancelled
+         * by the task control).
+         */
+        private void awaitOne() {
+            boolean interrupted = false;
+            Future<Void> future = null;
+            while (future == null) {
+                try {
+                    future = completionService.take();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            inProgressCount--;
+
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                fail((ex.getCause() instanceof RuntimeException)
+                        ? (RuntimeException) ex.getCause()
+                        : new RuntimeException("Failed to copy", ex.getCause()));
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public void awaitAll() {
+            while (inProgressCount > 0) {
+                awaitOne();
+            }
+        }
+
+        public void fail(RuntimeException ex) {
+            if (failure == null) {
+                failure = ex;
+            }
+        }
+
+        public void rethrowFailure() {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.core.Throttle;
+import com.jdirsync.metrics.LatencyHistogram;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.metrics.StripedCounter;
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies using a dedicated reader thread and the calling thread as writer. Both share a ring of reusable
+ * direct buffers so that the source is read while the previously read chunk is being written to the target.
+ * The reader does not stop at file boundaries - it moves on to the next file of the subtree while the writer
+ * is still busy with the previous one - which keeps both devices busy when copying between two slow devices.
+ * The pipeline spans one copy() call (one diff record), separate calls are not overlapped.
+ *
+ * Attributes are copied the same way as by Files.copy(COPY_ATTRIBUTES) - times, POSIX owner, group and
+ * permissions or DOS flags. They are set once the content is written (for directories once the whole
+ * subtree is written, so that read-only directories can be filled and keep their modification time).
+ *
+ * The writer computes a digest of the bytes as they pass through so that copies can be verified without
+ * reading the source again. Digests are stored in the copied FileNodes (see FileNode.getDigest()).
+ */
+public class PipelinedFileCopier implements FileCopier {
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedFileCopier.class);
+    private static final LatencyHistogram copyLatency = MetricsRegistry.getDefault().histogram("copy");
+    private static final StripedCounter filesCopied = MetricsRegistry.getDefault().counter("copy.files");
+    private static final StripedCounter bytesCopied = MetricsRegistry.getDefault().counter("copy.bytes");
+
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final String DIGEST_ALGORITHM = "MD5";
+
+    private static final int SAMPLE_COUNT = 4;
+    private static final int SAMPLE_SIZE = 4096;
+
+    private enum SegmentType { DIRECTORY, DIRECTORY_END, FILE_START, DATA, FILE_END, END, ERROR }
+
+    private static class Segment {
+        private final SegmentType type;
+        private Path targetPath;
+        private FileNode fileNode;
+        private long size;
+        private SourceAttributes attributes;
+        private ByteBuffer buffer;
+        private RuntimeException error;
+
+        private Segment(SegmentType type) {
+            this.type = type;
+        }
+
+        private static Segment directory(Path targetPath) {
+            Segment segment = new Segment(SegmentType.DIRECTORY);
+            segment.targetPath = targetPath;
+            return segment;
+        }
+
+        private static Segment fileStart(Path targetPath, FileNode fileNode, long size) {
+            Segment segment = new Segment(SegmentType.FILE_START);
+            segment.targetPath = targetPath;
+            segment.fileNode = fileNode;
+            segment.size = size;
+            return segment;
+        }
+
+        private static Segment data(ByteBuffer buffer) {
+            Segment segment = new Segment(SegmentType.DATA);
+            segment.buffer = buffer;
+            return segment;
+        }
+
+        private static Segment end(SegmentType type, Path targetPath, SourceAttributes attributes) {
+            Segment segment = new Segment(type);
+            segment.targetPath = targetPath;
+            segment.attributes = attributes;
+            return segment;
+        }
+
+        private static Segment error(RuntimeException error) {
+            Segment segment = new Segment(SegmentType.ERROR);
+            segment.error = error;
+            return segment;
+        }
+    }
+
+    private final VerifyMode verifyMode;
+    private final Throttle throttle;
+    private final Segment[] dataSegments;
+    private final BlockingQueue<Segment> freeQueue;
+    private final BlockingQueue<Segment> filledQueue;
+
+
+    public PipelinedFileCopier() {
+        this(DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE, VerifyMode.NONE, new Throttle());
+    }
+
+
+    public PipelinedFileCopier(VerifyMode verifyMode, Throttle throttle) {
+        this(DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE, verifyMode, throttle);
+    }
+
+
+    public PipelinedFileCopier(int bufferCount, int bufferSize, VerifyMode verifyMode, Throttle throttle) {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("At least two buffers are needed to overlap reads and writes !");
+        }
+        this.verifyMode = verifyMode;
+        this.throttle = throttle;
+        this.dataSegments = new Segment[bufferCount];
+        for (int i=0; i<bufferCount; i++) {
+            dataSegments[i] = Segment.data(ByteBuffer.allocateDirect(bufferSize));
+        }
+        this.freeQueue = new ArrayBlockingQueue<>(bufferCount);
+        // Control segments are small - allow the reader to run ahead over a number of small files
+        this.filledQueue = new ArrayBlockingQueue<>(bufferCount * 16);
+    }
+
+
+    @Override
+    public synchronized void copy(final Node node, final Path sourcePath, final Path targetPath,
+                                  AtomicLong bytesCounter, TaskControl taskControl) {
+        // Reset the ring
+        freeQueue.clear();
+        filledQueue.clear();
+        for (Segment segment : dataSegments) {
+            freeQueue.add(segment);
+        }
+
+        Thread readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readNode(node, sourcePath, targetPath);
+                    filledQueue.put(new Segment(SegmentType.END));
+                } catch (InterruptedException ex) {
+                    // Writer gave up - nobody is listening any more
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    try {
+                        filledQueue.put(Segment.error(ex));
+                    } catch (InterruptedException ex2) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "PipelinedFileCopier-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        boolean completed = false;
+        try {
+            writeSegments(bytesCounter, taskControl);
+            completed = true;
+        } finally {
+            if (!completed) {
+                readerThread.interrupt();
+            }
+            try {
+                readerThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private void readNode(Node node, Path sourcePath, Path targetPath) throws InterruptedException {
+        throttle.acquireOperation();
+        if (node instanceof DirectoryNode) {
+            filledQueue.put(Segment.directory(targetPath));
+            for (Node child : ((DirectoryNode) node).getChildren()) {
+                readNode(child, sourcePath.resolve(child.getName()), targetPath.resolve(child.getName()));
+            }
+            SourceAttributes attributes;
+            try {
+                attributes = SourceAttributes.read(sourcePath);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to read attributes of " + sourcePath.toAbsolutePath().toString(), ex);
+            }
+            filledQueue.put(Segment.end(SegmentType.DIRECTORY_END, targetPath, attributes));
+        } else {
+            readFile((FileNode) node, sourcePath, targetPath);
+        }
+    }
+
+
+    private void readFile(FileNode fileNode, Path sourcePath, Path targetPath) throws InterruptedException {
+        try (FileChannel channel = FileChannel.open(sourcePath, StandardOpenOption.READ)) {
+            filledQueue.put(Segment.fileStart(targetPath, fileNode, channel.size()));
+
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                Segment segment = freeQueue.take();
+                ByteBuffer buffer = segment.buffer;
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        endOfFile = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                throttle.acquireBytes(buffer.remaining());
+
+                if (buffer.hasRemaining()) {
+                    filledQueue.put(segment);
+                } else {
+                    freeQueue.put(segment);
+                }
+            }
+
+            filledQueue.put(Segment.end(SegmentType.FILE_END, targetPath, SourceAttributes.read(sourcePath)));
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read " + sourcePath.toAbsolutePath().toString(), ex);
+        }
+    }
+
+
+    private void writeSegments(AtomicLong bytesCounter, TaskControl taskControl) {
+        FileChannel channel = null;
+        Path currentPath = null;
+        FileNode currentNode = null;
+        MessageDigest digest = (verifyMode != VerifyMode.NONE) ? createDigest() : null;
+        FileSamples samples = null;
+        long position = 0;
+        long fileStart = 0;
+        try {
+            while (true) {
+                Segment segment = filledQueue.take();
+                switch (segment.type) {
+                    case DIRECTORY:
+                        currentPath = segment.targetPath;
+                        Files.createDirectory(currentPath);
+                        break;
+                    case DIRECTORY_END:
+                        currentPath = segment.targetPath;
+                        segment.attributes.applyTo(currentPath);
+                        break;
+                    case FILE_START:
+                        currentPath = segment.targetPath;
+                        currentNode = segment.fileNode;
+                        channel = FileChannel.open(currentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                        if (digest != null) {
+                            digest.reset();
+                        }
+                        samples = (verifyMode == VerifyMode.SAMPLED) ? new FileSamples(segment.size) : null;
+                        position = 0;
+                        fileStart = System.nanoTime();
+                        break;
+                    case DATA:
+                        // Pausing blocks the writer - the reader stops as soon as the ring is full
+                        taskControl.checkpoint();
+                        ByteBuffer buffer = segment.buffer;
+                        if (samples != null) {
+                            samples.capture(position, buffer.duplicate());
+                        }
+                        if (digest != null) {
+                            digest.update(buffer.duplicate());
+                        }
+                        int written = 0;
+                        while (buffer.hasRemaining()) {
+                            written = written + channel.write(buffer);
+                        }
+                        position = position + written;
+                        bytesCopied.add(written);
+                        if (bytesCounter != null) {
+                            bytesCounter.addAndGet(written);
+                        }
+                        freeQueue.put(segment);
+                        break;
+                    case FILE_END:
+                        channel.close();
+                        channel = null;
+                        if (digest != null) {
+                            String digestString = FileUtil.toHexString(digest.digest());
+                            verify(currentPath, position, samples, digestString);
+                            currentNode.setDigest(digestString);
+                        }
+                        segment.attributes.applyTo(currentPath);
+                        long duration = System.nanoTime() - fileStart;
+                        copyLatency.record(duration);
+                        TraceEvent.COPY.record(duration, currentPath, position);
+                        filesCopied.increment();
+                        break;
+                    case ERROR:
+                        throw segment.error;
+                    case END:
+                        return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Copying was interrupted while writing " + currentPath, ex);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write " + currentPath.toAbsolutePath().toString(), ex);
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.debug("Failed to close " + currentPath, ex);
+                }
+            }
+        }
+    }
+
+
+    private void verify(Path targetPath, long expectedSize, FileSamples samples, String expectedDigest) throws IOException {
+        boolean valid;
+        switch (verifyMode) {
+            case SAMPLED:
+                valid = (Files.size(targetPath) == expectedSize) && samples.matches(targetPath);
+                break;
+            case FULL:
+                valid = (Files.size(targetPath) == expectedSize) && expectedDigest.equals(digestFile(targetPath));
+                break;
+            default:
+                valid = true;
+                break;
+        }
+
+        if (!valid) {
+            // Do not leave a corrupted file behind - it has the size and date of the source so it would look valid
+            FileUtil.deleteRecursively(targetPath);
+            throw new RuntimeException("Verification of " + targetPath.toAbsolutePath().toString() + " failed !");
+        }
+    }
+
+
+    private String digestFile(Path path) throws IOException {
+        MessageDigest digest = createDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return FileUtil.toHexString(digest.digest());
+    }
+
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("Digest algorithm " + DIGEST_ALGORITHM + " is not available", ex);
+        }
+    }
+
+
+    /**
+     * Attributes of the source which Files.copy(COPY_ATTRIBUTES) copies - read by the reader, applied by the writer.
+     */
+    private static class SourceAttributes {
+        private final BasicFileAttributes attributes;
+
+        private SourceAttributes(BasicFileAttributes attributes) {
+            this.attributes = attributes;
+        }
+
+        private static SourceAttributes read(Path path) throws IOException {
+            if (Files.getFileAttributeView(path, PosixFileAttributeView.class) != null) {
+                return new SourceAttributes(Files.readAttributes(path, PosixFileAttributes.class));
+            } else if (Files.getFileAttributeView(path, DosFileAttributeView.class) != null) {
+                return new SourceAttributes(Files.readAttributes(path, DosFileAttributes.class));
+            } else {
+                return new SourceAttributes(Files.readAttributes(path, BasicFileAttributes.class));
+            }
+        }
+
+        /**
+         * Permissions and read-only flag are set last - they may prevent further changes.
+         */
+        private void applyTo(Path path) throws IOException {
+            Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(
+                    attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+
+            PosixFileAttributeView posixView = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+            if (attributes instanceof PosixFileAttributes && posixView != null) {
+                PosixFileAttributes posixAttributes = (PosixFileAttributes) attributes;
+                try {
+                    posixView.setOwner(posixAttributes.owner());
+                    posixView.setGroup(posixAttributes.group());
+                } catch (IOException ex) {
+                    // Same as Files.copy - changing the owner usually needs privileges
+                    logger.debug("Failed to copy owner of " + path.toAbsolutePath(), ex);
+                }
+                posixView.setPermissions(posixAttributes.permissions());
+            }
+
+            DosFileAttributeView dosView = Files.getFileAttributeView(path, DosFileAttributeView.class);
+            if (attributes instanceof DosFileAttributes && dosView != null) {
+                DosFileAttributes dosAttributes = (DosFileAttributes) attributes;
+                dosView.setArchive(dosAttributes.isArchive());
+                dosView.setHidden(dosAttributes.isHidden());
+                dosView.setSystem(dosAttributes.isSystem());
+                dosView.setReadOnly(dosAttributes.isReadOnly());
+            }
+        }
+    }
+
+
+    /**
+     * Blocks of the file (at the beginning, end and in between) captured while the file is being written
+     * and compared against the target once it is complete.
+     */
+    private static class FileSamples {
+        private final long[] offsets;
+        private final byte[][] expected;
+        private final int[] captured;
+
+        private FileSamples(long size) {
+            int count = (int) Math.max(1, Math.min(SAMPLE_COUNT, (size + SAMPLE_SIZE - 1) / SAMPLE_SIZE));
+            offsets = new long[count];
+            expected = new byte[count][];
+            captured = new int[count];
+            for (int i=0; i<count; i++) {
+                offsets[i] = (count == 1) ? 0 : Math.max(0, (size - SAMPLE_SIZE) * i / (count - 1));
+                expected[i] = new byte[(int) Math.min(SAMPLE_SIZE, size - offsets[i])];
+            }
+        }
+
+        /** data holds bytes of the file starting at position */
+        private void capture(long position, ByteBuffer data) {
+            long end = position + data.remaining();
+            for (int i=0; i<offsets.length; i++) {
+                long from = Math.max(position, offsets[i]);
+                long to = Math.min(end, offsets[i] + expected[i].length);
+                if (from < to) {
+                    ByteBuffer slice = data.duplicate();
+                    slice.position(data.position() + (int) (from - position));
+                    slice.get(expected[i], (int) (from - offsets[i]), (int) (to - from));
+                    captured[i] = Math.max(captured[i], (int) (to - offsets[i]));
+                }
+            }
+        }
+
+        private boolean matches(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (int i=0; i<offsets.length; i++) {
+                    ByteBuffer actual = ByteBuffer.allocate(captured[i]);
+                    while (actual.hasRemaining()) {
+                        if (channel.read(actual, offsets[i] + actual.position()) < 0) {
+                            return false;
+                        }
+                    }
+                    if (!Arrays.equals(actual.array(), Arrays.copyOf(expected[i], captured[i]))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jdirsync.core.Throttle;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.metrics.StripedCounter;
+import com.jdirsync.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes by renaming the entry into a staging directory (.jdirsync/trash) of the synchronized root which is
+ * a constant time operation on the same file system - synchronization continues immediately. Staged entries
+ * are kept for the retention period (during which they can be restored) and are then purged in the background
+ * (one task on the executor per purge, limited by the throttle).
+ *
+ * Layout of the staging directory:
+ *   trash/[id]/[name]    - the deleted entry
+ *   trash/[id].origin    - path of the deleted entry relative to the root
+ * where id is [deletion time in millis]-[sequence number].
+ *
+ * If the entry cannot be renamed (e.g. it is located on another file system) it is deleted immediately.
+ */
+public class StagingFileDeleter implements FileDeleter {
+    private static final Logger logger = LoggerFactory.getLogger(StagingFileDeleter.class);
+    private static final StripedCounter stagedCounter = MetricsRegistry.getDefault().counter("delete.staged");
+    private static final Charset UTF8 = Charset.forName("UTF8");
+    private static final String TRASH_DIR_NAME = "trash";
+    private static final String ORIGIN_SUFFIX = ".origin";
+
+    public static class StagedEntry {
+        private final Path baseDir;
+        private final String id;
+        private final String relativePath;
+        private final long deletionTime;
+
+        private StagedEntry(Path baseDir, String id, String relativePath, long deletionTime) {
+            this.baseDir = baseDir;
+            this.id = id;
+            this.relativePath = relativePath;
+            this.deletionTime = deletionTime;
+        }
+
+        public Path getBaseDir() {
+            return baseDir;
+        }
+
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        public long getDeletionTime() {
+            return deletionTime;
+        }
+
+        @Override
+        public String toString() {
+            return "StagedEntry[id=" + id + ", path=" + relativePath + "]";
+        }
+    }
+
+    private final ExecutorService executorService;
+    private final Throttle throttle;
+    private final long retentionMillis;
+    private final AtomicInteger sequence = new AtomicInteger(0);
+    private final Set<Path> purgesInProgress = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+
+    public StagingFileDeleter(ExecutorService executorService, Throttle throttle, long retentionMillis) {
+        this.executorService = executorService;
+        this.throttle = throttle;
+        this.retentionMillis = retentionMillis;
+    }
+
+
+    public static Path getTrashDir(Path baseDir) {
+        return baseDir.resolve(FileUtil.METADATA_DIR_NAME).resolve(TRASH_DIR_NAME);
+    }
+
+
+    @Override
+    public void delete(Path baseDir, Path path) {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        String id = System.currentTimeMillis() + "-" + sequence.incrementAndGet();
+        Path stagingDir = getTrashDir(baseDir).resolve(id);
+        Path originFile = getTrashDir(baseDir).resolve(id + ORIGIN_SUFFIX);
+        try {
+            throttle.acquireOperation();
+            Files.createDirectories(stagingDir);
+
+            // Origin is written first so that the entry can be restored whenever it is in the trash
+            Files.write(originFile, toRelativePath(baseDir, path).getBytes(UTF8));
+            Files.move(path, stagingDir.resolve(path.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+            stagedCounter.increment();
+        } catch (IOException ex) {
+            logger.debug("Failed to stage " + path.toAbsolutePath() + " for deletion - deleting immediately", ex);
+            FileUtil.deleteRecursively(originFile);
+            FileUtil.deleteRecursively(stagingDir);
+            FileUtil.deleteRecursively(path, throttle);
+        }
+    }
+
+
+    @Override
+    public void onSynchronizationFinished(Path baseDir) {
+        purgeExpired(baseDir);
+    }
+
+
+    /**
+     * Starts background purge of all entries whose retention period has expired.
+     */
+    public void purgeExpired(Path baseDir) {
+        long now = System.currentTimeMillis();
+        final List<StagedEntry> expiredEntries = new ArrayList<>();
+        for (StagedEntry entry : listStaged(baseDir)) {
+            if (entry.getDeletionTime() + retentionMillis <= now
+                    && purgesInProgress.add(getTrashDir(entry.baseDir).resolve(entry.id))) {
+                expiredEntries.add(entry);
+            }
+        }
+        if (expiredEntries.isEmpty()) {
+            return;
+        }
+
+        // One task for all entries - a task per entry would flood the shared queue
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (StagedEntry entry : expiredEntries) {
+                    purge(entry);
+                }
+            }
+        });
+    }
+
+
+    private void purge(StagedEntry entry) {
+        Path stagingDir = getTrashDir(entry.baseDir).resolve(entry.id);
+        try {
+            FileUtil.deleteRecursively(stagingDir, throttle);
+            FileUtil.deleteRecursively(getTrashDir(entry.baseDir).resolve(entry.id + ORIGIN_SUFFIX));
+            logger.debug("Purged " + entry);
+        } catch (RuntimeException ex) {
+            logger.warn("Failed to purge " + stagingDir.toAbsolutePath(), ex);
+        } finally {
+            purgesInProgress.remove(stagingDir);
+        }
+    }
+
+
+    /**
+     * Lists entries staged for deletion (oldest first).
+     */
+    public List<StagedEntry> listStaged(Path baseDir) {
+        List<StagedEntry> result = new ArrayList<>();
+        Path trashDir = getTrashDir(baseDir);
+        if (!Files.isDirectory(trashDir)) {
+            return result;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(trashDir, "*" + ORIGIN_SUFFIX)) {
+            for (Path originFile : stream) {
+                String fileName = originFile.getFileName().toString();
+                String id = fileName.substring(0, fileName.length() - ORIGIN_SUFFIX.length());
+                try {
+                    long deletionTime = Long.parseLong(id.substring(0, id.indexOf('-')));
+                    String relativePath = new String(Files.readAllBytes(originFile), UTF8);
+                    result.add(new StagedEntry(baseDir, id, relativePath, deletionTime));
+                } catch (IOException | RuntimeException ex) {
+                    logger.warn("Invalid staged entry " + originFile.toAbsolutePath(), ex);
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to list " + trashDir.toAbsolutePath(), ex);
+        }
+
+        Collections.sort(result, new Comparator<StagedEntry>() {
+            @Override
+            public int compare(StagedEntry entry1, StagedEntry entry2) {
+                return Long.compare(entry1.deletionTime, entry2.deletionTime);
+            }
+        });
+        return result;
+    }
+
+
+    /**
+     * Moves the staged entry back to its original location (which must not exist).
+     */
+    public void restore(StagedEntry entry) {
+        Path stagingDir = getTrashDir(entry.baseDir).resolve(entry.id);
+        Path targetPath = entry.baseDir;
+        for (String part : entry.relativePath.split("/")) {
+            targetPath = targetPath.resolve(part);
+        }
+
+        try {
+            Files.createDirectories(targetPath.getParent());
+            Files.move(stagingDir.resolve(targetPath.getFileName().toString()), targetPath, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(stagingDir);
+            Files.delete(getTrashDir(entry.baseDir).resolve(entry.id + ORIGIN_SUFFIX));
+            logger.info("Restored " + targetPath.toAbsolutePath());
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to restore " + targetPath.toAbsolutePath(), ex);
+        }
+    }
+
+
+    private static String toRelativePath(Path baseDir, Path path) {
+        StringBuilder sb = new StringBuilder();
+        for (Path part : baseDir.relativize(path)) {
+            if (sb.length() > 0) {
+                sb.append("/");
+            }
+            sb.append(part.getFileName().toString());
+        }
+        return sb.toString();
+    }
+}
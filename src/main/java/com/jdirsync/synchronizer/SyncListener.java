@@ -0,0 +1,39 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import com.jdirsync.model.DiffRecord;
+
+/**
+ * Notified by the synchronizer about the outcome of each processed record
+ * (records which were not processed - e.g. because of cancellation - are not reported).
+ */
+public interface SyncListener {
+    enum Outcome {
+        /** Record was applied - both sides are now the same */
+        FINISHED,
+
+        /** Record was not applied - trees were not modified */
+        FAILED,
+
+        /** Record was applied only partially (e.g. target was deleted but copy failed) - trees were modified */
+        PARTIAL
+    }
+
+    void onRecordSynchronized(DiffRecord diffRecord, Outcome outcome);
+}
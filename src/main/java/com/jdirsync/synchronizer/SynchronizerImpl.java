@@ -1,125 +1,319 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.synchronizer;
-
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
-
-import com.jdirsync.model.DiffRecord;
-import com.jdirsync.model.DirectoryNode;
-import com.jdirsync.model.Node;
-import com.jdirsync.util.FileUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class SynchronizerImpl implements Synchronizer {
-    private static Logger logger = LoggerFactory.getLogger(SynchronizerImpl.class);
-
-
-    @Override
-    public void synchronize(Path leftBaseDir, Path rightBaseDir, List<DiffRecord> diffList,
-                            AtomicLong bytesCounter, AtomicLong totalBytesCounter) {
-
-        // Calculate how many bytes need to be copied
-        if (totalBytesCounter != null) {
-            long totalCopySize = 0;
-            for (DiffRecord diffRecord : diffList) {
-                switch (diffRecord.getAction()) {
-                    case USE_LEFT:
-                        if (diffRecord.getLeftNode() != null) {
-                            totalCopySize = totalCopySize + diffRecord.getLeftNode().getSize();
-                        }
-                        break;
-                    case USE_RIGHT:
-                        if (diffRecord.getRightNode() != null) {
-                            totalCopySize = totalCopySize + diffRecord.getRightNode().getSize();
-                        }
-                        break;
-                }
-            }
-            totalBytesCounter.set(totalCopySize);
-        }
-
-        // Synchronize trees
-        for (DiffRecord diffRecord : diffList) {
-            switch (diffRecord.getAction()) {
-                case USE_LEFT:
-                    doSynchronize(diffRecord, bytesCounter,
-                            leftBaseDir, diffRecord.getLeftNode(),
-                            rightBaseDir, diffRecord.getRightParent(), diffRecord.getRightNode());
-                    break;
-                case USE_RIGHT:
-                    doSynchronize(diffRecord, bytesCounter,
-                            rightBaseDir, diffRecord.getRightNode(),
-                            leftBaseDir, diffRecord.getLeftParent(), diffRecord.getLeftNode());
-                    break;
-            }
-        }
-    }
-
-    private void doSynchronize(DiffRecord record, AtomicLong bytesCounter,
-                              Path fromBaseDir, Node fromChild,
-                              Path toBaseDir, DirectoryNode toParent, Node toChild) {
-
-        // Delete left dir
-        if (toChild != null) {
-            // Build full path
-            Path deletePath = buildPath(toBaseDir, record.getPath(), toChild);
-
-            // Delete on filesystem
-            logger.info("Deleting " + deletePath.toAbsolutePath() );
-            FileUtil.deleteRecursively(deletePath);
-
-            // Delete in tree
-            toParent.remove(toChild);
-        }
-
-
-        if (fromChild != null) {
-            // Build full path
-            Path sourcePath = buildPath(fromBaseDir, record.getPath(), fromChild);
-            Path targetPath = (fromChild instanceof DirectoryNode)
-                ? buildPath(toBaseDir, record.getPath(), fromChild)
-                : buildPath(toBaseDir, record.getPath(), fromChild);
-
-            // Copy on file system
-            logger.info("Copying "  + sourcePath.toAbsolutePath() + " to " + targetPath.toString() );
-            FileUtil.copyRecursively(sourcePath, targetPath, bytesCounter, StandardCopyOption.COPY_ATTRIBUTES);
-
-            // Copy in tree
-            toParent.add( fromChild.copy() );
-        }
-    }
-
-
-    private Path buildPath(Path basePath, String[] path, Node node) {
-        Path result = basePath;
-
-        for (String part : path) {
-            result = result.resolve(part);
-        }
-
-        if (node != null) {
-            result = result.resolve(node.getName());
-        }
-
-        return result;
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.synchronizer;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.builder.DiffBuilder;
+import com.jdirsync.builder.IndexBuilder;
+import com.jdirsync.builder.IndexBuilderNio;
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.metrics.StripedCounter;
+import com.jdirsync.metrics.TraceEvent;
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SynchronizerImpl implements Synchronizer {
+    private static Logger logger = LoggerFactory.getLogger(SynchronizerImpl.class);
+    private static final StripedCounter syncErrors = MetricsRegistry.getDefault().counter("sync.errors");
+
+    private final FileCopier fileCopier;
+    private final FileDeleter fileDeleter;
+    private final IndexBuilder indexBuilder;
+    private final DiffBuilder diffBuilder;
+
+
+    public SynchronizerImpl() {
+        this(new FileCopierNio(), new FileDeleterNio());
+    }
+
+
+    public SynchronizerImpl(FileCopier fileCopier, FileDeleter fileDeleter) {
+        this(fileCopier, fileDeleter, new IndexBuilderNio(), new DiffBuilder());
+    }
+
+
+    /**
+     * Index builder is used to scan directories which were not scanned yet (see lazy mode of IndexBuilderNio)
+     * once they need to be synchronized - it has to scan the whole subtree.
+     */
+    public SynchronizerImpl(FileCopier fileCopier, FileDeleter fileDeleter, IndexBuilder indexBuilder, DiffBuilder diffBuilder) {
+        this.fileCopier = fileCopier;
+        this.fileDeleter = fileDeleter;
+        this.indexBuilder = indexBuilder;
+        this.diffBuilder = diffBuilder;
+    }
+
+
+    @Override
+    public void synchronize(Path leftBaseDir, Path rightBaseDir, List<DiffRecord> diffList,
+                            AtomicLong bytesCounter, AtomicLong totalBytesCounter, TaskControl taskControl,
+                            SyncListener listener) {
+
+        // Calculate how many bytes need to be copied
+        if (totalBytesCounter != null) {
+            totalBytesCounter.set(getCopySize(diffList));
+        }
+
+        // Synchronize trees
+        int failedCount = 0;
+        try {
+            for (DiffRecord diffRecord : diffList) {
+                taskControl.checkpoint();
+                if (diffRecord.getAction() != DiffRecord.Action.NONE
+                        && !synchronizeRecord(diffRecord, leftBaseDir, rightBaseDir, bytesCounter, totalBytesCounter,
+                                              taskControl, listener)) {
+                    failedCount++;
+                }
+            }
+        } finally {
+            fileDeleter.onSynchronizationFinished(leftBaseDir);
+            fileDeleter.onSynchronizationFinished(rightBaseDir);
+        }
+
+        if (failedCount > 0) {
+            throw new RuntimeException(failedCount + " record(s) failed to synchronize !");
+        }
+    }
+
+
+    private long getCopySize(List<DiffRecord> diffList) {
+        long totalCopySize = 0;
+        for (DiffRecord diffRecord : diffList) {
+            switch (diffRecord.getAction()) {
+                case USE_LEFT:
+                    if (diffRecord.getLeftNode() != null) {
+                        totalCopySize = totalCopySize + diffRecord.getLeftNode().getSize();
+                    }
+                    break;
+                case USE_RIGHT:
+                    if (diffRecord.getRightNode() != null) {
+                        totalCopySize = totalCopySize + diffRecord.getRightNode().getSize();
+                    }
+                    break;
+            }
+        }
+        return totalCopySize;
+    }
+
+
+    /**
+     * Synchronizes one record and reports the outcome to the listener.
+     * Returns false if the record failed; cancellation is reported and re-thrown.
+     */
+    private boolean synchronizeRecord(DiffRecord record, Path leftBaseDir, Path rightBaseDir,
+                                      AtomicLong bytesCounter, AtomicLong totalBytesCounter, TaskControl taskControl,
+                                      SyncListener listener) {
+        try {
+            applyRecord(record, leftBaseDir, rightBaseDir, bytesCounter, totalBytesCounter, taskControl);
+            notifyListener(listener, record, SyncListener.Outcome.FINISHED);
+            return true;
+        } catch (CancellationException e) {
+            notifyListener(listener, record, getFailureOutcome(record));
+            throw e;
+        } catch (RuntimeException e) {
+            syncErrors.increment();
+            logger.warn("Failed to synchronize " + record.getFullPathString(), e);
+            notifyListener(listener, record, getFailureOutcome(record));
+            return false;
+        }
+    }
+
+
+    private SyncListener.Outcome getFailureOutcome(DiffRecord record) {
+        // Target node is replaced/removed in the tree only once the file system was modified
+        boolean useLeft = (record.getAction() == DiffRecord.Action.USE_LEFT);
+        DirectoryNode toParent = useLeft ? record.getRightParent() : record.getLeftParent();
+        Node toChild = useLeft ? record.getRightNode() : record.getLeftNode();
+        boolean modified = (toParent.getChild(record.getName()) != toChild);
+        return modified ? SyncListener.Outcome.PARTIAL : SyncListener.Outcome.FAILED;
+    }
+
+
+    private void notifyListener(SyncListener listener, DiffRecord record, SyncListener.Outcome outcome) {
+        if (listener != null) {
+            listener.onRecordSynchronized(record, outcome);
+        }
+    }
+
+
+    private void applyRecord(DiffRecord record, Path leftBaseDir, Path rightBaseDir,
+                             AtomicLong bytesCounter, AtomicLong totalBytesCounter, TaskControl taskControl) {
+        long start = System.nanoTime();
+        long startBytes = (bytesCounter != null) ? bytesCounter.get() : -1;
+        if (record.getDiffType() == DiffRecord.DiffType.UNKNOWN) {
+            applyUnknownRecord(record, leftBaseDir, rightBaseDir, bytesCounter, totalBytesCounter, taskControl);
+        } else {
+            applyKnownRecord(record, leftBaseDir, rightBaseDir, bytesCounter, totalBytesCounter, taskControl);
+        }
+        TraceEvent.SYNC_RECORD.record(System.nanoTime() - start, record.getFullPath(),
+                (bytesCounter != null) ? bytesCounter.get() - startBytes : -1);
+    }
+
+
+    private void applyKnownRecord(DiffRecord record, Path leftBaseDir, Path rightBaseDir,
+                                  AtomicLong bytesCounter, AtomicLong totalBytesCounter, TaskControl taskControl) {
+        switch (record.getAction()) {
+            case USE_LEFT:
+                doSynchronize(record, bytesCounter, totalBytesCounter, taskControl,
+                        leftBaseDir, record.getLeftParent(), record.getLeftNode(),
+                        rightBaseDir, record.getRightParent(), record.getRightNode());
+                break;
+            case USE_RIGHT:
+                doSynchronize(record, bytesCounter, totalBytesCounter, taskControl,
+                        rightBaseDir, record.getRightParent(), record.getRightNode(),
+                        leftBaseDir, record.getLeftParent(), record.getLeftNode());
+                break;
+        }
+    }
+
+
+    /**
+     * Directories which were not scanned yet - scan both sides and synchronize only the differences.
+     */
+    private void applyUnknownRecord(DiffRecord record, Path leftBaseDir, Path rightBaseDir,
+                                    AtomicLong bytesCounter, AtomicLong totalBytesCounter, TaskControl taskControl) {
+        expand(leftBaseDir, record.getLeftParent(), record.getFullPath(), record.getLeftNode());
+        expand(rightBaseDir, record.getRightParent(), record.getFullPath(), record.getRightNode());
+
+        List<DiffRecord> diffList = diffBuilder.buildDiff(record.getPath(), record.getLeftParent(), record.getRightParent(), record.getName());
+        for (DiffRecord diffRecord : diffList) {
+            diffRecord.setAction(record.getAction());
+        }
+        if (totalBytesCounter != null) {
+            totalBytesCounter.addAndGet(getCopySize(diffList));
+        }
+
+        int failedCount = 0;
+        for (DiffRecord diffRecord : diffList) {
+            taskControl.checkpoint();
+            try {
+                applyRecord(diffRecord, leftBaseDir, rightBaseDir, bytesCounter, totalBytesCounter, taskControl);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                syncErrors.increment();
+                logger.warn("Failed to synchronize " + diffRecord.getFullPathString(), e);
+                failedCount++;
+            }
+        }
+
+        if (failedCount > 0) {
+            throw new RuntimeException(failedCount + " of " + diffList.size() + " entries of "
+                    + record.getFullPathString() + " failed to synchronize !");
+        }
+    }
+
+
+    /**
+     * Scans the directory (which was not fully scanned yet) and replaces it in the tree.
+     */
+    private DirectoryNode expand(Path baseDir, DirectoryNode parent, String[] path, Node node) {
+        logger.info("Scanning " + buildPath(baseDir, path, null).toAbsolutePath());
+        DirectoryNode result = indexBuilder.buildIndex(baseDir, path, new AtomicInteger(0));
+        if (result == null) {
+            throw new RuntimeException("Directory " + buildPath(baseDir, path, null).toAbsolutePath() + " no longer exists !");
+        }
+        parent.replace(node.getName(), result);
+        return result;
+    }
+
+
+    private void doSynchronize(DiffRecord record, AtomicLong bytesCounter, AtomicLong totalBytesCounter, TaskControl taskControl,
+                               Path fromBaseDir, DirectoryNode fromParent, Node fromChild,
+                               Path toBaseDir, DirectoryNode toParent, Node toChild) {
+
+        // Scan source first if it was not scanned yet (otherwise only part of it would be copied)
+        if (fromChild instanceof DirectoryNode && !((DirectoryNode) fromChild).isFullyExpanded()) {
+            Node expandedChild = expand(fromBaseDir, fromParent, record.getFullPath(), fromChild);
+            if (totalBytesCounter != null) {
+                totalBytesCounter.addAndGet(expandedChild.getSize() - fromChild.getSize());
+            }
+            fromChild = expandedChild;
+        }
+
+        // Delete left dir
+        if (toChild != null) {
+            // Build full path
+            Path deletePath = buildPath(toBaseDir, record.getPath(), toChild);
+
+            // Delete on filesystem
+            logger.info("Deleting " + deletePath.toAbsolutePath() );
+            fileDeleter.delete(toBaseDir, deletePath);
+
+            // Delete in tree
+            toParent.remove(toChild);
+        }
+
+
+        if (fromChild != null) {
+            // Build full path
+            Path sourcePath = buildPath(fromBaseDir, record.getPath(), fromChild);
+            Path targetPath = (fromChild instanceof DirectoryNode)
+                ? buildPath(toBaseDir, record.getPath(), fromChild)
+                : buildPath(toBaseDir, record.getPath(), fromChild);
+
+            // Copy on file system
+            logger.info("Copying "  + sourcePath.toAbsolutePath() + " to " + targetPath.toString() );
+            if (Files.exists(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+                // Changed since the index was built - do not touch it (it would be removed by the roll back)
+                throw new RuntimeException("Target " + targetPath.toAbsolutePath() + " already exists !");
+            }
+            boolean copied = false;
+            try {
+                fileCopier.copy(fromChild, sourcePath, targetPath, bytesCounter, taskControl);
+                copied = true;
+            } finally {
+                if (!copied) {
+                    // Roll back partial copy (cancelled or failed) so that the file system matches the tree
+                    logger.info("Removing partial copy " + targetPath.toAbsolutePath());
+                    FileUtil.deleteRecursively(targetPath);
+                }
+            }
+
+            // Copy in tree
+            toParent.add( fromChild.copy() );
+        }
+    }
+
+
+    private Path buildPath(Path basePath, String[] path, Node node) {
+        Path result = basePath;
+
+        for (String part : path) {
+            result = result.resolve(part);
+        }
+
+        if (node != null) {
+            result = result.resolve(node.getName());
+        }
+
+        return result;
+    }
+}
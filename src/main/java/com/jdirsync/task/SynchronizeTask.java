@@ -1,70 +1,183 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.task;
-
-import java.nio.file.Path;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicLong;
-
-import com.jdirsync.core.WrappedFuture;
-import com.jdirsync.model.DiffRecord;
-import com.jdirsync.synchronizer.Synchronizer;
-
-public class SynchronizeTask extends WrappedFuture<Void> {
-    private AtomicLong bytesCopied;
-    private AtomicLong totalCopyBytes;
-
-    private SynchronizeTask(Future<Void> future, AtomicLong bytesCopied, AtomicLong totalCopyBytes) {
-        super(future);
-        this.bytesCopied = bytesCopied;
-        this.totalCopyBytes = totalCopyBytes;
-    }
-
-
-    public long getBytesCopied() {
-        return bytesCopied.get();
-    }
-
-
-    public long getTotalCopyBytes() {
-        return totalCopyBytes.get();
-    }
-
-
-    public static SynchronizeTask start(ExecutorService executorService, final Synchronizer synchronizer,
-                                       final Path leftBaseDir, final Path rightBaseDir, final List<DiffRecord> diffList) {
-        // Initialize counters
-        final AtomicLong bytesCopied = new AtomicLong(0);
-        final AtomicLong totalCopyBytes = new AtomicLong(0);
-
-        // Execute task
-        final Future<Void> future = executorService.submit(new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-                synchronizer.synchronize(leftBaseDir, rightBaseDir, diffList, bytesCopied, totalCopyBytes);
-                return null;
-            }
-        });
-
-        // Build result
-        return new SynchronizeTask(future, bytesCopied, totalCopyBytes);
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.task;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.core.ProgressChannel;
+import com.jdirsync.core.Promise;
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.core.WrappedFuture;
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.synchronizer.SyncListener;
+import com.jdirsync.synchronizer.Synchronizer;
+
+public class SynchronizeTask extends WrappedFuture<Void> {
+    public static final String BYTES_COPIED_SUFFIX = ".bytesCopied";
+    public static final String TOTAL_BYTES_SUFFIX = ".totalBytes";
+    public static final String PAUSED_SUFFIX = ".paused";
+
+    private AtomicLong bytesCopied;
+    private AtomicLong totalCopyBytes;
+    private TaskControl taskControl;
+    private Map<DiffRecord, SyncListener.Outcome> outcomes;
+    private DirectoryNode[] snapshots;
+    private ProgressChannel channel;
+    private String topic;
+
+    private SynchronizeTask(Promise<Void> future, AtomicLong bytesCopied, AtomicLong totalCopyBytes,
+                            TaskControl taskControl, Map<DiffRecord, SyncListener.Outcome> outcomes,
+                            DirectoryNode[] snapshots, ProgressChannel channel, String topic) {
+        super(future);
+        this.snapshots = snapshots;
+        this.channel = channel;
+        this.topic = topic;
+        this.bytesCopied = bytesCopied;
+        this.totalCopyBytes = totalCopyBytes;
+        this.taskControl = taskControl;
+        this.outcomes = outcomes;
+    }
+
+
+    public void pause() {
+        taskControl.pause();
+        channel.publish(topic + PAUSED_SUFFIX, Boolean.TRUE);
+    }
+
+
+    public void resume() {
+        taskControl.resume();
+        channel.publish(topic + PAUSED_SUFFIX, Boolean.FALSE);
+    }
+
+
+    public boolean isPaused() {
+        return taskControl.isPaused();
+    }
+
+
+    /**
+     * Cancellation is cooperative - the synchronizer stops within one copy chunk, rolls back the record
+     * it was working on and the task then completes with CancellationException (wrapped in ExecutionException).
+     * The future itself is not cancelled (isCancelled() stays false), see wasCancelled().
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+        taskControl.cancel();
+        return true;
+    }
+
+
+    /**
+     * Returns true if cancellation of the synchronization was requested.
+     */
+    public boolean wasCancelled() {
+        return taskControl.isCancelled();
+    }
+
+
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+
+    public long getTotalCopyBytes() {
+        return totalCopyBytes.get();
+    }
+
+
+    /**
+     * Returns outcome of each record processed so far (records which were not processed are not present).
+     */
+    public Map<DiffRecord, SyncListener.Outcome> getOutcomes() {
+        return outcomes;
+    }
+
+
+    /**
+     * Returns copy of the left tree taken once the synchronization succeeded (null if no trees were given).
+     */
+    public DirectoryNode getLeftSnapshot() {
+        return snapshots[0];
+    }
+
+
+    /**
+     * Returns copy of the right tree taken once the synchronization succeeded (null if no trees were given).
+     */
+    public DirectoryNode getRightSnapshot() {
+        return snapshots[1];
+    }
+
+
+    /**
+     * Publishes copied/total bytes, pause state and completion to the channel (topics prefixed by topic).
+     *
+     * @param leftIndex tree to be copied by the task once the synchronization succeeds (e.g. to be persisted
+     *                  while UI keeps modifying the tree), null if no copy is needed
+     * @param rightIndex see leftIndex
+     */
+    public static SynchronizeTask start(ExecutorService executorService, final Synchronizer synchronizer,
+                                       final Path leftBaseDir, final Path rightBaseDir, final List<DiffRecord> diffList,
+                                       final DirectoryNode leftIndex, final DirectoryNode rightIndex,
+                                       ProgressChannel channel, String topic) {
+        // Initialize counters
+        final AtomicLong bytesCopied = new AtomicLong(0);
+        final AtomicLong totalCopyBytes = new AtomicLong(0);
+        final TaskControl taskControl = new TaskControl();
+        final Map<DiffRecord, SyncListener.Outcome> outcomes = new ConcurrentHashMap<>();
+        final DirectoryNode[] snapshots = new DirectoryNode[2];
+        channel.track(topic + BYTES_COPIED_SUFFIX, bytesCopied);
+        channel.track(topic + TOTAL_BYTES_SUFFIX, totalCopyBytes);
+
+        // Execute task
+        Promise<Void> future = channel.newTask(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                synchronizer.synchronize(leftBaseDir, rightBaseDir, diffList, bytesCopied, totalCopyBytes, taskControl,
+                        new SyncListener() {
+                            @Override
+                            public void onRecordSynchronized(DiffRecord diffRecord, SyncListener.Outcome outcome) {
+                                outcomes.put(diffRecord, outcome);
+                            }
+                        });
+
+                // Trees are modified only by the synchronizer until the task is done
+                if (leftIndex != null && rightIndex != null) {
+                    snapshots[0] = (DirectoryNode) leftIndex.copy();
+                    snapshots[1] = (DirectoryNode) rightIndex.copy();
+                }
+                return null;
+            }
+        }, topic);
+        executorService.execute(future);
+
+        // Build result
+        return new SynchronizeTask(future, bytesCopied, totalCopyBytes, taskControl, outcomes, snapshots, channel, topic);
+    }
+}
@@ -1,124 +1,200 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.ui;
-
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.concurrent.Executors;
-
-import com.jdirsync.builder.DiffBuilder;
-import com.jdirsync.builder.IndexBuilderNio;
-import com.jdirsync.synchronizer.SynchronizerImpl;
-import com.jdirsync.ui.view.MainFormView;
-import com.jdirsync.ui.viewmodel.LogObservingViewModel;
-import com.jdirsync.ui.viewmodel.MainFormViewModel;
-import com.jdirsync.ui.viewmodel.SyncViewModel;
-import javafx.application.Application;
-import javafx.fxml.FXMLLoader;
-import javafx.fxml.JavaFXBuilderFactory;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
-import javafx.stage.Stage;
-import javafx.util.Callback;
-
-/**
- * Wrapper class for main function.
- */
-public class Main extends Application {
-    private static MainFormViewModel mainFormViewModel;
-
-    @Override
-    public void start(Stage stage) throws Exception {
-        stage.titleProperty().bindBidirectional(mainFormViewModel.windowTitleProperty());
-
-        // Set Scene
-        FXMLLoader loader = new FXMLLoader(
-                getClass().getResource("/com/jdirsync/ui/view/MainForm.fxml"),
-                null,
-                new JavaFXBuilderFactory(),
-                new Callback<Class<?>, Object>() {
-                    @Override
-                    public Object call(Class<?> aClass) {
-                        return new MainFormView(mainFormViewModel);
-                    }
-                });
-        loader.load();
-        Parent parent = (Parent) loader.getRoot();
-
-        Scene scene = new Scene(parent);
-        scene.getStylesheets().add(getClass().getResource("/com/jdirsync/ui/view/MainForm.css").toExternalForm());
-        stage.setScene(scene);
-
-        // Show stage
-        stage.show();
-    }
-
-
-
-
-    private static void printUsage() {
-        System.err.println("Usage: java -jar ./jdirsync.jar -ui <leftName> <leftPath> <rightName> <rightPath>");
-    }
-
-
-    /**
-     * Program main function.
-     * @param args the command line arguments
-     */
-    public static void main(String[] args) {
-        try {
-            if (args.length <= 1) {
-                printUsage();
-                System.exit(1);
-            }
-
-            if ("-ui".equals(args[0]) && args.length == 5) {
-                startUIMode(args);
-            } else {
-                printUsage();
-                System.exit(1);
-            }
-        } catch (Exception ex) {
-            System.err.println("Exception occurred during initialization :" + ex.getMessage());
-            ex.printStackTrace();
-        }
-    }
-
-
-    private static void startUIMode(String[] args) {
-        // Input arguments
-        String leftName = args[1] + "(L)";
-        Path leftPath = Paths.get(args[2]);
-        String rightName = args[3] + "(R)";
-        Path rightPath = Paths.get(args[4]);
-
-        // Main Presentation Model
-        mainFormViewModel = new MainFormViewModel(
-                new SyncViewModel(leftName, leftPath, rightName, rightPath,
-                        Executors.newCachedThreadPool(),
-                        new IndexBuilderNio(),
-                        new DiffBuilder(),
-                        new SynchronizerImpl()),
-                new LogObservingViewModel()
-        );
-
-        // Start application
-        launch(args);
-
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.jdirsync.builder.DiffBuilder;
+import com.jdirsync.builder.IndexBuilder;
+import com.jdirsync.builder.IndexBuilderParallel;
+import com.jdirsync.builder.IndexBuilderNio;
+import com.jdirsync.builder.SidecarIndexBuilder;
+import com.jdirsync.core.ExecutionPools;
+import com.jdirsync.core.Throttle;
+import com.jdirsync.metrics.MetricsMBean;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.serialization.BinaryIndexSerializer;
+import com.jdirsync.store.IndexStore;
+import com.jdirsync.synchronizer.FileCopier;
+import com.jdirsync.synchronizer.FileCopierNio;
+import com.jdirsync.synchronizer.ParallelFileCopier;
+import com.jdirsync.synchronizer.PipelinedFileCopier;
+import com.jdirsync.synchronizer.StagingFileDeleter;
+import com.jdirsync.synchronizer.SynchronizerImpl;
+import com.jdirsync.synchronizer.VerifyMode;
+import com.jdirsync.ui.view.MainFormView;
+import com.jdirsync.ui.viewmodel.LogObservingViewModel;
+import com.jdirsync.ui.viewmodel.MainFormViewModel;
+import com.jdirsync.ui.viewmodel.SyncViewModel;
+import com.jdirsync.ui.viewmodel.ThrottleViewModel;
+import com.jdirsync.util.FileUtil;
+import javafx.application.Application;
+import javafx.fxml.FXMLLoader;
+import javafx.fxml.JavaFXBuilderFactory;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import javafx.util.Callback;
+
+/**
+ * Wrapper class for main function.
+ */
+public class Main extends Application {
+    private static MainFormViewModel mainFormViewModel;
+    private static ExecutionPools executionPools;
+    private static IndexBuilderParallel parallelIndexBuilder;
+    private static ParallelFileCopier parallelFileCopier;
+
+    @Override
+    public void start(Stage stage) throws Exception {
+        stage.titleProperty().bindBidirectional(mainFormViewModel.windowTitleProperty());
+
+        // Set Scene
+        FXMLLoader loader = new FXMLLoader(
+                getClass().getResource("/com/jdirsync/ui/view/MainForm.fxml"),
+                null,
+                new JavaFXBuilderFactory(),
+                new Callback<Class<?>, Object>() {
+                    @Override
+                    public Object call(Class<?> aClass) {
+                        return new MainFormView(mainFormViewModel);
+                    }
+                });
+        loader.load();
+        Parent parent = (Parent) loader.getRoot();
+
+        Scene scene = new Scene(parent);
+        scene.getStylesheets().add(getClass().getResource("/com/jdirsync/ui/view/MainForm.css").toExternalForm());
+        stage.setScene(scene);
+
+        // Show stage
+        stage.show();
+    }
+
+
+    @Override
+    public void stop() throws Exception {
+        // Let background work (e.g. writing of index files) finish
+        executionPools.shutdown();
+        if (parallelIndexBuilder != null) {
+            parallelIndexBuilder.close();
+            parallelFileCopier.close();
+        }
+        executionPools.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+
+
+
+    private static void printUsage() {
+        System.err.println("Usage: java [-Djdirsync.scanDepth=<depth>] [-Djdirsync.ioPermits=<count>] -jar ./jdirsync.jar -ui <leftName> <leftPath> <rightName> <rightPath>");
+    }
+
+
+    /**
+     * Program main function.
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length <= 1) {
+                printUsage();
+                System.exit(1);
+            }
+
+            if ("-ui".equals(args[0]) && args.length == 5) {
+                startUIMode(args);
+            } else {
+                printUsage();
+                System.exit(1);
+            }
+        } catch (Exception ex) {
+            System.err.println("Exception occurred during initialization :" + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+
+    private static IndexStore createIndexStore(Path rootPath, ExecutorService executorService) {
+        // History of synchronized indexes - kept for a month, compacted after 100K changes
+        return new IndexStore(rootPath.resolve(FileUtil.METADATA_DIR_NAME).resolve("history"),
+                executorService, TimeUnit.DAYS.toMillis(30), 100000);
+    }
+
+
+    private static void startUIMode(String[] args) {
+        // Input arguments
+        String leftName = args[1] + "(L)";
+        Path leftPath = Paths.get(args[2]);
+        String rightName = args[3] + "(R)";
+        Path rightPath = Paths.get(args[4]);
+
+        // Throttle shared by index building and synchronization (limits can be changed from UI at any time)
+        Throttle throttle = new Throttle();
+        executionPools = new ExecutionPools();
+        ExecutorService executorService = executionPools.getIoExecutor();
+
+        // Scan, diff and sync throughput is exported over JMX (com.jdirsync:type=Metrics)
+        MetricsMBean.register(MetricsRegistry.getDefault());
+
+        // Lazy index building - deeper directories are scanned once expanded or synchronized
+        int scanDepth = Integer.getInteger("jdirsync.scanDepth", IndexBuilderNio.UNLIMITED_DEPTH);
+
+        // Parallel mode - directories are listed and files copied concurrently (up to ioPermits at a time)
+        int ioPermits = Integer.getInteger("jdirsync.ioPermits", 0);
+        IndexBuilder rootIndexBuilder;
+        FileCopier fileCopier;
+        if (ioPermits > 0) {
+            parallelIndexBuilder = new IndexBuilderParallel(throttle, ioPermits, scanDepth);
+            parallelFileCopier = new ParallelFileCopier(new FileCopierNio(throttle), ioPermits);
+            rootIndexBuilder = parallelIndexBuilder;
+            fileCopier = parallelFileCopier;
+        } else {
+            rootIndexBuilder = new IndexBuilderNio(throttle, scanDepth);
+            fileCopier = new PipelinedFileCopier(VerifyMode.SAMPLED, throttle);
+        }
+
+        // Roots are loaded from index sidecar written after the last synchronization (if it passes spot-checks)
+        SidecarIndexBuilder indexBuilder = new SidecarIndexBuilder(rootIndexBuilder, new BinaryIndexSerializer(), 1000);
+
+        // Main Presentation Model
+        mainFormViewModel = new MainFormViewModel(
+                new SyncViewModel(leftName, leftPath, rightName, rightPath,
+                        executionPools,
+                        indexBuilder,
+                        new DiffBuilder(),
+                        new SynchronizerImpl(
+                                fileCopier,
+                                new StagingFileDeleter(executorService, throttle, TimeUnit.DAYS.toMillis(1)),
+                                new IndexBuilderNio(throttle),
+                                new DiffBuilder()),
+                        createIndexStore(leftPath, executorService),
+                        createIndexStore(rightPath, executorService),
+                        indexBuilder),
+                new LogObservingViewModel(),
+                new ThrottleViewModel(throttle)
+        );
+
+        // Start application
+        launch(args);
+
+    }
+}
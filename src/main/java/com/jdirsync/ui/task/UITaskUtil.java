@@ -1,141 +1,121 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.ui.task;
-
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-
-import com.jdirsync.core.Action1;
-import com.jdirsync.core.Action2;
-import javafx.application.Platform;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public final class UITaskUtil {
-    private UITaskUtil() { }
-
-    private static final Logger logger = LoggerFactory.getLogger(UITaskUtil.class);
-
-
-    private static <T extends Future<?>> void waitForFutureCompletion(T future) throws InterruptedException {
-        try {
-            future.get();
-        } catch (ExecutionException ex) {
-            logger.trace("Task exited with exception", ex);
-        }
-    }
-
-
-    public static <T1 extends Future<?>> Future<?> onCompleted(ExecutorService executorService, final T1 future1, final Action1<T1> callback) {
-        return executorService.submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    waitForFutureCompletion(future1);
-                } catch (InterruptedException e) {
-                    Thread.interrupted();
-                    return;
-                }
-
-                Platform.runLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.invoke(future1);
-                    }
-                });
-            }
-        });
-    }
-
-
-    public static <T1 extends Future<?>, T2 extends Future<?>> Future<?> onCompleted(ExecutorService executorService, final T1 future1, final T2 future2, final Action2<T1, T2> callback) {
-        return executorService.submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    waitForFutureCompletion(future1);
-                    waitForFutureCompletion(future2);
-                } catch (InterruptedException e) {
-                    Thread.interrupted();
-                    return;
-                }
-
-                Platform.runLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.invoke(future1, future2);
-                    }
-                });
-            }
-        });
-    }
-
-
-    public static <T1 extends Future> Future<?> onProgress(ExecutorService executorService, final T1 future1, final long intervalInMillis,  final Action1<T1> callback) {
-        return executorService.submit(new Runnable() {
-            @Override
-            public void run() {
-                while (!future1.isDone()) {
-                    // Update progress
-                    Platform.runLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.invoke(future1);
-                        }
-                    });
-
-                    // Wait
-                    try {
-                        Thread.sleep(intervalInMillis);
-                    } catch (InterruptedException e) {
-                        Thread.interrupted();
-                        return;
-                    }
-                }
-            }
-        });
-    }
-
-
-
-    public static <T1 extends Future, T2 extends Future> Future<?> onProgress(ExecutorService executorService, final T1 future1, final T2 future2, final long intervalInMillis,  final Action2<T1, T2> callback) {
-        return executorService.submit(new Runnable() {
-            @Override
-            public void run() {
-                while (!future1.isDone() || !future2.isDone()) {
-                    // Update progress
-                    Platform.runLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.invoke(future1, future2);
-                        }
-                    });
-
-                    // Wait
-                    try {
-                        Thread.sleep(intervalInMillis);
-                    } catch (InterruptedException e) {
-                        Thread.interrupted();
-                        return;
-                    }
-                }
-            }
-        });
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.task;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import com.jdirsync.core.Action1;
+import com.jdirsync.core.Action2;
+import com.jdirsync.core.ProgressChannel;
+import javafx.application.Platform;
+
+public final class UITaskUtil {
+    private UITaskUtil() { }
+
+    // Maximum rate of progress updates (10 frames per second)
+    public static final long FRAME_MILLIS = 100;
+
+    /**
+     * Executes runnables on JavaFX application thread.
+     */
+    public static final Executor FX_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            Platform.runLater(command);
+        }
+    };
+
+    // Takes progress frames of all channels (idle unless some task is running)
+    private static final ScheduledExecutorService progressScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "progress-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+
+    /**
+     * Returns channel which delivers coalesced progress updates to UI thread.
+     */
+    public static ProgressChannel newProgressChannel() {
+        return new ProgressChannel(progressScheduler, FX_EXECUTOR, FRAME_MILLIS);
+    }
+
+
+    /**
+     * Invokes progressCallback (on UI thread) whenever the tasks publish changes to the channel
+     * (completion is handled by the caller, who closes the channel).
+     */
+    public static <T1 extends Future<?>, T2 extends Future<?>> void onProgress(ProgressChannel channel,
+                                                                             final T1 future1, final T2 future2,
+                                                                             final Action2<T1, T2> progressCallback) {
+        channel.subscribe(new Action1<Map<String, Object>>() {
+            @Override
+            public void invoke(Map<String, Object> batch) {
+                progressCallback.invoke(future1, future2);
+            }
+        });
+    }
+
+
+    /**
+     * Invokes progressCallback (on UI thread) whenever the task publishes changes to the channel and
+     * completedCallback once the task is done (the channel is closed then).
+     */
+    public static <T1 extends Future<?>> void onUpdate(final ProgressChannel channel, final T1 future1,
+                                                      final Action1<T1> progressCallback,
+                                                      final Action1<T1> completedCallback) {
+        channel.subscribe(new Action1<Map<String, Object>>() {
+            @Override
+            public void invoke(Map<String, Object> batch) {
+                if (future1.isDone()) {
+                    channel.close();
+                    completedCallback.invoke(future1);
+                } else {
+                    progressCallback.invoke(future1);
+                }
+            }
+        });
+    }
+
+
+    public static <T1 extends Future<?>, T2 extends Future<?>> void onUpdate(final ProgressChannel channel,
+                                                                           final T1 future1, final T2 future2,
+                                                                           final Action2<T1, T2> progressCallback,
+                                                                           final Action2<T1, T2> completedCallback) {
+        channel.subscribe(new Action1<Map<String, Object>>() {
+            @Override
+            public void invoke(Map<String, Object> batch) {
+                if (future1.isDone() && future2.isDone()) {
+                    channel.close();
+                    completedCallback.invoke(future1, future2);
+                } else {
+                    progressCallback.invoke(future1, future2);
+                }
+            }
+        });
+    }
+}
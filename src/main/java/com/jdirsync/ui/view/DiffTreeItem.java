@@ -0,0 +1,58 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jdirsync.ui.viewmodel.DiffTreeModel;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+
+/**
+ * Tree item of a diff tree node - child items are created when the item is expanded for the first time
+ * (TreeView asks for children of expanded items only).
+ */
+public class DiffTreeItem extends TreeItem<DiffTreeModel.TreeNode> {
+    private boolean childrenLoaded;
+
+
+    public DiffTreeItem(DiffTreeModel.TreeNode treeNode) {
+        super(treeNode);
+    }
+
+
+    @Override
+    public boolean isLeaf() {
+        return getValue().isLeaf();
+    }
+
+
+    @Override
+    public ObservableList<TreeItem<DiffTreeModel.TreeNode>> getChildren() {
+        if (!childrenLoaded) {
+            childrenLoaded = true;
+            List<DiffTreeItem> children = new ArrayList<>();
+            for (DiffTreeModel.TreeNode child : getValue().getChildren()) {
+                children.add(new DiffTreeItem(child));
+            }
+            super.getChildren().setAll(children);
+        }
+        return super.getChildren();
+    }
+}
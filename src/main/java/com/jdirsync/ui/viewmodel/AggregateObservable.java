@@ -1,38 +1,38 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.ui.viewmodel;
-
-import javafx.beans.property.ReadOnlyObjectWrapper;
-import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableValue;
-
-public class AggregateObservable<T> extends ReadOnlyObjectWrapper<T> {
-
-    @SuppressWarnings("unchecked")
-    public AggregateObservable(T result, ObservableValue... triggers) {
-        super(result);
-        for (ObservableValue observableValue : triggers) {
-            observableValue.addListener(new ChangeListener() {
-                @Override
-                public void changed(ObservableValue observableValue, Object o, Object o1) {
-                    fireValueChangedEvent();
-                }
-            });
-        }
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.viewmodel;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+
+public class AggregateObservable<T> extends ReadOnlyObjectWrapper<T> {
+
+    @SuppressWarnings("unchecked")
+    public AggregateObservable(T result, ObservableValue... triggers) {
+        super(result);
+        for (ObservableValue observableValue : triggers) {
+            observableValue.addListener(new ChangeListener() {
+                @Override
+                public void changed(ObservableValue observableValue, Object o, Object o1) {
+                    fireValueChangedEvent();
+                }
+            });
+        }
+    }
+}
@@ -1,233 +1,316 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.ui.viewmodel;
-
-import com.jdirsync.model.DiffRecord;
-import javafx.beans.binding.Bindings;
-import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.ReadOnlyObjectWrapper;
-import javafx.beans.property.ReadOnlyStringWrapper;
-import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.StringProperty;
-import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableValue;
-
-public class DiffRecordViewModel {
-    public enum Style { NONE, DELETE, OVERWRITE, CREATE, USE, DESTRUCTIVE }
-
-    private DiffRecord diffRecord;
-    private StringProperty leftNameProperty;
-    private StringProperty rightNameProperty;
-    private ReadOnlyStringWrapper pathProperty;
-    private ReadOnlyStringWrapper nameProperty;
-    private ReadOnlyStringWrapper diffTypeProperty;
-    private ReadOnlyObjectWrapper<Style> leftStyleProperty;
-    private ReadOnlyStringWrapper leftSummaryProperty;
-    private ReadOnlyObjectWrapper<Style> rightStyleProperty;
-    private ReadOnlyStringWrapper rightSummaryProperty;
-    private ReadOnlyObjectWrapper<Style> actionStyleProperty;
-    private StringProperty actionSummaryProperty;
-    private ObjectProperty<DiffRecord.Action> actionProperty;
-
-    public DiffRecordViewModel(DiffRecord diffRecord, StringProperty leftNameProperty, StringProperty rightNameProperty) {
-        this.diffRecord = diffRecord;
-        this.leftNameProperty = leftNameProperty;
-        this.rightNameProperty = rightNameProperty;
-        this.pathProperty = new ReadOnlyStringWrapper(diffRecord.getPathString());
-        this.nameProperty = new ReadOnlyStringWrapper(
-                (diffRecord.getLeftNode() != null)
-                        ? diffRecord.getLeftNode().getName()
-                        : diffRecord.getRightNode().getName());
-        this.diffTypeProperty = new ReadOnlyStringWrapper();
-
-        this.leftSummaryProperty = new ReadOnlyStringWrapper();
-        this.leftStyleProperty = new ReadOnlyObjectWrapper<>();
-
-        this.rightSummaryProperty = new ReadOnlyStringWrapper();
-        this.rightStyleProperty = new ReadOnlyObjectWrapper<>();
-
-        this.actionSummaryProperty = new ReadOnlyStringWrapper();
-        this.actionStyleProperty = new ReadOnlyObjectWrapper<>();
-
-        this.actionProperty = new SimpleObjectProperty<>(diffRecord.getAction());
-        this.actionProperty.addListener(new ChangeListener<DiffRecord.Action>() {
-            @Override
-            public void changed(ObservableValue<? extends DiffRecord.Action> observableValue, DiffRecord.Action action, DiffRecord.Action action1) {
-                onActionPropertyChanged();
-            }
-        });
-
-        switch (diffRecord.getDiffType()) {
-            case MISSING_LEFT:
-                diffTypeProperty.bind(Bindings.concat("MISSING on ", leftNameProperty));
-                leftSummaryProperty.set( "---" );
-                rightSummaryProperty.set( diffRecord.getRightNode().getName() );
-                break;
-            case MISSING_RIGHT:
-                diffTypeProperty.bind(Bindings.concat("MISSING on ", rightNameProperty));
-                leftSummaryProperty.set( diffRecord.getLeftNode().getName() );
-                rightSummaryProperty.set("---");
-                break;
-            case SIZE:
-                diffTypeProperty.set("Different SIZE");
-                leftSummaryProperty.set( diffRecord.getLeftNode().toFormattedString("{name} ({size})") );
-                rightSummaryProperty.set( diffRecord.getRightNode().toFormattedString("{name} ({size})") );
-                break;
-            case LEFT_NEWER:
-                diffTypeProperty.bind(Bindings.concat("Newer on ", leftNameProperty));
-                leftSummaryProperty.set( diffRecord.getLeftNode().toFormattedString("{name} ({date})") );
-                rightSummaryProperty.set( diffRecord.getRightNode().toFormattedString("{name} ({date})") );
-                break;
-            case RIGHT_NEWER:
-                diffTypeProperty.bind(Bindings.concat("Newer on ", rightNameProperty));
-                leftSummaryProperty.set( diffRecord.getLeftNode().toFormattedString("{name} ({date})") );
-                rightSummaryProperty.set(diffRecord.getRightNode().toFormattedString("{name} ({date})"));
-                break;
-            case LEFT_DIR_RIGHT_FILE:
-                diffTypeProperty.bind(Bindings.concat(leftNameProperty, " FILE vs ", rightNameProperty, " DIR"));
-                leftSummaryProperty.set( diffRecord.getLeftNode().toFormattedString("{name} ({type})") );
-                rightSummaryProperty.set(diffRecord.getRightNode().toFormattedString("{name} ({type})"));
-                break;
-            case LEFT_FILE_RIGHT_DIR:
-                diffTypeProperty.bind(Bindings.concat(leftNameProperty, " DIR vs ", rightNameProperty, " FILE"));
-                leftSummaryProperty.set( diffRecord.getLeftNode().toFormattedString("{name} ({type})") );
-                rightSummaryProperty.set(diffRecord.getRightNode().toFormattedString("{name} ({type})"));
-                break;
-            default:
-                throw new RuntimeException("Unsupported diff type");
-        }
-
-        // Call this to initialize Action dependant properties
-        onActionPropertyChanged();
-    }
-
-    public void onActionPropertyChanged() {
-        // Set action to diff record
-        diffRecord.setAction(actionProperty.get());
-
-        // Update action summary accordingly
-        if (diffRecord.getAction() == DiffRecord.Action.NONE) {
-            actionSummaryProperty().unbind();
-            actionSummaryProperty.set("None");
-            actionStyleProperty.set(Style.NONE);
-            leftStyleProperty.set(Style.NONE);
-            rightStyleProperty.set(Style.NONE);
-        } else {
-            switch (diffRecord.getDiffType()) {
-                case MISSING_LEFT:
-                    if (diffRecord.getAction() == DiffRecord.Action.USE_LEFT ) {
-                        actionSummaryProperty.bind(Bindings.concat("Delete on ", rightNameProperty));
-                        actionStyleProperty.set(Style.DESTRUCTIVE);
-                        leftStyleProperty.set(Style.USE);
-                        rightStyleProperty.set(Style.DELETE);
-                    } else {
-                        actionSummaryProperty.bind(Bindings.concat("Copy to ", leftNameProperty));
-                        actionStyleProperty.set(Style.NONE);
-                        leftStyleProperty.set(Style.CREATE);
-                        rightStyleProperty.set(Style.USE);
-                    }
-                    break;
-                case MISSING_RIGHT:
-                    if (diffRecord.getAction() == DiffRecord.Action.USE_RIGHT ) {
-                        actionSummaryProperty.bind(Bindings.concat("Delete on ", leftNameProperty));
-                        actionStyleProperty.set(Style.DESTRUCTIVE);
-                        leftStyleProperty.set(Style.DELETE);
-                        rightStyleProperty.set(Style.USE);
-                    } else {
-                        actionSummaryProperty.bind(Bindings.concat("Copy to ", rightNameProperty));
-                        actionStyleProperty.set(Style.NONE);
-                        leftStyleProperty.set(Style.USE);
-                        rightStyleProperty.set(Style.CREATE);
-                    }
-                    break;
-                case LEFT_FILE_RIGHT_DIR:
-                case LEFT_DIR_RIGHT_FILE:
-                case RIGHT_NEWER:
-                case LEFT_NEWER:
-                case SIZE:
-                    actionStyleProperty.set(Style.DESTRUCTIVE);
-
-                    if (diffRecord.getAction() == DiffRecord.Action.USE_LEFT ) {
-                        actionSummaryProperty.bind(Bindings.concat("Overwrite on ", rightNameProperty));
-                        leftStyleProperty.set(Style.USE);
-                        rightStyleProperty.set(Style.OVERWRITE);
-                    } else {
-                        actionSummaryProperty.bind(Bindings.concat("Overwrite on ", leftNameProperty));
-                        leftStyleProperty.set(Style.OVERWRITE);
-                        rightStyleProperty.set(Style.USE);
-                    }
-                    break;
-                default:
-                    throw new RuntimeException("Unsupported diff type");
-            }
-        }
-    }
-
-    public DiffRecord getDiffRecord() {
-        return diffRecord;
-    }
-
-    public ReadOnlyStringWrapper pathProperty() {
-        return pathProperty;
-    }
-
-
-    public ReadOnlyStringWrapper nameProperty() {
-        return nameProperty;
-    }
-
-
-    public ReadOnlyStringWrapper diffTypeProperty() {
-        return diffTypeProperty;
-    }
-
-
-    public ReadOnlyStringWrapper leftSummaryProperty() {
-        return leftSummaryProperty;
-    }
-
-
-    public ReadOnlyStringWrapper rightSummaryProperty() {
-        return rightSummaryProperty;
-    }
-
-
-    public StringProperty actionSummaryProperty() {
-        return actionSummaryProperty;
-    }
-
-
-    public ObjectProperty<DiffRecord.Action> actionProperty() {
-        return actionProperty;
-    }
-
-
-    public ReadOnlyObjectWrapper<Style> leftStyleProperty() {
-        return leftStyleProperty;
-    }
-
-
-    public ReadOnlyObjectWrapper<Style> rightStyleProperty() {
-        return rightStyleProperty;
-    }
-
-
-    public ReadOnlyObjectWrapper<Style> actionStyleProperty() {
-        return actionStyleProperty;
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.viewmodel;
+
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.Node;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+
+/**
+ * View model of one row of DiffTableModel. Instances exist only for rows which were requested by the table
+ * (visible rows) and are recycled for other rows - bind() replaces the content of all properties.
+ * The selected action is stored in the table model.
+ */
+public class DiffRecordViewModel {
+    public enum Style { NONE, DELETE, OVERWRITE, CREATE, USE, DESTRUCTIVE }
+
+    private static final String LEFT_NAME = "{left}";
+    private static final String RIGHT_NAME = "{right}";
+
+    private final DiffTableModel tableModel;
+    private int row = -1;
+    private DiffRecord diffRecord;
+    private boolean binding;
+
+    private final ReadOnlyStringWrapper pathProperty = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper nameProperty = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper diffTypeProperty = new ReadOnlyStringWrapper();
+    private final ReadOnlyObjectWrapper<Style> leftStyleProperty = new ReadOnlyObjectWrapper<>();
+    private final ReadOnlyStringWrapper leftSummaryProperty = new ReadOnlyStringWrapper();
+    private final ReadOnlyObjectWrapper<Style> rightStyleProperty = new ReadOnlyObjectWrapper<>();
+    private final ReadOnlyStringWrapper rightSummaryProperty = new ReadOnlyStringWrapper();
+    private final ReadOnlyObjectWrapper<Style> actionStyleProperty = new ReadOnlyObjectWrapper<>();
+    private final ReadOnlyStringWrapper actionSummaryProperty = new ReadOnlyStringWrapper();
+    private final ObjectProperty<DiffRecord.Action> actionProperty = new SimpleObjectProperty<>(DiffRecord.Action.NONE);
+
+    // Cell values of the table columns - created once per instance (not per cell update)
+    private AggregateObservable<DiffRecordViewModel> leftCellValue;
+    private AggregateObservable<DiffRecordViewModel> rightCellValue;
+    private AggregateObservable<DiffRecordViewModel> actionCellValue;
+    private AggregateObservable<DiffRecordViewModel> arrowCellValue;
+
+
+    DiffRecordViewModel(final DiffTableModel tableModel) {
+        this.tableModel = tableModel;
+        this.actionProperty.addListener(new ChangeListener<DiffRecord.Action>() {
+            @Override
+            public void changed(ObservableValue<? extends DiffRecord.Action> observableValue, DiffRecord.Action oldAction, DiffRecord.Action newAction) {
+                if (!binding && row >= 0) {
+                    tableModel.setAction(row, newAction);
+                }
+                updateActionProperties();
+            }
+        });
+    }
+
+
+    /**
+     * Shows the given record (row = -1 for records which are not part of the table any more).
+     */
+    void bind(int row, DiffRecord diffRecord, DiffRecord.Action action) {
+        this.row = row;
+        this.diffRecord = diffRecord;
+        binding = true;
+        try {
+            pathProperty.set(diffRecord.getPathString());
+            nameProperty.set(diffRecord.getName());
+            diffTypeProperty.set(formatNames(getDiffTypeText()));
+            leftSummaryProperty.set(getSummary(true));
+            rightSummaryProperty.set(getSummary(false));
+            actionProperty.set(action);
+            updateActionProperties();
+        } finally {
+            binding = false;
+        }
+    }
+
+
+    /**
+     * Shows action changed in the table model (texts of the record are kept).
+     */
+    void updateAction(DiffRecord.Action action) {
+        binding = true;
+        try {
+            actionProperty.set(action);
+        } finally {
+            binding = false;
+        }
+    }
+
+
+    int getRow() {
+        return row;
+    }
+
+
+    private String formatNames(String text) {
+        return text.replace(LEFT_NAME, tableModel.getLeftName()).replace(RIGHT_NAME, tableModel.getRightName());
+    }
+
+
+    private String getDiffTypeText() {
+        switch (diffRecord.getDiffType()) {
+            case MISSING_LEFT:
+                return "MISSING on " + LEFT_NAME;
+            case MISSING_RIGHT:
+                return "MISSING on " + RIGHT_NAME;
+            case UNKNOWN:
+                return "NOT SCANNED yet";
+            case SIZE:
+                return "Different SIZE";
+            case LEFT_NEWER:
+                return "Newer on " + LEFT_NAME;
+            case RIGHT_NEWER:
+                return "Newer on " + RIGHT_NAME;
+            case LEFT_DIR_RIGHT_FILE:
+                return LEFT_NAME + " FILE vs " + RIGHT_NAME + " DIR";
+            case LEFT_FILE_RIGHT_DIR:
+                return LEFT_NAME + " DIR vs " + RIGHT_NAME + " FILE";
+            default:
+                throw new RuntimeException("Unsupported diff type");
+        }
+    }
+
+
+    private String getSummary(boolean left) {
+        switch (diffRecord.getDiffType()) {
+            case MISSING_LEFT:
+                return left ? "---" : diffRecord.getRightNode().getName();
+            case MISSING_RIGHT:
+                return left ? diffRecord.getLeftNode().getName() : "---";
+            case UNKNOWN:
+                return getNode(left).toFormattedString("{name} (?)");
+            case SIZE:
+                return getNode(left).toFormattedString("{name} ({size})");
+            case LEFT_NEWER:
+            case RIGHT_NEWER:
+                return getNode(left).toFormattedString("{name} ({date})");
+            case LEFT_DIR_RIGHT_FILE:
+            case LEFT_FILE_RIGHT_DIR:
+                return getNode(left).toFormattedString("{name} ({type})");
+            default:
+                throw new RuntimeException("Unsupported diff type");
+        }
+    }
+
+
+    private Node getNode(boolean left) {
+        return left ? diffRecord.getLeftNode() : diffRecord.getRightNode();
+    }
+
+
+    private void updateActionProperties() {
+        DiffRecord.Action action = actionProperty.get();
+        if (action == DiffRecord.Action.NONE) {
+            actionSummaryProperty.set("None");
+            actionStyleProperty.set(Style.NONE);
+            leftStyleProperty.set(Style.NONE);
+            rightStyleProperty.set(Style.NONE);
+            return;
+        }
+
+        boolean useLeft = (action == DiffRecord.Action.USE_LEFT);
+        switch (diffRecord.getDiffType()) {
+            case MISSING_LEFT:
+                if (useLeft) {
+                    actionSummaryProperty.set(formatNames("Delete on " + RIGHT_NAME));
+                    actionStyleProperty.set(Style.DESTRUCTIVE);
+                    leftStyleProperty.set(Style.USE);
+                    rightStyleProperty.set(Style.DELETE);
+                } else {
+                    actionSummaryProperty.set(formatNames("Copy to " + LEFT_NAME));
+                    actionStyleProperty.set(Style.NONE);
+                    leftStyleProperty.set(Style.CREATE);
+                    rightStyleProperty.set(Style.USE);
+                }
+                break;
+            case MISSING_RIGHT:
+                if (!useLeft) {
+                    actionSummaryProperty.set(formatNames("Delete on " + LEFT_NAME));
+                    actionStyleProperty.set(Style.DESTRUCTIVE);
+                    leftStyleProperty.set(Style.DELETE);
+                    rightStyleProperty.set(Style.USE);
+                } else {
+                    actionSummaryProperty.set(formatNames("Copy to " + RIGHT_NAME));
+                    actionStyleProperty.set(Style.NONE);
+                    leftStyleProperty.set(Style.USE);
+                    rightStyleProperty.set(Style.CREATE);
+                }
+                break;
+            case UNKNOWN:
+                // Directory is scanned and only the differences are synchronized
+                actionStyleProperty.set(Style.NONE);
+                actionSummaryProperty.set(formatNames("Update on " + (useLeft ? RIGHT_NAME : LEFT_NAME)));
+                leftStyleProperty.set(useLeft ? Style.USE : Style.OVERWRITE);
+                rightStyleProperty.set(useLeft ? Style.OVERWRITE : Style.USE);
+                break;
+            case LEFT_FILE_RIGHT_DIR:
+            case LEFT_DIR_RIGHT_FILE:
+            case RIGHT_NEWER:
+            case LEFT_NEWER:
+            case SIZE:
+                actionStyleProperty.set(Style.DESTRUCTIVE);
+                actionSummaryProperty.set(formatNames("Overwrite on " + (useLeft ? RIGHT_NAME : LEFT_NAME)));
+                leftStyleProperty.set(useLeft ? Style.USE : Style.OVERWRITE);
+                rightStyleProperty.set(useLeft ? Style.OVERWRITE : Style.USE);
+                break;
+            default:
+                throw new RuntimeException("Unsupported diff type");
+        }
+    }
+
+    public DiffRecord getDiffRecord() {
+        return diffRecord;
+    }
+
+    public ReadOnlyStringWrapper pathProperty() {
+        return pathProperty;
+    }
+
+
+    public ReadOnlyStringWrapper nameProperty() {
+        return nameProperty;
+    }
+
+
+    public ReadOnlyStringWrapper diffTypeProperty() {
+        return diffTypeProperty;
+    }
+
+
+    public ReadOnlyStringWrapper leftSummaryProperty() {
+        return leftSummaryProperty;
+    }
+
+
+    public ReadOnlyStringWrapper rightSummaryProperty() {
+        return rightSummaryProperty;
+    }
+
+
+    public ReadOnlyStringWrapper actionSummaryProperty() {
+        return actionSummaryProperty;
+    }
+
+
+    public ObjectProperty<DiffRecord.Action> actionProperty() {
+        return actionProperty;
+    }
+
+
+    public ReadOnlyObjectWrapper<Style> leftStyleProperty() {
+        return leftStyleProperty;
+    }
+
+
+    public ReadOnlyObjectWrapper<Style> rightStyleProperty() {
+        return rightStyleProperty;
+    }
+
+
+    public ReadOnlyObjectWrapper<Style> actionStyleProperty() {
+        return actionStyleProperty;
+    }
+
+
+    public ObservableValue<DiffRecordViewModel> leftCellValue() {
+        if (leftCellValue == null) {
+            leftCellValue = new AggregateObservable<>(this, leftSummaryProperty, leftStyleProperty);
+        }
+        return leftCellValue;
+    }
+
+
+    public ObservableValue<DiffRecordViewModel> rightCellValue() {
+        if (rightCellValue == null) {
+            rightCellValue = new AggregateObservable<>(this, rightSummaryProperty, rightStyleProperty);
+        }
+        return rightCellValue;
+    }
+
+
+    public ObservableValue<DiffRecordViewModel> actionCellValue() {
+        if (actionCellValue == null) {
+            actionCellValue = new AggregateObservable<>(this, actionSummaryProperty, actionStyleProperty);
+        }
+        return actionCellValue;
+    }
+
+
+    public ObservableValue<DiffRecordViewModel> arrowCellValue() {
+        if (arrowCellValue == null) {
+            arrowCellValue = new AggregateObservable<>(this, actionProperty);
+        }
+        return arrowCellValue;
+    }
+}
@@ -0,0 +1,693 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.viewmodel;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DiffRecordFilter;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.ArrayUtil;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.StringProperty;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Table model of diff records - view models are created only for the rows requested by the table
+ * (the visible ones) and recycled once cacheSize rows were materialized, selected actions are kept
+ * in an array indexed by row. The list is read-only for the table, content is replaced by setDiffRecords().
+ *
+ * Records are stored in path order (the order of DiffBuilder), so a directory subtree is a range of records.
+ * Bulk actions update the array in one pass and are announced by a single increment of actionRevision.
+ *
+ * Rows can be shown sorted and filtered - the view is computed in the background from primitive sort keys
+ * (prepareView) and applied on the UI thread at once (applyView). Rows of public methods are rows of the
+ * current view, bulk actions and getDiffRecords() cover all records.
+ */
+public class DiffTableModel extends AbstractList<DiffRecordViewModel> implements ObservableList<DiffRecordViewModel> {
+    public static final int DEFAULT_CACHE_SIZE = 512;
+
+    static final DiffRecord.Action[] ACTIONS = DiffRecord.Action.values();
+
+    /**
+     * Sort orders of the view - size and modification time show the biggest/newest entries first,
+     * ties (and PATH) keep the path order.
+     */
+    public enum SortKey {
+        PATH("Path"), TYPE("Diff Type"), ACTION("Action"), SIZE("Size"), MODIFIED("Modified");
+
+        private final String caption;
+
+        SortKey(String caption) {
+            this.caption = caption;
+        }
+
+        @Override
+        public String toString() {
+            return caption;
+        }
+    }
+
+    private final StringProperty leftNameProperty;
+    private final StringProperty rightNameProperty;
+    private final int cacheSize;
+
+    private List<DiffRecord> diffRecords = Collections.emptyList();
+    private byte[] actions = new byte[0];
+    private Content content = new Content(diffRecords);
+
+    // Current view - record index of each row (null = all records in path order)
+    private int[] order;
+    private SortKey sortKey = SortKey.PATH;
+    private DiffRecordFilter filter;
+
+    // Materialized rows, least recently used first
+    private final LinkedHashMap<Integer, DiffRecordViewModel> viewModels = new LinkedHashMap<>(64, 0.75f, true);
+    private final Deque<DiffRecordViewModel> spareViewModels = new ArrayDeque<>();
+    private DiffRecordViewModel pinnedViewModel;
+    private final ReadOnlyIntegerWrapper actionRevisionProperty = new ReadOnlyIntegerWrapper(0);
+    private int changedFrom;
+    private int changedTo;
+
+    private final List<ListChangeListener<? super DiffRecordViewModel>> listChangeListeners = new CopyOnWriteArrayList<>();
+    private final List<InvalidationListener> invalidationListeners = new CopyOnWriteArrayList<>();
+
+
+    public DiffTableModel(StringProperty leftNameProperty, StringProperty rightNameProperty) {
+        this(leftNameProperty, rightNameProperty, DEFAULT_CACHE_SIZE);
+    }
+
+
+    public DiffTableModel(StringProperty leftNameProperty, StringProperty rightNameProperty, int cacheSize) {
+        this.leftNameProperty = leftNameProperty;
+        this.rightNameProperty = rightNameProperty;
+        this.cacheSize = cacheSize;
+
+        // Texts of materialized rows contain the names
+        InvalidationListener namesListener = new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                rebindViewModels();
+            }
+        };
+        leftNameProperty.addListener(namesListener);
+        rightNameProperty.addListener(namesListener);
+    }
+
+
+    String getLeftName() {
+        return leftNameProperty.get();
+    }
+
+
+    String getRightName() {
+        return rightNameProperty.get();
+    }
+
+
+    /**
+     * Incremented whenever actions were changed (once per bulk action).
+     */
+    public ReadOnlyIntegerProperty actionRevisionProperty() {
+        return actionRevisionProperty.getReadOnlyProperty();
+    }
+
+
+    /**
+     * Replaces content of the table (records in path order), actions are taken from the records.
+     */
+    public void setDiffRecords(List<DiffRecord> newDiffRecords) {
+        List<DiffRecordViewModel> removed = getRemovedRows();
+
+        diffRecords = new ArrayList<>(newDiffRecords);
+        actions = new byte[diffRecords.size()];
+        for (int index = 0; index < actions.length; index++) {
+            actions[index] = (byte) diffRecords.get(index).getAction().ordinal();
+        }
+        content = new Content(diffRecords);
+        order = null;
+        sortKey = SortKey.PATH;
+        filter = null;
+
+        spareViewModels.addAll(viewModels.values());
+        viewModels.clear();
+        fireReplaced(removed);
+    }
+
+
+    /**
+     * Current rows - materialized only if a listener asks for them.
+     */
+    private List<DiffRecordViewModel> getRemovedRows() {
+        final List<DiffRecord> oldDiffRecords = diffRecords;
+        final byte[] oldActions = actions.clone();
+        final int[] oldOrder = order;
+        final int oldSize = size();
+        return new AbstractList<DiffRecordViewModel>() {
+            @Override
+            public DiffRecordViewModel get(int row) {
+                int index = (oldOrder == null) ? row : oldOrder[row];
+                DiffRecordViewModel viewModel = new DiffRecordViewModel(DiffTableModel.this);
+                viewModel.bind(-1, oldDiffRecords.get(index), ACTIONS[oldActions[index]]);
+                return viewModel;
+            }
+
+            @Override
+            public int size() {
+                return oldSize;
+            }
+        };
+    }
+
+
+    private int toIndex(int row) {
+        return (order == null) ? row : order[row];
+    }
+
+
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+
+
+    public DiffRecordFilter getFilter() {
+        return filter;
+    }
+
+
+    /**
+     * Returns computation of the sorted and filtered view (filter may be null) which can run in the background.
+     * Orderings are cached - sorting by the same key again only applies the filter.
+     */
+    public Callable<View> prepareView(final SortKey sortKey, final DiffRecordFilter filter) {
+        final Content viewContent = content;
+        final byte[] actionSnapshot = (sortKey == SortKey.ACTION) ? actions.clone() : null;
+        return new Callable<View>() {
+            @Override
+            public View call() {
+                int[] ordering = viewContent.getOrdering(sortKey, actionSnapshot);
+                if (filter == null) {
+                    return new View(viewContent, sortKey, null, (sortKey == SortKey.PATH) ? null : ordering);
+                }
+                int[] filtered = new int[ordering.length];
+                int count = 0;
+                for (int index : ordering) {
+                    if (filter.matches(viewContent.diffRecords.get(index))) {
+                        filtered[count++] = index;
+                    }
+                }
+                return new View(viewContent, sortKey, filter, Arrays.copyOf(filtered, count));
+            }
+        };
+    }
+
+
+    /**
+     * Shows the view (on the UI thread). Returns false if the records were replaced since the view
+     * was prepared.
+     */
+    public boolean applyView(View view) {
+        if (view.content != content) {
+            return false;
+        }
+        List<DiffRecordViewModel> removed = getRemovedRows();
+        order = view.order;
+        sortKey = view.sortKey;
+        filter = view.filter;
+
+        spareViewModels.addAll(viewModels.values());
+        viewModels.clear();
+        fireReplaced(removed);
+        return true;
+    }
+
+
+    /**
+     * Returns the records with the selected actions applied.
+     */
+    public List<DiffRecord> getDiffRecords() {
+        for (int index = 0; index < actions.length; index++) {
+            diffRecords.get(index).setAction(ACTIONS[actions[index]]);
+        }
+        return Collections.unmodifiableList(diffRecords);
+    }
+
+
+    public DiffRecord getDiffRecord(int row) {
+        int index = toIndex(row);
+        DiffRecord diffRecord = diffRecords.get(index);
+        diffRecord.setAction(ACTIONS[actions[index]]);
+        return diffRecord;
+    }
+
+
+    public DiffRecord.Action getAction(int row) {
+        return ACTIONS[actions[toIndex(row)]];
+    }
+
+
+    public void setAction(int row, DiffRecord.Action action) {
+        int index = toIndex(row);
+        actions[index] = (byte) action.ordinal();
+        DiffRecordViewModel viewModel = viewModels.get(row);
+        if (viewModel != null) {
+            viewModel.updateAction(action);
+        }
+        changedFrom = index;
+        changedTo = index + 1;
+        actionRevisionProperty.set(actionRevisionProperty.get() + 1);
+    }
+
+
+    /**
+     * Sets the action of all rows (only the materialized rows are updated in place).
+     */
+    public void setAllActions(DiffRecord.Action action) {
+        Arrays.fill(actions, (byte) action.ordinal());
+        actionsChanged(0, actions.length);
+    }
+
+
+    /**
+     * Sets the action of records matching the filter, returns number of matching records.
+     */
+    public int applyAction(DiffRecord.Action action, DiffRecordFilter filter) {
+        byte value = (byte) action.ordinal();
+        int count = 0;
+        int from = actions.length;
+        int to = 0;
+        for (int index = 0; index < actions.length; index++) {
+            if (filter.matches(diffRecords.get(index))) {
+                actions[index] = value;
+                count++;
+                from = Math.min(from, index);
+                to = index + 1;
+            }
+        }
+        actionsChanged(Math.min(from, to), to);
+        return count;
+    }
+
+
+    /**
+     * Sets the action of the entry with the given path and everything within it, returns number of records.
+     */
+    public int applySubtreeAction(String[] directoryPath, DiffRecord.Action action) {
+        int from = findSubtreeStart(directoryPath);
+        int to = findSubtreeEnd(directoryPath, from);
+        Arrays.fill(actions, from, to, (byte) action.ordinal());
+        actionsChanged(from, to);
+        return to - from;
+    }
+
+
+    /**
+     * First record which is not before the path (binary search, records are in path order).
+     */
+    int findSubtreeStart(String[] directoryPath) {
+        int low = 0;
+        int high = diffRecords.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (diffRecords.get(middle).compareFullPath(directoryPath) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * First record after the subtree starting at record from.
+     */
+    int findSubtreeEnd(String[] directoryPath, int from) {
+        int low = from;
+        int high = diffRecords.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (diffRecords.get(middle).isWithin(directoryPath)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private void actionsChanged(int from, int to) {
+        for (Map.Entry<Integer, DiffRecordViewModel> entry : viewModels.entrySet()) {
+            entry.getValue().updateAction(ACTIONS[actions[toIndex(entry.getKey())]]);
+        }
+        changedFrom = from;
+        changedTo = to;
+        actionRevisionProperty.set(actionRevisionProperty.get() + 1);
+    }
+
+
+    // Access to the records in path order (independent of the current view) for DiffTreeModel
+
+    /**
+     * Records in path order - a new list is set by every setDiffRecords().
+     */
+    List<DiffRecord> getStoredDiffRecords() {
+        return diffRecords;
+    }
+
+
+    DiffRecord.Action getStoredAction(int index) {
+        return ACTIONS[actions[index]];
+    }
+
+
+    /**
+     * Range of records (in path order) whose actions may have changed by the last change of actionRevision.
+     */
+    int getChangedFrom() {
+        return changedFrom;
+    }
+
+
+    int getChangedTo() {
+        return changedTo;
+    }
+
+
+    private void rebindViewModels() {
+        for (Map.Entry<Integer, DiffRecordViewModel> entry : viewModels.entrySet()) {
+            int row = entry.getKey();
+            int index = toIndex(row);
+            entry.getValue().bind(row, diffRecords.get(index), ACTIONS[actions[index]]);
+        }
+    }
+
+
+    /**
+     * The view model is not recycled for other rows (e.g. the selected row which is not visible any more).
+     */
+    public void setPinnedViewModel(DiffRecordViewModel viewModel) {
+        this.pinnedViewModel = viewModel;
+    }
+
+
+    @Override
+    public DiffRecordViewModel get(int row) {
+        DiffRecordViewModel viewModel = viewModels.get(row);
+        if (viewModel == null) {
+            if (viewModels.size() >= cacheSize) {
+                Iterator<DiffRecordViewModel> eldest = viewModels.values().iterator();
+                viewModel = eldest.next();
+                if (viewModel == pinnedViewModel) {
+                    viewModel = eldest.next();
+                }
+                eldest.remove();
+            } else if (!spareViewModels.isEmpty()) {
+                viewModel = spareViewModels.pop();
+            } else {
+                viewModel = new DiffRecordViewModel(this);
+            }
+            int index = toIndex(row);
+            viewModel.bind(row, diffRecords.get(index), ACTIONS[actions[index]]);
+            viewModels.put(row, viewModel);
+        }
+        return viewModel;
+    }
+
+
+    @Override
+    public int size() {
+        return (order == null) ? diffRecords.size() : order.length;
+    }
+
+
+    @Override
+    public int indexOf(Object object) {
+        if (object instanceof DiffRecordViewModel) {
+            int row = ((DiffRecordViewModel) object).getRow();
+            if (row >= 0 && row < size() && viewModels.get(row) == object) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+
+    @Override
+    public int lastIndexOf(Object object) {
+        return indexOf(object);
+    }
+
+
+    @Override
+    public boolean contains(Object object) {
+        return indexOf(object) >= 0;
+    }
+
+
+    private void fireReplaced(List<DiffRecordViewModel> removed) {
+        ReplaceAllChange change = new ReplaceAllChange(this, removed);
+        for (ListChangeListener<? super DiffRecordViewModel> listener : listChangeListeners) {
+            change.reset();
+            listener.onChanged(change);
+        }
+        for (InvalidationListener listener : invalidationListeners) {
+            listener.invalidated(this);
+        }
+    }
+
+
+    @Override
+    public void addListener(ListChangeListener<? super DiffRecordViewModel> listener) {
+        listChangeListeners.add(listener);
+    }
+
+
+    @Override
+    public void removeListener(ListChangeListener<? super DiffRecordViewModel> listener) {
+        listChangeListeners.remove(listener);
+    }
+
+
+    @Override
+    public void addListener(InvalidationListener listener) {
+        invalidationListeners.add(listener);
+    }
+
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        invalidationListeners.remove(listener);
+    }
+
+
+    // Rows are not modified by the table
+
+    @Override
+    public boolean addAll(DiffRecordViewModel... elements) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public boolean setAll(DiffRecordViewModel... elements) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public boolean setAll(Collection<? extends DiffRecordViewModel> elements) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public boolean removeAll(DiffRecordViewModel... elements) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public boolean retainAll(DiffRecordViewModel... elements) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public void remove(int from, int to) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * Sorted and filtered rows prepared in the background.
+     */
+    public static class View {
+        private final Content content;
+        private final SortKey sortKey;
+        private final DiffRecordFilter filter;
+        private final int[] order;
+
+        private View(Content content, SortKey sortKey, DiffRecordFilter filter, int[] order) {
+            this.content = content;
+            this.sortKey = sortKey;
+            this.filter = filter;
+            this.order = order;
+        }
+
+        public int getRowCount() {
+            return (order == null) ? content.diffRecords.size() : order.length;
+        }
+    }
+
+
+    /**
+     * Records of one setDiffRecords() with lazily computed sort keys and cached orderings (shared by
+     * background computations - records are not modified once set).
+     */
+    private static class Content {
+        private final List<DiffRecord> diffRecords;
+        private final ConcurrentMap<SortKey, int[]> orderings = new ConcurrentHashMap<>();
+
+        public Content(List<DiffRecord> diffRecords) {
+            this.diffRecords = diffRecords;
+        }
+
+        /**
+         * Record indexes in the order of the key (ordering by action depends on the given actions
+         * and is not cached).
+         */
+        public int[] getOrdering(SortKey sortKey, byte[] actionSnapshot) {
+            int[] ordering = orderings.get(sortKey);
+            if (ordering != null) {
+                return ordering;
+            }
+
+            ordering = new int[diffRecords.size()];
+            for (int index = 0; index < ordering.length; index++) {
+                ordering[index] = index;
+            }
+            if (sortKey != SortKey.PATH) {
+                ArrayUtil.sortIndexes(ordering, buildKeys(sortKey, actionSnapshot));
+            }
+            if (sortKey != SortKey.ACTION) {
+                orderings.putIfAbsent(sortKey, ordering);
+            }
+            return ordering;
+        }
+
+        private long[] buildKeys(SortKey sortKey, byte[] actionSnapshot) {
+            long[] keys = new long[diffRecords.size()];
+            for (int index = 0; index < keys.length; index++) {
+                DiffRecord diffRecord = diffRecords.get(index);
+                switch (sortKey) {
+                    case TYPE:
+                        keys[index] = diffRecord.getDiffType().ordinal();
+                        break;
+                    case ACTION:
+                        keys[index] = actionSnapshot[index];
+                        break;
+                    case SIZE:
+                        keys[index] = -Math.max(getSize(diffRecord.getLeftNode()), getSize(diffRecord.getRightNode()));
+                        break;
+                    case MODIFIED:
+                        keys[index] = -Math.max(getModificationTime(diffRecord.getLeftNode()),
+                                getModificationTime(diffRecord.getRightNode()));
+                        break;
+                    default:
+                        keys[index] = index;
+                        break;
+                }
+            }
+            return keys;
+        }
+
+        private static long getSize(Node node) {
+            return (node == null) ? 0 : node.getSize();
+        }
+
+        private static long getModificationTime(Node node) {
+            return (node instanceof FileNode) ? ((FileNode) node).getModificationTime().getTime() : 0;
+        }
+    }
+
+
+    /**
+     * Single change replacing all rows.
+     */
+    private static class ReplaceAllChange extends ListChangeListener.Change<DiffRecordViewModel> {
+        private final List<DiffRecordViewModel> removed;
+        private int cursor = -1;
+
+        public ReplaceAllChange(ObservableList<DiffRecordViewModel> list, List<DiffRecordViewModel> removed) {
+            super(list);
+            this.removed = removed;
+        }
+
+        @Override
+        public boolean next() {
+            cursor++;
+            return cursor == 0;
+        }
+
+        @Override
+        public void reset() {
+            cursor = -1;
+        }
+
+        @Override
+        public int getFrom() {
+            return 0;
+        }
+
+        @Override
+        public int getTo() {
+            return getList().size();
+        }
+
+        @Override
+        public List<DiffRecordViewModel> getRemoved() {
+            return removed;
+        }
+
+        @Override
+        protected int[] getPermutation() {
+            return new int[0];
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.viewmodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.Node;
+import com.jdirsync.util.ArrayUtil;
+import com.jdirsync.util.FileUtil;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+
+/**
+ * Diff records of DiffTableModel as a tree of directories. A node is the range of records of its subtree
+ * (records are stored in path order), children of a node are created only when they are requested
+ * (the node is expanded) - subtree boundaries are found by binary search, so collapsed directories cost nothing.
+ *
+ * Nodes show rollups of their subtree - number of records, pending actions and bytes to copy. The latter
+ * depend on the actions and are kept in prefix sum trees over the records which are updated only for
+ * the records of the last action change, a rollup is then a query in logarithmic time.
+ */
+public class DiffTreeModel {
+    private static final String[] ROOT_PATH = new String[0];
+
+    private final DiffTableModel tableModel;
+    private final ObjectProperty<TreeNode> rootProperty = new SimpleObjectProperty<>();
+
+    private List<DiffRecord> diffRecords;
+    private byte[] knownActions;
+    private RangeSums pendingSums;
+    private RangeSums copySums;
+
+
+    public DiffTreeModel(DiffTableModel tableModel) {
+        this.tableModel = tableModel;
+
+        // Content of the table was replaced (sorting and filtering keeps the stored records)
+        tableModel.addListener(new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                if (DiffTreeModel.this.tableModel.getStoredDiffRecords() != diffRecords) {
+                    rebuild();
+                }
+            }
+        });
+        tableModel.actionRevisionProperty().addListener(new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> observableValue, Number oldRevision, Number newRevision) {
+                actionsChanged(DiffTreeModel.this.tableModel.getChangedFrom(), DiffTreeModel.this.tableModel.getChangedTo());
+            }
+        });
+        rebuild();
+    }
+
+
+    /**
+     * Root of the tree (all records), replaced whenever the records are replaced.
+     */
+    public ReadOnlyObjectProperty<TreeNode> rootProperty() {
+        return rootProperty;
+    }
+
+
+    public TreeNode getRoot() {
+        return rootProperty.get();
+    }
+
+
+    private void rebuild() {
+        diffRecords = tableModel.getStoredDiffRecords();
+        knownActions = new byte[diffRecords.size()];
+        pendingSums = new RangeSums(diffRecords.size());
+        copySums = new RangeSums(diffRecords.size());
+        rebuildSums();
+        rootProperty.set(new TreeNode(ROOT_PATH, null, 0, diffRecords.size()));
+    }
+
+
+    private void rebuildSums() {
+        for (int index = 0; index < knownActions.length; index++) {
+            DiffRecord.Action action = tableModel.getStoredAction(index);
+            knownActions[index] = (byte) action.ordinal();
+            pendingSums.init(index, getPendingCount(action));
+            copySums.init(index, getBytesToCopy(diffRecords.get(index), action));
+        }
+        pendingSums.build();
+        copySums.build();
+    }
+
+
+    /**
+     * Updates rollups by the actions of records in the range - large ranges (e.g. setAllActions) are summed again
+     * in one pass, otherwise only the records whose action changed are updated.
+     */
+    private void actionsChanged(int from, int to) {
+        if (tableModel.getStoredDiffRecords() != diffRecords) {
+            rebuild();
+            return;
+        }
+        if (from >= to) {
+            return;
+        }
+
+        if (to - from > knownActions.length / 8) {
+            rebuildSums();
+        } else {
+            for (int index = from; index < to; index++) {
+                DiffRecord.Action action = tableModel.getStoredAction(index);
+                if (knownActions[index] != action.ordinal()) {
+                    DiffRecord.Action knownAction = DiffTableModel.ACTIONS[knownActions[index]];
+                    DiffRecord diffRecord = diffRecords.get(index);
+                    pendingSums.add(index, getPendingCount(action) - getPendingCount(knownAction));
+                    copySums.add(index, getBytesToCopy(diffRecord, action) - getBytesToCopy(diffRecord, knownAction));
+                    knownActions[index] = (byte) action.ordinal();
+                }
+            }
+        }
+        getRoot().updateSummaries(from, to);
+    }
+
+
+    private static long getPendingCount(DiffRecord.Action action) {
+        return (action == DiffRecord.Action.NONE) ? 0 : 1;
+    }
+
+
+    /**
+     * Size of the entry copied by the action (0 if it deletes the entry).
+     */
+    private static long getBytesToCopy(DiffRecord diffRecord, DiffRecord.Action action) {
+        if (action == DiffRecord.Action.NONE) {
+            return 0;
+        }
+        Node source = (action == DiffRecord.Action.USE_LEFT) ? diffRecord.getLeftNode() : diffRecord.getRightNode();
+        return (source == null) ? 0 : source.getSize();
+    }
+
+
+    /**
+     * Directory (or the entry of a record) with the rollups of its subtree.
+     */
+    public class TreeNode {
+        private final String[] path;
+        private final DiffRecord diffRecord;
+        private final int from;
+        private final int to;
+        private final ReadOnlyStringWrapper summaryProperty = new ReadOnlyStringWrapper();
+        private List<TreeNode> children;
+
+        private TreeNode(String[] path, DiffRecord diffRecord, int from, int to) {
+            this.path = path;
+            this.diffRecord = diffRecord;
+            this.from = from;
+            this.to = to;
+            updateSummary();
+        }
+
+        public String getName() {
+            return (path.length == 0) ? "/" : path[path.length - 1];
+        }
+
+        public String[] getPath() {
+            return path;
+        }
+
+        /**
+         * Record of the entry itself - null for directories which differ only in their content.
+         */
+        public DiffRecord getDiffRecord() {
+            return diffRecord;
+        }
+
+        public boolean isLeaf() {
+            return diffRecord != null && to - from == 1;
+        }
+
+        /**
+         * Returns true if the children were already created.
+         */
+        public boolean isExpanded() {
+            return children != null;
+        }
+
+        /**
+         * Children in path order - created by the first call.
+         */
+        public List<TreeNode> getChildren() {
+            if (children == null) {
+                children = buildChildren();
+            }
+            return Collections.unmodifiableList(children);
+        }
+
+        public int getRecordCount() {
+            return to - from;
+        }
+
+        public long getPendingCount() {
+            return pendingSums.sum(from, to);
+        }
+
+        public long getBytesToCopy() {
+            return copySums.sum(from, to);
+        }
+
+        /**
+         * Sets the action of the whole subtree (without creating its nodes), returns number of records.
+         */
+        public int setAction(DiffRecord.Action action) {
+            return tableModel.applySubtreeAction(path, action);
+        }
+
+        public ReadOnlyStringProperty summaryProperty() {
+            return summaryProperty.getReadOnlyProperty();
+        }
+
+        /**
+         * Children are ranges of the subtree - the child of the first record and then of the first record
+         * after the end of its subtree.
+         */
+        private List<TreeNode> buildChildren() {
+            List<TreeNode> result = new ArrayList<>();
+            int index = (diffRecord != null) ? from + 1 : from;
+            while (index < to) {
+                DiffRecord first = diffRecords.get(index);
+                String[] firstPath = first.getPath();
+                String[] childPath = ArrayUtil.arrayExtend(path,
+                        (firstPath.length > path.length) ? firstPath[path.length] : first.getName());
+                int end = tableModel.findSubtreeEnd(childPath, index);
+                result.add(new TreeNode(childPath, (first.compareFullPath(childPath) == 0) ? first : null, index, end));
+                index = end;
+            }
+            return result;
+        }
+
+        private void updateSummary() {
+            StringBuilder sb = new StringBuilder(getName());
+            if (isLeaf()) {
+                sb.append(" (").append(diffRecord.getDiffType()).append(", ")
+                        .append(DiffTableModel.ACTIONS[knownActions[from]]).append(")");
+            } else {
+                sb.append(" (").append(getRecordCount()).append(" differences, ")
+                        .append(getPendingCount()).append(" pending, ")
+                        .append(FileUtil.formatSize(getBytesToCopy())).append(" to copy)");
+            }
+            summaryProperty.set(sb.toString());
+        }
+
+        /**
+         * Updates summaries of the created nodes overlapping the range.
+         */
+        private void updateSummaries(int changedFrom, int changedTo) {
+            if (changedTo <= from || changedFrom >= to) {
+                return;
+            }
+            updateSummary();
+            if (children != null) {
+                for (int child = findChild(changedFrom); child < children.size(); child++) {
+                    TreeNode childNode = children.get(child);
+                    if (childNode.from >= changedTo) {
+                        break;
+                    }
+                    childNode.updateSummaries(changedFrom, changedTo);
+                }
+            }
+        }
+
+        /**
+         * First child whose range ends after the index.
+         */
+        private int findChild(int index) {
+            int low = 0;
+            int high = children.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (children.get(middle).to <= index) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public String toString() {
+            return summaryProperty.get();
+        }
+    }
+
+
+    /**
+     * Prefix sums (Fenwick tree) - update of a value and sum of a range in logarithmic time.
+     */
+    private static class RangeSums {
+        private final long[] tree;
+
+        public RangeSums(int size) {
+            this.tree = new long[size + 1];
+        }
+
+        /**
+         * Sets the value before build() - all values are set and the tree is built in linear time.
+         */
+        public void init(int index, long value) {
+            tree[index + 1] = value;
+        }
+
+        public void build() {
+            for (int i = 1; i < tree.length; i++) {
+                int parent = i + (i & -i);
+                if (parent < tree.length) {
+                    tree[parent] = tree[parent] + tree[i];
+                }
+            }
+        }
+
+        public void add(int index, long delta) {
+            for (int i = index + 1; i < tree.length; i = i + (i & -i)) {
+                tree[i] = tree[i] + delta;
+            }
+        }
+
+        public long sum(int from, int to) {
+            return prefixSum(to) - prefixSum(from);
+        }
+
+        private long prefixSum(int count) {
+            long result = 0;
+            for (int i = count; i > 0; i = i - (i & -i)) {
+                result = result + tree[i];
+            }
+            return result;
+        }
+    }
+}
@@ -1,292 +1,731 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.ui.viewmodel;
-
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-
-import com.jdirsync.builder.DiffBuilder;
-import com.jdirsync.builder.IndexBuilder;
-import com.jdirsync.core.Action1;
-import com.jdirsync.core.Action2;
-import com.jdirsync.model.DiffRecord;
-import com.jdirsync.model.DirectoryNode;
-import com.jdirsync.synchronizer.Synchronizer;
-import com.jdirsync.task.BuildIndexTask;
-import com.jdirsync.task.SynchronizeTask;
-import com.jdirsync.ui.task.UITaskUtil;
-import com.jdirsync.util.FileUtil;
-import javafx.beans.binding.Bindings;
-import javafx.beans.property.BooleanProperty;
-import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import javafx.scene.input.KeyEvent;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class SyncViewModel {
-    private static final Logger logger = LoggerFactory.getLogger(SyncViewModel.class);
-
-    // Services
-    private IndexBuilder indexBuilder;
-    private DiffBuilder diffBuilder;
-    private Synchronizer synchronizer;
-    private ExecutorService executorService;
-
-    // Internal state
-    private Path leftPath;
-    private Path rightPath;
-    private DirectoryNode leftIndex;
-    private DirectoryNode rightIndex;
-
-    // UI Properties
-    private StringProperty leftNameProperty;
-    private StringProperty rightNameProperty;
-    private StringProperty leftPathProperty;
-    private StringProperty rightPathProperty;
-    private StringProperty leftToRightButtonCaptionProperty = new SimpleStringProperty();
-    private StringProperty rightToLeftButtonCaptionProperty = new SimpleStringProperty();
-    private BooleanProperty isBusyProperty = new SimpleBooleanProperty(false);
-    private StringProperty statusProperty = new SimpleStringProperty("Idle");
-    private ObservableList<DiffRecordViewModel> diffRecordViewModelList = FXCollections.observableArrayList();
-    private SelectionViewModel<DiffRecordViewModel> selectionViewModel;
-
-    public SyncViewModel(String leftName, Path leftPath, String rightName, Path rightPath,
-                         ExecutorService executorService,
-                         IndexBuilder indexBuilder,
-                         DiffBuilder diffBuilder,
-                         Synchronizer synchronizer) {
-
-        this.executorService = executorService;
-        this.indexBuilder = indexBuilder;
-        this.diffBuilder = diffBuilder;
-        this.synchronizer = synchronizer;
-        this.leftPath = leftPath;
-        this.rightPath = rightPath;
-
-        // Initialize properties
-        this.selectionViewModel = new SelectionViewModel<DiffRecordViewModel>(diffRecordViewModelList);
-        this.leftNameProperty = new SimpleStringProperty(leftName);
-        this.leftPathProperty =  new SimpleStringProperty(leftPath.toAbsolutePath().toString());
-        this.rightNameProperty = new SimpleStringProperty(rightName);
-        this.rightPathProperty = new SimpleStringProperty(rightPath.toAbsolutePath().toString());
-
-        // Initialize binding properties
-        leftToRightButtonCaptionProperty.bind(
-                Bindings.concat(leftNameProperty, "-To-", rightNameProperty));
-        rightToLeftButtonCaptionProperty.bind(
-                Bindings.concat(rightNameProperty, "-To-", leftNameProperty));
-    }
-
-
-    public ObservableList<DiffRecordViewModel> getDiffRecordList() {
-        return diffRecordViewModelList;
-    }
-
-    public SelectionViewModel<DiffRecordViewModel> getSelectionViewModel() {
-        return this.selectionViewModel;
-    }
-
-
-    public StringProperty leftNameProperty() {
-        return leftNameProperty;
-    }
-
-    public StringProperty rightNameProperty() {
-        return rightNameProperty;
-    }
-
-    public StringProperty leftPathProperty() {
-        return leftPathProperty;
-    }
-
-    public StringProperty rightPathProperty() {
-        return rightPathProperty;
-    }
-
-    public StringProperty leftToRightButtonCaptionProperty() {
-        return leftToRightButtonCaptionProperty;
-    }
-
-    public StringProperty rightToLeftButtonCaptionProperty() {
-        return rightToLeftButtonCaptionProperty;
-    }
-
-    public StringProperty statusProperty() {
-        return statusProperty;
-    }
-
-    public BooleanProperty isBusyProperty() {
-        return isBusyProperty;
-    }
-
-    public void leftToRightButtonPressed() {
-        logger.info(leftToRightButtonCaptionProperty.getValue() + " Pressed");
-        for (DiffRecordViewModel diffRecordVM :  diffRecordViewModelList) {
-            diffRecordVM.actionProperty().set(DiffRecord.Action.USE_LEFT);
-        }
-    }
-
-    public void rightToLeftButtonPressed() {
-        logger.info(rightToLeftButtonCaptionProperty.getValue() + " Pressed");
-        for (DiffRecordViewModel diffRecordVM :  diffRecordViewModelList) {
-            diffRecordVM.actionProperty().set(DiffRecord.Action.USE_RIGHT);
-        }
-    }
-
-    public void compareButtonPressed() {
-        logger.info("Compare Button Pressed");
-
-        this.leftIndex = null;
-        this.rightIndex = null;
-        this.isBusyProperty.set(true);
-        this.statusProperty.set("Building Indexes");
-
-        // Start background tasks to build indexes (in separate thread)
-        BuildIndexTask leftBuildIndexTask = BuildIndexTask.start(executorService, indexBuilder, leftPath );
-        BuildIndexTask rightBuildIndexTask = BuildIndexTask.start(executorService, indexBuilder, rightPath );
-
-        UITaskUtil.onProgress(executorService, leftBuildIndexTask, rightBuildIndexTask, 500, new Action2<BuildIndexTask, BuildIndexTask>() {
-            @Override
-            public void invoke(BuildIndexTask left, BuildIndexTask right) {
-                statusProperty().set("Comparing: left:"
-                        + (left.isDone() ? "DONE" : left.getFileCount())
-                        + " / right:"
-                        + (right.isDone() ? "DONE" : right.getFileCount()) );
-            }
-        });
-
-        // Wait for completion in the background
-        // ... once complete dispatch to UI thread.
-        UITaskUtil.onCompleted(executorService, leftBuildIndexTask, rightBuildIndexTask, new Action2<BuildIndexTask, BuildIndexTask>() {
-            @Override
-            public void invoke(BuildIndexTask leftIndexTask, BuildIndexTask rightIndexTask) {
-                try {
-                    // Store indexes
-                    leftIndex = leftIndexTask.get();
-                    rightIndex = rightIndexTask.get();
-
-                    // Rebuild Diff
-                    rebuildDiff();
-                } catch (InterruptedException ex) {
-                    Thread.interrupted();
-                    logger.warn("Comparison action was interrupted");
-                } catch (ExecutionException ex) {
-                    logger.warn("Index building failed with exception", ex);
-                } finally {
-                    // Update IsBusy and Status
-                    isBusyProperty.set(false);
-                    statusProperty.set("Idle");
-                }
-
-            }
-        });
-    }
-
-    public void synchronizeButtonPressed() {
-        logger.info("Synchronize Pressed");
-
-        // Update IsBusy and Status
-        isBusyProperty.set(true);
-        statusProperty.set("Synchronizing files");
-
-        // Unwrap DiffRecords from ViewModels
-        List<DiffRecord> diffRecordList = new ArrayList<>();
-        for (DiffRecordViewModel viewModel : diffRecordViewModelList) {
-            diffRecordList.add(viewModel.getDiffRecord());
-        }
-
-        SynchronizeTask synchronizeTask = SynchronizeTask.start(executorService, synchronizer, leftPath, rightPath, diffRecordList);
-
-        // Progress updater task
-        UITaskUtil.onProgress(executorService, synchronizeTask, 500, new Action1<SynchronizeTask>() {
-            @Override
-            public void invoke(SynchronizeTask task) {
-                long bytesCopied = task.getBytesCopied();
-                long totalBytes = task.getTotalCopyBytes();
-
-                int progressPercentage = (totalBytes == 0) ? 0 : (int) (bytesCopied * 100.0 / totalBytes);
-
-                statusProperty().set("Synchronizing: "
-                        + progressPercentage + "% "
-                        + FileUtil.formatSize(bytesCopied) + " / " + FileUtil.formatSize(totalBytes) );
-            }
-        });
-
-
-        UITaskUtil.onCompleted(executorService, synchronizeTask, new Action1<SynchronizeTask>() {
-            @Override
-            public void invoke(SynchronizeTask syncTask) {
-                try {
-                    // Throws exception if any occured
-                    syncTask.get();
-
-                    // Rebuild Diff
-                    rebuildDiff();
-                } catch (InterruptedException e) {
-                    Thread.interrupted();
-                    logger.warn("Synchronization of files was interrupted !");
-                } catch (ExecutionException ex) {
-                    logger.warn("Synchronization of files failed !", ex.getCause());
-                } finally {
-                    // Update IsBusy and Status
-                    isBusyProperty.set(false);
-                    statusProperty.set("Idle");
-                }
-            }
-        });
-    }
-
-
-    private void rebuildDiff() {
-        // Build diff
-        List<DiffRecord> diffList = diffBuilder.buildDiff(leftIndex, rightIndex);
-
-        // Update diff record list
-        diffRecordViewModelList.clear();
-        for (DiffRecord diffRecord : diffList) {
-            diffRecordViewModelList.add(new DiffRecordViewModel(diffRecord, leftNameProperty, rightNameProperty));
-        }
-    }
-
-
-    public void keyPressed(KeyEvent keyEvent) {
-        if ("1".equals(keyEvent.getText())) {
-            if (selectionViewModel.selectedItemProperty().get() != null) {
-                selectionViewModel.selectedItemProperty().get().actionProperty().set(DiffRecord.Action.USE_LEFT);
-                selectionViewModel.selectNext();
-            }
-        } else if ("2".equals(keyEvent.getText())) {
-            if (selectionViewModel.selectedItemProperty().get() != null) {
-                selectionViewModel.selectedItemProperty().get().actionProperty().set(DiffRecord.Action.USE_RIGHT);
-                selectionViewModel.selectNext();
-            }
-        } else if ("0".equals(keyEvent.getText())) {
-            if (selectionViewModel.selectedItemProperty().get() != null) {
-                selectionViewModel.selectedItemProperty().get().actionProperty().set(DiffRecord.Action.NONE);
-                selectionViewModel.selectNext();
-            }
-        }
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.viewmodel;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import com.jdirsync.builder.DiffBuilder;
+import com.jdirsync.builder.IndexBuilder;
+import com.jdirsync.builder.SidecarIndexBuilder;
+import com.jdirsync.core.Action1;
+import com.jdirsync.core.Action2;
+import com.jdirsync.core.ExecutionPools;
+import com.jdirsync.core.Func2;
+import com.jdirsync.core.ProgressChannel;
+import com.jdirsync.core.Promise;
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DiffRecordFilter;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.store.IndexStore;
+import com.jdirsync.synchronizer.SyncListener;
+import com.jdirsync.synchronizer.Synchronizer;
+import com.jdirsync.task.BuildIndexTask;
+import com.jdirsync.task.SynchronizeTask;
+import com.jdirsync.ui.task.UITaskUtil;
+import com.jdirsync.util.FileUtil;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.input.KeyEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SyncViewModel {
+    private static final Logger logger = LoggerFactory.getLogger(SyncViewModel.class);
+
+    // Services
+    private IndexBuilder indexBuilder;
+    private DiffBuilder diffBuilder;
+    private Synchronizer synchronizer;
+    private ExecutorService executorService;
+    private ExecutorService cpuExecutorService;
+    private IndexStore leftStore;
+    private IndexStore rightStore;
+    private SidecarIndexBuilder indexSidecar;
+
+    // Internal state
+    private Path leftPath;
+    private Path rightPath;
+    private DirectoryNode leftIndex;
+    private DirectoryNode rightIndex;
+    private long scanTime;
+    private SynchronizeTask synchronizeTask;
+
+    // UI Properties
+    private StringProperty leftNameProperty;
+    private StringProperty rightNameProperty;
+    private StringProperty leftPathProperty;
+    private StringProperty rightPathProperty;
+    private StringProperty leftToRightButtonCaptionProperty = new SimpleStringProperty();
+    private StringProperty rightToLeftButtonCaptionProperty = new SimpleStringProperty();
+    private BooleanProperty isBusyProperty = new SimpleBooleanProperty(false);
+    private BooleanProperty isSynchronizingProperty = new SimpleBooleanProperty(false);
+    private StringProperty pauseButtonCaptionProperty = new SimpleStringProperty("Pause");
+    private StringProperty statusProperty = new SimpleStringProperty("Idle");
+    private DiffTableModel diffTableModel;
+    private DiffTreeModel diffTreeModel;
+    private ObjectProperty<DiffTreeModel.TreeNode> selectedTreeNodeProperty = new SimpleObjectProperty<>();
+    private SelectionViewModel<DiffRecordViewModel> selectionViewModel;
+    private ObservableList<DiffTableModel.SortKey> sortKeyList = FXCollections.observableArrayList(DiffTableModel.SortKey.values());
+    private ObjectProperty<DiffTableModel.SortKey> sortKeyProperty = new SimpleObjectProperty<>(DiffTableModel.SortKey.PATH);
+    private StringProperty filterTextProperty = new SimpleStringProperty("");
+    private int viewRequestCount;
+
+    public SyncViewModel(String leftName, Path leftPath, String rightName, Path rightPath,
+                         ExecutionPools executionPools,
+                         IndexBuilder indexBuilder,
+                         DiffBuilder diffBuilder,
+                         Synchronizer synchronizer,
+                         IndexStore leftStore,
+                         IndexStore rightStore,
+                         SidecarIndexBuilder indexSidecar) {
+
+        this.executorService = executionPools.getIoExecutor();
+        this.cpuExecutorService = executionPools.getCpuExecutor();
+        this.leftStore = leftStore;
+        this.rightStore = rightStore;
+        this.indexSidecar = indexSidecar;
+        this.indexBuilder = indexBuilder;
+        this.diffBuilder = diffBuilder;
+        this.synchronizer = synchronizer;
+        this.leftPath = leftPath;
+        this.rightPath = rightPath;
+
+        // Initialize properties
+        this.leftNameProperty = new SimpleStringProperty(leftName);
+        this.leftPathProperty =  new SimpleStringProperty(leftPath.toAbsolutePath().toString());
+        this.rightNameProperty = new SimpleStringProperty(rightName);
+        this.rightPathProperty = new SimpleStringProperty(rightPath.toAbsolutePath().toString());
+        this.diffTableModel = new DiffTableModel(leftNameProperty, rightNameProperty);
+        this.selectionViewModel = new SelectionViewModel<DiffRecordViewModel>(diffTableModel);
+        this.diffTreeModel = new DiffTreeModel(diffTableModel);
+
+        // Selected row keeps its view model even when it is scrolled out of view
+        selectionViewModel.selectedItemProperty().addListener(new ChangeListener<DiffRecordViewModel>() {
+            @Override
+            public void changed(ObservableValue<? extends DiffRecordViewModel> observableValue,
+                                DiffRecordViewModel oldValue, DiffRecordViewModel newValue) {
+                diffTableModel.setPinnedViewModel(newValue);
+            }
+        });
+
+        // Sorting and filtering is computed in the background
+        InvalidationListener viewListener = new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                refreshView();
+            }
+        };
+        sortKeyProperty.addListener(viewListener);
+        filterTextProperty.addListener(viewListener);
+        selectedTreeNodeProperty.addListener(viewListener);
+
+        // Initialize binding properties
+        leftToRightButtonCaptionProperty.bind(
+                Bindings.concat(leftNameProperty, "-To-", rightNameProperty));
+        rightToLeftButtonCaptionProperty.bind(
+                Bindings.concat(rightNameProperty, "-To-", leftNameProperty));
+    }
+
+
+    public ObservableList<DiffRecordViewModel> getDiffRecordList() {
+        return diffTableModel;
+    }
+
+    public DiffTableModel getDiffTableModel() {
+        return diffTableModel;
+    }
+
+    public DiffTreeModel getDiffTreeModel() {
+        return diffTreeModel;
+    }
+
+    /**
+     * Directory selected in the tree - the table shows only its subtree.
+     */
+    public ObjectProperty<DiffTreeModel.TreeNode> selectedTreeNodeProperty() {
+        return selectedTreeNodeProperty;
+    }
+
+    public ObservableList<DiffTableModel.SortKey> getSortKeyList() {
+        return sortKeyList;
+    }
+
+    public ObjectProperty<DiffTableModel.SortKey> sortKeyProperty() {
+        return sortKeyProperty;
+    }
+
+    public StringProperty filterTextProperty() {
+        return filterTextProperty;
+    }
+
+    public SelectionViewModel<DiffRecordViewModel> getSelectionViewModel() {
+        return this.selectionViewModel;
+    }
+
+
+    public StringProperty leftNameProperty() {
+        return leftNameProperty;
+    }
+
+    public StringProperty rightNameProperty() {
+        return rightNameProperty;
+    }
+
+    public StringProperty leftPathProperty() {
+        return leftPathProperty;
+    }
+
+    public StringProperty rightPathProperty() {
+        return rightPathProperty;
+    }
+
+    public StringProperty leftToRightButtonCaptionProperty() {
+        return leftToRightButtonCaptionProperty;
+    }
+
+    public StringProperty rightToLeftButtonCaptionProperty() {
+        return rightToLeftButtonCaptionProperty;
+    }
+
+    public StringProperty statusProperty() {
+        return statusProperty;
+    }
+
+    public BooleanProperty isBusyProperty() {
+        return isBusyProperty;
+    }
+
+    public BooleanProperty isSynchronizingProperty() {
+        return isSynchronizingProperty;
+    }
+
+    public StringProperty pauseButtonCaptionProperty() {
+        return pauseButtonCaptionProperty;
+    }
+
+    public void leftToRightButtonPressed() {
+        logger.info(leftToRightButtonCaptionProperty.getValue() + " Pressed");
+        diffTableModel.setAllActions(DiffRecord.Action.USE_LEFT);
+    }
+
+    public void rightToLeftButtonPressed() {
+        logger.info(rightToLeftButtonCaptionProperty.getValue() + " Pressed");
+        diffTableModel.setAllActions(DiffRecord.Action.USE_RIGHT);
+    }
+
+    public void compareButtonPressed() {
+        logger.info("Compare Button Pressed");
+
+        this.leftIndex = null;
+        this.rightIndex = null;
+        this.scanTime = System.currentTimeMillis();
+        this.isBusyProperty.set(true);
+        this.statusProperty.set("Building Indexes");
+
+        // Start background tasks to build indexes (in separate thread)
+        final ProgressChannel channel = UITaskUtil.newProgressChannel();
+        final BuildIndexTask leftBuildIndexTask = BuildIndexTask.start(executorService, indexBuilder, leftPath, channel, "left");
+        final BuildIndexTask rightBuildIndexTask = BuildIndexTask.start(executorService, indexBuilder, rightPath, channel, "right");
+
+        // Tasks push progress to the channel, updates are delivered on UI thread
+        UITaskUtil.onProgress(channel, leftBuildIndexTask, rightBuildIndexTask, new Action2<BuildIndexTask, BuildIndexTask>() {
+            @Override
+            public void invoke(BuildIndexTask left, BuildIndexTask right) {
+                statusProperty().set("Comparing: left:"
+                        + (left.isDone() ? "DONE" : left.getFileCount())
+                        + " / right:"
+                        + (right.isDone() ? "DONE" : right.getFileCount()) );
+            }
+        });
+
+        // Scan left || scan right -> diff (in background) -> update UI
+        final Promise<List<DiffRecord>> diffPromise = Promise.combine(
+                leftBuildIndexTask.toPromise(), rightBuildIndexTask.toPromise(), cpuExecutorService,
+                new Func2<DirectoryNode, DirectoryNode, List<DiffRecord>>() {
+                    @Override
+                    public List<DiffRecord> invoke(DirectoryNode left, DirectoryNode right) {
+                        return diffBuilder.buildDiff(left, right);
+                    }
+                });
+
+        diffPromise.onComplete(UITaskUtil.FX_EXECUTOR, new Runnable() {
+            @Override
+            public void run() {
+                channel.close();
+                try {
+                    List<DiffRecord> diffList = diffPromise.get();
+
+                    // Store indexes
+                    leftIndex = leftBuildIndexTask.get();
+                    rightIndex = rightBuildIndexTask.get();
+
+                    // Show Diff
+                    showDiff(diffList);
+                } catch (InterruptedException ex) {
+                    Thread.interrupted();
+                    logger.warn("Comparison action was interrupted");
+                } catch (ExecutionException ex) {
+                    logger.warn("Index building failed with exception", ex);
+                } finally {
+                    // Update IsBusy and Status
+                    isBusyProperty.set(false);
+                    statusProperty.set("Idle");
+                }
+            }
+        });
+    }
+
+    /**
+     * Re-scans only the directory of the selected record and splices the result into the indexes.
+     */
+    public void refreshDirectoryPressed() {
+        DiffRecordViewModel selected = selectionViewModel.selectedItemProperty().get();
+        if (selected != null) {
+            logger.info("Refresh Directory Pressed");
+            refreshDirectory(getDirectoryPath(selected.getDiffRecord()));
+        }
+    }
+
+
+    /**
+     * Scans the selected directory if it was not scanned yet (lazy index building).
+     */
+    public void itemDoubleClicked() {
+        DiffRecordViewModel selected = selectionViewModel.selectedItemProperty().get();
+        if (selected != null && selected.getDiffRecord().getDiffType() == DiffRecord.DiffType.UNKNOWN) {
+            logger.info("Expand Directory " + selected.getDiffRecord().getFullPathString());
+            refreshDirectory(selected.getDiffRecord().getFullPath());
+        }
+    }
+
+
+    /**
+     * Synchronizes only the records within the directory of the selected record.
+     */
+    public void synchronizeDirectoryPressed() {
+        DiffRecordViewModel selected = selectionViewModel.selectedItemProperty().get();
+        if (selected != null) {
+            logger.info("Synchronize Directory Pressed");
+            String[] directoryPath = getDirectoryPath(selected.getDiffRecord());
+
+            List<DiffRecord> diffRecordList = new ArrayList<>();
+            for (DiffRecord diffRecord : diffTableModel.getDiffRecords()) {
+                if (diffRecord.isWithin(directoryPath)) {
+                    diffRecordList.add(diffRecord);
+                }
+            }
+            synchronize(diffRecordList);
+        }
+    }
+
+
+    /**
+     * Sets the action of all records within the directory of the selected record.
+     */
+    public void applyActionToDirectory(DiffRecord.Action action) {
+        DiffRecordViewModel selected = selectionViewModel.selectedItemProperty().get();
+        if (selected != null) {
+            String[] directoryPath = getDirectoryPath(selected.getDiffRecord());
+            int count = diffTableModel.applySubtreeAction(directoryPath, action);
+            logger.info("Action " + action + " set for " + count + " records in " + Arrays.toString(directoryPath));
+        }
+    }
+
+
+    public void refreshDirectory(String[] path) {
+        if (leftIndex == null || rightIndex == null) {
+            compareButtonPressed();
+            return;
+        }
+
+        // Widen the scope until the directory is present on both sides
+        String[] scopePath = path;
+        while (scopePath.length > 0
+                && (leftIndex.getDirectory(scopePath) == null || rightIndex.getDirectory(scopePath) == null)) {
+            scopePath = Arrays.copyOf(scopePath, scopePath.length - 1);
+        }
+        if (scopePath.length == 0) {
+            compareButtonPressed();
+            return;
+        }
+        final String[] directoryPath = scopePath;
+        final String directoryPathString = Arrays.toString(directoryPath);
+
+        this.isBusyProperty.set(true);
+        this.statusProperty.set("Refreshing " + directoryPathString);
+
+        // Scan only the directory (in separate thread)
+        ProgressChannel channel = UITaskUtil.newProgressChannel();
+        BuildIndexTask leftBuildIndexTask = BuildIndexTask.start(executorService, indexBuilder, leftPath, directoryPath, channel, "left");
+        BuildIndexTask rightBuildIndexTask = BuildIndexTask.start(executorService, indexBuilder, rightPath, directoryPath, channel, "right");
+
+        UITaskUtil.onUpdate(channel, leftBuildIndexTask, rightBuildIndexTask, new Action2<BuildIndexTask, BuildIndexTask>() {
+            @Override
+            public void invoke(BuildIndexTask left, BuildIndexTask right) {
+                statusProperty().set("Refreshing " + directoryPathString + ": left:"
+                        + (left.isDone() ? "DONE" : left.getFileCount())
+                        + " / right:"
+                        + (right.isDone() ? "DONE" : right.getFileCount()) );
+            }
+        }, new Action2<BuildIndexTask, BuildIndexTask>() {
+            @Override
+            public void invoke(BuildIndexTask leftIndexTask, BuildIndexTask rightIndexTask) {
+                try {
+                    spliceDirectory(directoryPath, leftIndexTask.get(), rightIndexTask.get());
+                } catch (InterruptedException ex) {
+                    Thread.interrupted();
+                    logger.warn("Refresh action was interrupted");
+                } catch (ExecutionException ex) {
+                    logger.warn("Index building failed with exception", ex);
+                } finally {
+                    // Update IsBusy and Status
+                    isBusyProperty.set(false);
+                    statusProperty.set("Idle");
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Replaces the directory in both indexes and replaces the diff records within the directory.
+     */
+    private void spliceDirectory(String[] directoryPath, DirectoryNode newLeft, DirectoryNode newRight) {
+        String[] parentPath = Arrays.copyOf(directoryPath, directoryPath.length - 1);
+        String name = directoryPath[directoryPath.length - 1];
+        DirectoryNode leftParent = leftIndex.getDirectory(parentPath);
+        DirectoryNode rightParent = rightIndex.getDirectory(parentPath);
+
+        // Splice into indexes
+        leftParent.replace(name, newLeft);
+        rightParent.replace(name, newRight);
+
+        // Remove records within the directory (keep their actions) and find where the new records belong
+        Map<String, DiffRecord.Action> actionMap = new HashMap<>();
+        List<DiffRecord> diffRecordList = new ArrayList<>(diffTableModel.size());
+        int insertIndex = -1;
+        for (DiffRecord diffRecord : diffTableModel.getDiffRecords()) {
+            if (diffRecord.isWithin(directoryPath)) {
+                actionMap.put(diffRecord.getFullPathString(), diffRecord.getAction());
+            } else {
+                if (insertIndex < 0 && diffRecord.compareFullPath(directoryPath) > 0) {
+                    insertIndex = diffRecordList.size();
+                }
+                diffRecordList.add(diffRecord);
+            }
+        }
+        if (insertIndex < 0) {
+            insertIndex = diffRecordList.size();
+        }
+
+        // Diff only the directory
+        List<DiffRecord> newDiffRecordList = diffBuilder.buildDiff(parentPath, leftParent, rightParent, name);
+        for (DiffRecord diffRecord : newDiffRecordList) {
+            DiffRecord.Action action = actionMap.get(diffRecord.getFullPathString());
+            if (action != null) {
+                diffRecord.setAction(action);
+            }
+        }
+        diffRecordList.addAll(insertIndex, newDiffRecordList);
+
+        diffTableModel.setDiffRecords(diffRecordList);
+        refreshView();
+    }
+
+
+    /**
+     * Directory represented by the record (or the directory containing it if it is a file).
+     */
+    private String[] getDirectoryPath(DiffRecord diffRecord) {
+        Node node = (diffRecord.getLeftNode() != null) ? diffRecord.getLeftNode() : diffRecord.getRightNode();
+        return (node instanceof DirectoryNode) ? diffRecord.getFullPath() : diffRecord.getPath();
+    }
+
+
+    public void synchronizeButtonPressed() {
+        logger.info("Synchronize Pressed");
+
+        // Records with actions selected in the table
+        synchronize(new ArrayList<>(diffTableModel.getDiffRecords()));
+    }
+
+
+    private void synchronize(List<DiffRecord> diffRecordList) {
+        // Update IsBusy and Status
+        isBusyProperty.set(true);
+        isSynchronizingProperty.set(true);
+        statusProperty.set("Synchronizing files");
+
+        ProgressChannel channel = UITaskUtil.newProgressChannel();
+        // Trees to be persisted are copied by the task (not on UI thread)
+        boolean persisted = indexSidecar != null || leftStore != null || rightStore != null;
+        synchronizeTask = SynchronizeTask.start(executorService, synchronizer, leftPath, rightPath, diffRecordList,
+                persisted ? leftIndex : null, persisted ? rightIndex : null, channel, "sync");
+
+        // Progress and completion pushed by the task
+        UITaskUtil.onUpdate(channel, synchronizeTask, new Action1<SynchronizeTask>() {
+            @Override
+            public void invoke(SynchronizeTask task) {
+                long bytesCopied = task.getBytesCopied();
+                long totalBytes = task.getTotalCopyBytes();
+
+                int progressPercentage = (totalBytes == 0) ? 0 : (int) (bytesCopied * 100.0 / totalBytes);
+
+                statusProperty().set((task.isPaused() ? "Paused: " : "Synchronizing: ")
+                        + progressPercentage + "% "
+                        + FileUtil.formatSize(bytesCopied) + " / " + FileUtil.formatSize(totalBytes) );
+            }
+        }, new Action1<SynchronizeTask>() {
+            @Override
+            public void invoke(SynchronizeTask syncTask) {
+                try {
+                    // Throws exception if any occured
+                    syncTask.get();
+                    persistIndexes(syncTask);
+                } catch (InterruptedException e) {
+                    Thread.interrupted();
+                    logger.warn("Synchronization of files was interrupted !");
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof CancellationException) {
+                        logger.info("Synchronization of files was cancelled");
+                    } else {
+                        logger.warn("Synchronization of files failed !", ex.getCause());
+                    }
+                } finally {
+                    // Trees are consistent even after cancel/failure
+                    // ... patch only the records which were processed instead of rebuilding the whole diff.
+                    patchDiff(syncTask.getOutcomes());
+
+                    // Update IsBusy and Status
+                    synchronizeTask = null;
+                    isSynchronizingProperty.set(false);
+                    pauseButtonCaptionProperty.set("Pause");
+                    isBusyProperty.set(false);
+                    statusProperty.set("Idle");
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Writes synchronized trees to index sidecars and history (in the background, using copies of the trees
+     * taken by the task as UI keeps modifying them).
+     */
+    private void persistIndexes(SynchronizeTask syncTask) {
+        if (syncTask.getLeftSnapshot() == null) {
+            return;
+        }
+        List<String> syncedPaths = new ArrayList<>(syncTask.getOutcomes().size());
+        for (DiffRecord diffRecord : syncTask.getOutcomes().keySet()) {
+            syncedPaths.add(diffRecord.getFullPathString());
+        }
+        persistIndex(leftPath, syncTask.getLeftSnapshot(), leftStore, syncedPaths);
+        persistIndex(rightPath, syncTask.getRightSnapshot(), rightStore, syncedPaths);
+    }
+
+
+    private void persistIndex(final Path rootPath, final DirectoryNode indexCopy, final IndexStore store,
+                              final List<String> syncedPaths) {
+        if (indexSidecar == null && store == null) {
+            return;
+        }
+        final long indexScanTime = scanTime;
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (indexSidecar != null) {
+                        indexSidecar.saveIndex(rootPath, indexCopy, indexScanTime, syncedPaths);
+                    }
+                    if (store != null) {
+                        logger.info("Stored index history " + store.commit(indexCopy));
+                    }
+                } catch (RuntimeException ex) {
+                    logger.warn("Failed to store index of " + rootPath.toAbsolutePath() + " !", ex);
+                }
+            }
+        });
+    }
+
+
+    public void pauseButtonPressed() {
+        if (synchronizeTask != null) {
+            if (synchronizeTask.isPaused()) {
+                logger.info("Resume Pressed");
+                synchronizeTask.resume();
+                pauseButtonCaptionProperty.set("Pause");
+            } else {
+                logger.info("Pause Pressed");
+                synchronizeTask.pause();
+                pauseButtonCaptionProperty.set("Resume");
+            }
+        }
+    }
+
+
+    public void cancelButtonPressed() {
+        if (synchronizeTask != null) {
+            logger.info("Cancel Pressed");
+            synchronizeTask.cancel(true);
+        }
+    }
+
+
+    private void showDiff(List<DiffRecord> diffList) {
+        // Update diff record list (view models are created only for visible rows)
+        diffTableModel.setDiffRecords(diffList);
+        refreshView();
+    }
+
+
+    /**
+     * Updates the diff after synchronization - finished records are removed, failed and partially applied
+     * records are re-evaluated against the trees and the rest is kept as is (including selected actions).
+     */
+    private void patchDiff(Map<DiffRecord, SyncListener.Outcome> outcomes) {
+        List<DiffRecord> diffRecordList = new ArrayList<>(diffTableModel.size());
+        for (DiffRecord diffRecord : diffTableModel.getDiffRecords()) {
+            SyncListener.Outcome outcome = outcomes.get(diffRecord);
+
+            if (outcome == null) {
+                // Not processed
+                diffRecordList.add(diffRecord);
+            } else if (outcome != SyncListener.Outcome.FINISHED) {
+                // Re-evaluate the entry, keep the action if the record still describes the same entry
+                for (DiffRecord newDiffRecord : diffBuilder.buildDiff(diffRecord)) {
+                    if (newDiffRecord.getFullPathString().equals(diffRecord.getFullPathString())) {
+                        newDiffRecord.setAction(diffRecord.getAction());
+                    }
+                    diffRecordList.add(newDiffRecord);
+                }
+            }
+        }
+        diffTableModel.setDiffRecords(diffRecordList);
+        refreshView();
+    }
+
+
+    /**
+     * Sorts and filters the table in the background according to the selected sort key, filter text
+     * and tree node, only the result of the latest request is shown.
+     */
+    private void refreshView() {
+        DiffTableModel.SortKey sortKey = sortKeyProperty.get();
+        List<DiffRecordFilter> filters = new ArrayList<>();
+        String filterText = filterTextProperty.get();
+        if (filterText != null && !filterText.isEmpty()) {
+            filters.add(DiffRecordFilter.nameContains(filterText));
+        }
+        DiffTreeModel.TreeNode treeNode = selectedTreeNodeProperty.get();
+        if (treeNode != null && treeNode.getPath().length > 0) {
+            filters.add(DiffRecordFilter.within(treeNode.getPath()));
+        }
+        DiffRecordFilter filter = filters.isEmpty() ? null
+                : (filters.size() == 1) ? filters.get(0) : DiffRecordFilter.and(filters.toArray(new DiffRecordFilter[filters.size()]));
+        final int request = ++viewRequestCount;
+        if (sortKey == diffTableModel.getSortKey() && filter == null && diffTableModel.getFilter() == null) {
+            return;
+        }
+
+        final Promise<DiffTableModel.View> viewPromise = Promise.submit(cpuExecutorService, diffTableModel.prepareView(sortKey, filter));
+        viewPromise.onComplete(UITaskUtil.FX_EXECUTOR, new Runnable() {
+            @Override
+            public void run() {
+                if (request != viewRequestCount) {
+                    return;
+                }
+                try {
+                    DiffTableModel.View view = viewPromise.get();
+                    if (diffTableModel.applyView(view)) {
+                        logger.debug("Showing " + view.getRowCount() + " records");
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.interrupted();
+                    logger.warn("Sorting was interrupted");
+                } catch (ExecutionException ex) {
+                    logger.warn("Sorting failed with exception", ex.getCause());
+                }
+            }
+        });
+    }
+
+
+    private static DiffRecord.Action getKeyAction(KeyEvent keyEvent) {
+        if ("1".equals(keyEvent.getText())) {
+            return DiffRecord.Action.USE_LEFT;
+        } else if ("2".equals(keyEvent.getText())) {
+            return DiffRecord.Action.USE_RIGHT;
+        } else if ("0".equals(keyEvent.getText())) {
+            return DiffRecord.Action.NONE;
+        } else {
+            return null;
+        }
+    }
+
+
+    /**
+     * 1/2/0 in the tree - the whole subtree of the selected node (its nodes are not created).
+     */
+    public void treeKeyPressed(KeyEvent keyEvent) {
+        DiffRecord.Action action = getKeyAction(keyEvent);
+        DiffTreeModel.TreeNode treeNode = selectedTreeNodeProperty.get();
+        if (action != null && treeNode != null) {
+            int count = treeNode.setAction(action);
+            logger.info("Action " + action + " set for " + count + " records in " + Arrays.toString(treeNode.getPath()));
+        }
+    }
+
+
+    public void keyPressed(KeyEvent keyEvent) {
+        DiffRecord.Action action = getKeyAction(keyEvent);
+        if (action == null) {
+            return;
+        }
+
+        if (selectionViewModel.selectedItemProperty().get() != null) {
+            if (keyEvent.isControlDown()) {
+                // Ctrl+1/2/0 - the whole directory of the selected record
+                applyActionToDirectory(action);
+            } else {
+                selectionViewModel.selectedItemProperty().get().actionProperty().set(action);
+                selectionViewModel.selectNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.ui.viewmodel;
+
+import com.jdirsync.core.Throttle;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allows changing the throttle limits while compare/synchronization is running.
+ */
+public class ThrottleViewModel {
+    private static final Logger logger = LoggerFactory.getLogger(ThrottleViewModel.class);
+
+    public enum Preset {
+        UNLIMITED("Unlimited", 0, 0),
+        NORMAL("Limit: 50MB/s, 2000 files/s", 50L * 1024 * 1024, 2000),
+        LOW("Limit: 10MB/s, 500 files/s", 10L * 1024 * 1024, 500),
+        VERY_LOW("Limit: 1MB/s, 50 files/s", 1024L * 1024, 50);
+
+        private final String caption;
+        private final long bytesPerSecond;
+        private final long operationsPerSecond;
+
+        Preset(String caption, long bytesPerSecond, long operationsPerSecond) {
+            this.caption = caption;
+            this.bytesPerSecond = bytesPerSecond;
+            this.operationsPerSecond = operationsPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return caption;
+        }
+    }
+
+    private final Throttle throttle;
+    private final ObservableList<Preset> presetList = FXCollections.observableArrayList(Preset.values());
+    private final ObjectProperty<Preset> selectedPresetProperty = new SimpleObjectProperty<>(Preset.UNLIMITED);
+
+
+    public ThrottleViewModel(Throttle throttle) {
+        this.throttle = throttle;
+        selectedPresetProperty.addListener(new ChangeListener<Preset>() {
+            @Override
+            public void changed(ObservableValue<? extends Preset> observableValue, Preset oldValue, Preset newValue) {
+                applyPreset(newValue);
+            }
+        });
+        applyPreset(selectedPresetProperty.get());
+    }
+
+
+    private void applyPreset(Preset preset) {
+        if (preset != null) {
+            logger.info("Throttle set to " + preset);
+            throttle.setBytesPerSecond(preset.bytesPerSecond);
+            throttle.setOperationsPerSecond(preset.operationsPerSecond);
+        }
+    }
+
+
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+
+    public ObservableList<Preset> getPresetList() {
+        return presetList;
+    }
+
+
+    public ObjectProperty<Preset> selectedPresetProperty() {
+        return selectedPresetProperty;
+    }
+}
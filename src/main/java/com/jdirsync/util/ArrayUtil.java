@@ -1,31 +1,90 @@
-/*
- *  Copyright (c) 2008 - Tomas Janecek.
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  This program is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with this program; if not, write to the Free Software
- *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
- */
-package com.jdirsync.util;
-
-import java.util.Arrays;
-
-public final class ArrayUtil {
-    private ArrayUtil() {}
-
-    @SafeVarargs
-    public static <T> T[] arrayExtend(T[] original, T... extraItems) {
-        T[] result = Arrays.copyOf(original, original.length + extraItems.length);
-        System.arraycopy(extraItems, 0, result, original.length, extraItems.length);
-        return result;
-    }
-}
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync.util;
+
+import java.util.Arrays;
+
+public final class ArrayUtil {
+    private ArrayUtil() {}
+
+    @SafeVarargs
+    public static <T> T[] arrayExtend(T[] original, T... extraItems) {
+        T[] result = Arrays.copyOf(original, original.length + extraItems.length);
+        System.arraycopy(extraItems, 0, result, original.length, extraItems.length);
+        return result;
+    }
+
+
+    public static <T> boolean startsWith(T[] array, T[] prefix) {
+        if (array.length < prefix.length) {
+            return false;
+        }
+        for (int i=0; i<prefix.length; i++) {
+            if (!array[i].equals(prefix[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Compares arrays element by element (shorter array is smaller if it is a prefix of the longer one).
+     */
+    public static <T extends Comparable<T>> int compare(T[] array1, T[] array2) {
+        int length = Math.min(array1.length, array2.length);
+        for (int i=0; i<length; i++) {
+            int result = array1[i].compareTo(array2[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return array1.length - array2.length;
+    }
+
+
+    /**
+     * Stable sort of indexes by keys[index] (merge sort on primitive arrays - no boxing of large arrays).
+     */
+    public static void sortIndexes(int[] indexes, long[] keys) {
+        int[] buffer = new int[indexes.length];
+        int[] source = indexes;
+        int[] target = buffer;
+        for (int width = 1; width < indexes.length; width = width * 2) {
+            for (int from = 0; from < indexes.length; from = from + 2 * width) {
+                int middle = Math.min(from + width, indexes.length);
+                int to = Math.min(from + 2 * width, indexes.length);
+                int left = from;
+                int right = middle;
+                for (int i = from; i < to; i++) {
+                    if (left < middle && (right >= to || keys[source[left]] <= keys[source[right]])) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != indexes) {
+            System.arraycopy(source, 0, indexes, 0, indexes.length);
+        }
+    }
+}
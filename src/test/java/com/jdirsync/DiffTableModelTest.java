@@ -0,0 +1,213 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DiffRecordFilter;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.ui.viewmodel.DiffRecordViewModel;
+import com.jdirsync.ui.viewmodel.DiffTableModel;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class DiffTableModelTest {
+    private StringProperty leftName = new SimpleStringProperty("A(L)");
+    private StringProperty rightName = new SimpleStringProperty("B(R)");
+
+
+    /**
+     * Records in path order - 1000 files per directory (dir0000, dir0001, ...), every 10th is missing on left.
+     */
+    private static List<DiffRecord> buildDiffRecords(int count) {
+        DirectoryNode left = new DirectoryNode(null);
+        DirectoryNode right = new DirectoryNode(null);
+        List<DiffRecord> diffRecords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String[] path = {String.format("dir%04d", i / 1000)};
+            FileNode fileNode = new FileNode(String.format("file$%07d.%s", i, (i % 2 == 0) ? "txt" : "bin"), i, new Date(0));
+            if (i % 10 == 9) {
+                right.add(fileNode);
+                diffRecords.add(new DiffRecord(path, left, null, right, fileNode));
+            } else {
+                left.add(fileNode);
+                diffRecords.add(new DiffRecord(path, left, fileNode, right, null));
+            }
+        }
+        return diffRecords;
+    }
+
+
+    @Test
+    public void testLazyRowsAndActions() {
+        DiffTableModel model = new DiffTableModel(leftName, rightName, 4);
+        model.setDiffRecords(buildDiffRecords(100));
+        Assert.assertEquals(100, model.size());
+
+        DiffRecordViewModel row10 = model.get(10);
+        Assert.assertEquals("file$0000010.txt", row10.nameProperty().get());
+        Assert.assertEquals("MISSING on B(R)", row10.diffTypeProperty().get());
+        Assert.assertEquals(10, model.indexOf(row10));
+
+        // Actions are stored per row - changed from the view model or for all rows at once
+        row10.actionProperty().set(DiffRecord.Action.USE_RIGHT);
+        Assert.assertEquals(DiffRecord.Action.USE_RIGHT, model.getAction(10));
+        Assert.assertEquals("Delete on A(L)", row10.actionSummaryProperty().get());
+        model.setAllActions(DiffRecord.Action.USE_LEFT);
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, row10.actionProperty().get());
+        Assert.assertEquals("Copy to B(R)", row10.actionSummaryProperty().get());
+        model.setAction(99, DiffRecord.Action.NONE);
+        Assert.assertEquals(DiffRecord.Action.NONE, model.getDiffRecords().get(99).getAction());
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, model.getDiffRecords().get(0).getAction());
+
+        // Only cacheSize view models exist - least recently used one is recycled for another row
+        model.get(11);
+        model.get(12);
+        model.get(13);
+        DiffRecordViewModel row14 = model.get(14);
+        Assert.assertSame(row10, row14);
+        Assert.assertEquals("file$0000014.txt", row14.nameProperty().get());
+        Assert.assertEquals(14, model.indexOf(row14));
+
+        // Pinned view model (e.g. selected row) is not recycled
+        DiffRecordViewModel row12 = model.get(12);
+        model.setPinnedViewModel(row12);
+        for (int row = 20; row < 30; row++) {
+            model.get(row);
+        }
+        Assert.assertEquals(12, model.indexOf(row12));
+        Assert.assertEquals("file$0000012.txt", row12.nameProperty().get());
+
+        // Names are part of the texts
+        leftName.set("C(L)");
+        Assert.assertEquals("Copy to B(R)", model.get(12).actionSummaryProperty().get());
+        rightName.set("D(R)");
+        Assert.assertEquals("MISSING on D(R)", model.get(12).diffTypeProperty().get());
+    }
+
+
+    @Test
+    public void testBulkActions() {
+        DiffTableModel model = new DiffTableModel(leftName, rightName, 16);
+        model.setDiffRecords(buildDiffRecords(5000));
+        DiffRecordViewModel row1500 = model.get(1500);
+        int revision = model.actionRevisionProperty().get();
+
+        // Subtree - range of rows found by binary search, materialized rows are updated
+        Assert.assertEquals(1000, model.applySubtreeAction(new String[] {"dir0001"}, DiffRecord.Action.USE_LEFT));
+        Assert.assertEquals(revision + 1, model.actionRevisionProperty().get());
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, row1500.actionProperty().get());
+        Assert.assertEquals(DiffRecord.Action.NONE, model.getAction(999));
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, model.getAction(1000));
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, model.getAction(1999));
+        Assert.assertEquals(DiffRecord.Action.NONE, model.getAction(2000));
+        Assert.assertEquals(1, model.applySubtreeAction(new String[] {"dir0002", "file$0002001.bin"}, DiffRecord.Action.USE_RIGHT));
+        Assert.assertEquals(DiffRecord.Action.USE_RIGHT, model.getAction(2001));
+        Assert.assertEquals(0, model.applySubtreeAction(new String[] {"dir0000x"}, DiffRecord.Action.USE_RIGHT));
+
+        // Filters
+        Assert.assertEquals(500, model.applyAction(DiffRecord.Action.USE_RIGHT,
+                DiffRecordFilter.ofType(DiffRecord.DiffType.MISSING_LEFT)));
+        Assert.assertEquals(DiffRecord.Action.USE_RIGHT, model.getAction(1509));
+        Assert.assertEquals(250, model.applyAction(DiffRecord.Action.NONE, DiffRecordFilter.and(
+                DiffRecordFilter.within(new String[] {"dir0003"}),
+                DiffRecordFilter.extension("TXT"),
+                DiffRecordFilter.minSize(3500))));
+        Assert.assertEquals(DiffRecord.Action.NONE, model.getAction(3500));
+        Assert.assertEquals(DiffRecord.Action.NONE, model.getDiffRecords().get(3500).getAction());
+        Assert.assertEquals(revision + 5, model.actionRevisionProperty().get());
+    }
+
+
+    @Test
+    public void testSortAndFilterView() throws Exception {
+        DiffTableModel model = new DiffTableModel(leftName, rightName, 16);
+        model.setDiffRecords(buildDiffRecords(1000));
+        model.setAction(5, DiffRecord.Action.USE_LEFT);
+
+        // Biggest first
+        DiffTableModel.View view = model.prepareView(DiffTableModel.SortKey.SIZE, null).call();
+        Assert.assertTrue(model.applyView(view));
+        Assert.assertEquals(1000, model.size());
+        Assert.assertEquals("file$0000999.bin", model.get(0).nameProperty().get());
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, model.getAction(994));
+        model.setAction(0, DiffRecord.Action.USE_RIGHT);
+        Assert.assertEquals(DiffRecord.Action.USE_RIGHT, model.getDiffRecords().get(999).getAction());
+
+        // Filter keeps the sort order, bulk actions cover hidden rows as well
+        view = model.prepareView(DiffTableModel.SortKey.SIZE, DiffRecordFilter.nameContains("00000")).call();
+        Assert.assertEquals(100, view.getRowCount());
+        Assert.assertTrue(model.applyView(view));
+        Assert.assertEquals(100, model.size());
+        Assert.assertEquals("file$0000099.bin", model.get(0).nameProperty().get());
+        Assert.assertEquals("file$0000000.txt", model.get(99).nameProperty().get());
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, model.getAction(94));
+        model.setAllActions(DiffRecord.Action.NONE);
+        Assert.assertEquals(DiffRecord.Action.NONE, model.getDiffRecords().get(999).getAction());
+
+        // Sorting by action uses the current actions, ties keep the path order
+        model.setAction(50, DiffRecord.Action.USE_RIGHT);
+        Assert.assertTrue(model.applyView(model.prepareView(DiffTableModel.SortKey.ACTION, null).call()));
+        Assert.assertEquals("file$0000049.bin", model.get(999).nameProperty().get());
+        Assert.assertEquals("file$0000000.txt", model.get(0).nameProperty().get());
+
+        // View prepared for replaced records is not applied
+        view = model.prepareView(DiffTableModel.SortKey.TYPE, null).call();
+        model.setDiffRecords(buildDiffRecords(10));
+        Assert.assertFalse(model.applyView(view));
+        Assert.assertEquals(10, model.size());
+        Assert.assertEquals(DiffTableModel.SortKey.PATH, model.getSortKey());
+    }
+
+
+    @Ignore
+    @Test
+    public void profileLargeDiff() {
+        List<DiffRecord> diffRecords = buildDiffRecords(500000);
+        DiffTableModel model = new DiffTableModel(leftName, rightName);
+
+        long start = System.currentTimeMillis();
+        model.setDiffRecords(diffRecords);
+        model.setAllActions(DiffRecord.Action.USE_LEFT);
+        for (int i = 0; i < 50; i++) {
+            model.get(i);
+        }
+        System.out.println("500K rows shown in " + (System.currentTimeMillis() - start) + "ms");
+
+        start = System.currentTimeMillis();
+        model.applySubtreeAction(new String[] {"dir0250"}, DiffRecord.Action.USE_RIGHT);
+        model.applyAction(DiffRecord.Action.NONE, DiffRecordFilter.extension("bin"));
+        System.out.println("Bulk actions took " + (System.currentTimeMillis() - start) + "ms");
+
+        start = System.currentTimeMillis();
+        try {
+            model.applyView(model.prepareView(DiffTableModel.SortKey.MODIFIED, null).call());
+            model.applyView(model.prepareView(DiffTableModel.SortKey.SIZE, DiffRecordFilter.nameContains("bin")).call());
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        System.out.println("Sorting and filtering took " + (System.currentTimeMillis() - start) + "ms");
+    }
+}
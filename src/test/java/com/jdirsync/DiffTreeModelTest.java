@@ -0,0 +1,152 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.ui.viewmodel.DiffTableModel;
+import com.jdirsync.ui.viewmodel.DiffTreeModel;
+import com.jdirsync.util.FileUtil;
+import javafx.beans.property.SimpleStringProperty;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class DiffTreeModelTest {
+
+    /**
+     * Records in path order - directories d0..d9 with files f000..f099 (size 1..100) and subdirectory sub
+     * with 10 files, all missing on right, followed by directory z missing on right.
+     */
+    private static List<DiffRecord> buildDiffRecords() {
+        DirectoryNode right = new DirectoryNode(null);
+        List<DiffRecord> diffRecords = new ArrayList<>();
+        for (int d = 0; d < 10; d++) {
+            DirectoryNode left = new DirectoryNode(null);
+            for (int f = 0; f < 100; f++) {
+                FileNode fileNode = new FileNode(String.format("f%03d", f), f + 1, new Date(0));
+                left.add(fileNode);
+                diffRecords.add(new DiffRecord(new String[] {"d" + d}, left, fileNode, right, null));
+            }
+            for (int f = 0; f < 10; f++) {
+                FileNode fileNode = new FileNode(String.format("s%03d", f), 1000, new Date(0));
+                left.add(fileNode);
+                diffRecords.add(new DiffRecord(new String[] {"d" + d, "sub"}, left, fileNode, right, null));
+            }
+        }
+        DirectoryNode zNode = new DirectoryNode("z");
+        zNode.add(new FileNode("content", 5000, new Date(0)));
+        diffRecords.add(new DiffRecord(new String[0], new DirectoryNode(null), zNode, right, null));
+        return diffRecords;
+    }
+
+
+    @Test
+    public void testLazyNodesAndRollups() throws Exception {
+        DiffTableModel tableModel = new DiffTableModel(new SimpleStringProperty("L"), new SimpleStringProperty("R"));
+        tableModel.setDiffRecords(buildDiffRecords());
+        DiffTreeModel treeModel = new DiffTreeModel(tableModel);
+
+        // Nodes are created on request
+        DiffTreeModel.TreeNode root = treeModel.getRoot();
+        Assert.assertEquals(1101, root.getRecordCount());
+        Assert.assertFalse(root.isExpanded());
+        Assert.assertEquals(11, root.getChildren().size());
+        DiffTreeModel.TreeNode d3 = root.getChildren().get(3);
+        Assert.assertEquals("d3", d3.getName());
+        Assert.assertEquals(110, d3.getRecordCount());
+        Assert.assertFalse(d3.isExpanded());
+        Assert.assertFalse(d3.isLeaf());
+        DiffTreeModel.TreeNode z = root.getChildren().get(10);
+        Assert.assertTrue(z.isLeaf());
+        Assert.assertEquals("z", z.getDiffRecord().getName());
+
+        // Action of a directory is set for its subtree without creating it
+        Assert.assertEquals(110, d3.setAction(DiffRecord.Action.USE_LEFT));
+        Assert.assertFalse(d3.isExpanded());
+        Assert.assertEquals(110, d3.getPendingCount());
+        Assert.assertEquals(5050 + 10000, d3.getBytesToCopy());
+        Assert.assertEquals(110, root.getPendingCount());
+        Assert.assertEquals("d3 (110 differences, 110 pending, " + FileUtil.formatSize(15050) + " to copy)", d3.summaryProperty().get());
+        Assert.assertEquals(DiffRecord.Action.USE_LEFT, tableModel.getAction(330));
+
+        // Rows changed in the table update the created nodes
+        DiffTreeModel.TreeNode sub = d3.getChildren().get(100);
+        Assert.assertEquals(101, d3.getChildren().size());
+        Assert.assertEquals(10, sub.getRecordCount());
+        tableModel.setAction(430, DiffRecord.Action.NONE);
+        Assert.assertEquals(9, sub.getPendingCount());
+        Assert.assertEquals(9000, sub.getBytesToCopy());
+        Assert.assertEquals("sub (10 differences, 9 pending, " + FileUtil.formatSize(9000) + " to copy)", sub.summaryProperty().get());
+        Assert.assertEquals(109, root.getPendingCount());
+        tableModel.setAction(0, DiffRecord.Action.USE_RIGHT);
+        Assert.assertEquals(110, root.getPendingCount());
+        Assert.assertEquals(14050, root.getBytesToCopy());
+
+        // Bulk actions
+        z.setAction(DiffRecord.Action.USE_LEFT);
+        Assert.assertEquals(19050, root.getBytesToCopy());
+        tableModel.setAllActions(DiffRecord.Action.NONE);
+        Assert.assertEquals(0, root.getPendingCount());
+        Assert.assertEquals(0, d3.getPendingCount());
+        root.setAction(DiffRecord.Action.USE_LEFT);
+        Assert.assertEquals(1101, root.getPendingCount());
+
+        // Sorting keeps the tree, new records replace it
+        Assert.assertTrue(tableModel.applyView(tableModel.prepareView(DiffTableModel.SortKey.SIZE, null).call()));
+        Assert.assertSame(root, treeModel.getRoot());
+        tableModel.setDiffRecords(buildDiffRecords().subList(0, 110));
+        Assert.assertNotSame(root, treeModel.getRoot());
+        Assert.assertEquals(1, treeModel.getRoot().getChildren().size());
+        Assert.assertEquals(0, treeModel.getRoot().getPendingCount());
+    }
+
+
+    @Ignore
+    @Test
+    public void profileLargeTree() {
+        DirectoryNode left = new DirectoryNode(null);
+        DirectoryNode right = new DirectoryNode(null);
+        List<DiffRecord> diffRecords = new ArrayList<>();
+        for (int i = 0; i < 1000000; i++) {
+            FileNode fileNode = new FileNode(String.format("f%07d", i), i, new Date(0));
+            String[] path = {String.format("d%03d", i / 100000), String.format("d%03d", i / 1000)};
+            diffRecords.add(new DiffRecord(path, left, fileNode, right, null));
+        }
+        DiffTableModel tableModel = new DiffTableModel(new SimpleStringProperty("L"), new SimpleStringProperty("R"));
+        tableModel.setDiffRecords(diffRecords);
+
+        long start = System.currentTimeMillis();
+        DiffTreeModel treeModel = new DiffTreeModel(tableModel);
+        DiffTreeModel.TreeNode node = treeModel.getRoot().getChildren().get(5).getChildren().get(50);
+        System.out.println("1M records tree built in " + (System.currentTimeMillis() - start) + "ms");
+
+        start = System.currentTimeMillis();
+        treeModel.getRoot().getChildren().get(3).setAction(DiffRecord.Action.USE_LEFT);
+        for (int row = 0; row < 1000; row++) {
+            tableModel.setAction(row * 1000, DiffRecord.Action.USE_RIGHT);
+        }
+        System.out.println("Subtree and 1000 row actions took " + (System.currentTimeMillis() - start) + "ms, "
+                + node.summaryProperty().get());
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.builder.DiffBuilder;
+import com.jdirsync.builder.IndexBuilderNio;
+import com.jdirsync.builder.IndexBuilderParallel;
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.core.Throttle;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.model.Node;
+import com.jdirsync.synchronizer.FileCopier;
+import com.jdirsync.synchronizer.FileCopierNio;
+import com.jdirsync.synchronizer.ParallelFileCopier;
+import com.jdirsync.synchronizer.PipelinedFileCopier;
+import com.jdirsync.synchronizer.VerifyMode;
+import com.jdirsync.util.FileUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class FileCopierTest {
+    private static Node findChild(DirectoryNode parent, String name) {
+        for (Node child : parent.getChildren()) {
+            if (child.getName().equals(name)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+
+    @Test
+    public void testPipelinedCopy() throws IOException {
+        Path sourceRoot = Paths.get("target", "copySource");
+        Path targetRoot = Paths.get("target", "copyTarget");
+
+        FileUtil.deleteRecursively(sourceRoot);
+        FileUtil.deleteRecursively(targetRoot);
+
+        // Prepare source - one file spanning many buffers and a few small/empty ones
+        byte[] largeData = new byte[10 * 1024 + 17];
+        new Random(42).nextBytes(largeData);
+        FileUtil.createDirectories(sourceRoot.resolve(Paths.get("dir", "sub")));
+        FileUtil.createDirectories(sourceRoot.resolve(Paths.get("dir", "empty")));
+        Files.write(sourceRoot.resolve(Paths.get("dir", "large.bin")), largeData);
+        Files.write(sourceRoot.resolve(Paths.get("dir", "sub", "small.txt")), "small".getBytes("UTF8"));
+        Files.write(sourceRoot.resolve(Paths.get("dir", "sub", "zero.txt")), new byte[0]);
+        Files.setLastModifiedTime(sourceRoot.resolve(Paths.get("dir", "large.bin")), FileTime.fromMillis(1000000000000L));
+        FileUtil.createDirectories(targetRoot);
+
+        // Copy "dir" subtree using small buffers
+        DirectoryNode sourceIndex = new IndexBuilderNio().buildIndex(sourceRoot, new AtomicInteger(0));
+        AtomicLong bytesCounter = new AtomicLong(0);
+        new PipelinedFileCopier(3, 1024, VerifyMode.SAMPLED, new Throttle()).copy(findChild(sourceIndex, "dir"),
+                sourceRoot.resolve("dir"), targetRoot.resolve("dir"), bytesCounter, new TaskControl());
+
+        // Verify content and attributes
+        Assert.assertEquals(largeData.length + 5, bytesCounter.get());
+        Assert.assertTrue(Arrays.equals(largeData, Files.readAllBytes(targetRoot.resolve(Paths.get("dir", "large.bin")))));
+        Assert.assertEquals("small", new String(Files.readAllBytes(targetRoot.resolve(Paths.get("dir", "sub", "small.txt"))), "UTF8"));
+        Assert.assertEquals(0, Files.size(targetRoot.resolve(Paths.get("dir", "sub", "zero.txt"))));
+        Assert.assertTrue(Files.isDirectory(targetRoot.resolve(Paths.get("dir", "empty"))));
+        Assert.assertEquals(1000000000000L, Files.getLastModifiedTime(targetRoot.resolve(Paths.get("dir", "large.bin"))).toMillis());
+
+        // Digests are recorded in the copied nodes
+        FileNode smallNode = (FileNode) findChild((DirectoryNode) findChild((DirectoryNode) findChild(sourceIndex, "dir"), "sub"), "small.txt");
+        Assert.assertNotNull(smallNode.getDigest());
+    }
+
+
+    @Test
+    public void testPipelinedCopyAttributes() throws IOException {
+        Path sourceRoot = Paths.get("target", "copySource7");
+        Path targetRoot = Paths.get("target", "copyTarget7");
+        FileUtil.deleteRecursively(sourceRoot);
+        FileUtil.deleteRecursively(targetRoot);
+        FileUtil.createDirectories(sourceRoot.resolve("tools"));
+        FileUtil.createDirectories(targetRoot);
+        Assume.assumeTrue(Files.getFileAttributeView(sourceRoot, PosixFileAttributeView.class) != null);
+
+        // Executable file in a private directory
+        Path scriptPath = sourceRoot.resolve(Paths.get("tools", "run.sh"));
+        FileUtil.writeStringToFile(scriptPath, "#!/bin/sh");
+        Files.setPosixFilePermissions(scriptPath, PosixFilePermissions.fromString("rwxr-x---"));
+        Files.setPosixFilePermissions(sourceRoot.resolve("tools"), PosixFilePermissions.fromString("rwx------"));
+        Files.setLastModifiedTime(sourceRoot.resolve("tools"), FileTime.fromMillis(1000000000000L));
+
+        DirectoryNode sourceIndex = new IndexBuilderNio().buildIndex(sourceRoot, new AtomicInteger(0));
+        new PipelinedFileCopier(VerifyMode.SAMPLED, new Throttle()).copy(findChild(sourceIndex, "tools"),
+                sourceRoot.resolve("tools"), targetRoot.resolve("tools"), new AtomicLong(0), new TaskControl());
+
+        Assert.assertEquals("rwxr-x---", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(targetRoot.resolve(Paths.get("tools", "run.sh")))));
+        Assert.assertTrue(Files.isExecutable(targetRoot.resolve(Paths.get("tools", "run.sh"))));
+        Assert.assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(targetRoot.resolve("tools"))));
+        Assert.assertEquals(1000000000000L, Files.getLastModifiedTime(targetRoot.resolve("tools")).toMillis());
+    }
+
+
+    @Test
+    public void testPipelinedCopyFullVerify() throws IOException {
+        Path sourceRoot = Paths.get("target", "copySource3");
+        Path targetRoot = Paths.get("target", "copyTarget3");
+
+        FileUtil.deleteRecursively(sourceRoot);
+        FileUtil.deleteRecursively(targetRoot);
+        FileUtil.createDirectories(sourceRoot);
+        FileUtil.createDirectories(targetRoot);
+        FileUtil.writeStringToFile(sourceRoot.resolve("file.txt"), "data");
+
+        DirectoryNode sourceIndex = new IndexBuilderNio().buildIndex(sourceRoot, new AtomicInteger(0));
+        FileNode fileNode = (FileNode) findChild(sourceIndex, "file.txt");
+        new PipelinedFileCopier(VerifyMode.FULL, new Throttle()).copy(fileNode,
+                sourceRoot.resolve("file.txt"), targetRoot.resolve("file.txt"), new AtomicLong(0), new TaskControl());
+
+        // MD5 of "data"
+        Assert.assertEquals("8d777f385d3dfec8815d20f7496026dc", fileNode.getDigest());
+        Assert.assertEquals(fileNode.getDigest(), ((FileNode) fileNode.copy()).getDigest());
+    }
+
+
+    @Test(expected = RuntimeException.class)
+    public void testPipelinedCopyFailsWhenTargetExists() throws IOException {
+        Path sourceRoot = Paths.get("target", "copySource2");
+        Path targetRoot = Paths.get("target", "copyTarget2");
+
+        FileUtil.deleteRecursively(sourceRoot);
+        FileUtil.deleteRecursively(targetRoot);
+        FileUtil.createDirectories(sourceRoot);
+        FileUtil.createDirectories(targetRoot);
+        FileUtil.writeStringToFile(sourceRoot.resolve("file.txt"), "source");
+        FileUtil.writeStringToFile(targetRoot.resolve("file.txt"), "target");
+
+        DirectoryNode sourceIndex = new IndexBuilderNio().buildIndex(sourceRoot, new AtomicInteger(0));
+        new PipelinedFileCopier().copy(findChild(sourceIndex, "file.txt"),
+                sourceRoot.resolve("file.txt"), targetRoot.resolve("file.txt"), new AtomicLong(0), new TaskControl());
+    }
+
+
+    @Test
+    public void testThrottledCopy() throws IOException {
+        Path sourceRoot = Paths.get("target", "copySource4");
+        Path targetRoot = Paths.get("target", "copyTarget4");
+
+        FileUtil.deleteRecursively(sourceRoot);
+        FileUtil.deleteRecursively(targetRoot);
+        FileUtil.createDirectories(sourceRoot);
+        FileUtil.createDirectories(targetRoot);
+        Files.write(sourceRoot.resolve("file.bin"), new byte[30 * 1024]);
+
+        // 20kB/s with 20kB burst => the remaining 10kB need at least 0.5s
+        Throttle throttle = new Throttle(20 * 1024, 0);
+        DirectoryNode sourceIndex = new IndexBuilderNio().buildIndex(sourceRoot, new AtomicInteger(0));
+        long start = System.currentTimeMillis();
+        new PipelinedFileCopier(4, 1024, VerifyMode.NONE, throttle).copy(findChild(sourceIndex, "file.bin"),
+                sourceRoot.resolve("file.bin"), targetRoot.resolve("file.bin"), new AtomicLong(0), new TaskControl());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 400);
+
+        // Limits can be lifted at any time
+        throttle.setBytesPerSecond(0);
+        start = System.currentTimeMillis();
+        throttle.acquireBytes(1024 * 1024);
+        Assert.assertTrue(System.currentTimeMillis() - start < 400);
+    }
+
+
+    private static void createTree(Path path, int depth, int directoryCount, int fileCount) throws IOException {
+        FileUtil.createDirectories(path);
+        for (int i=0; i<fileCount; i++) {
+            Files.write(path.resolve("file-" + i + ".txt"), ("data-" + depth + "-" + i).getBytes("UTF8"));
+        }
+        if (depth > 0) {
+            for (int i=0; i<directoryCount; i++) {
+                createTree(path.resolve("dir-" + i), depth - 1, directoryCount, fileCount);
+            }
+        }
+    }
+
+
+    @Test
+    public void testParallelScanAndCopy() throws IOException {
+        Path sourceRoot = Paths.get("target", "copySource5");
+        Path targetRoot = Paths.get("target", "copyTarget5");
+
+        FileUtil.deleteRecursively(sourceRoot);
+        FileUtil.deleteRecursively(targetRoot);
+        createTree(sourceRoot.resolve("tree"), 3, 3, 4);
+        FileUtil.createDirectories(targetRoot);
+
+        // Same index as the sequential builder (also in lazy mode)
+        AtomicInteger nioFileCounter = new AtomicInteger(0);
+        DirectoryNode sourceIndex = new IndexBuilderNio().buildIndex(sourceRoot, nioFileCounter);
+        AtomicInteger fileCounter = new AtomicInteger(0);
+        IndexBuilderParallel parallelBuilder = new IndexBuilderParallel(new Throttle(), 4);
+        DirectoryNode parallelIndex = parallelBuilder.buildIndex(sourceRoot, fileCounter);
+        parallelBuilder.close();
+        Assert.assertTrue(new DiffBuilder().buildDiff(sourceIndex, parallelIndex).isEmpty());
+        Assert.assertEquals(sourceIndex.toString(), parallelIndex.toString());
+        Assert.assertEquals(nioFileCounter.get(), fileCounter.get());
+        IndexBuilderParallel lazyBuilder = new IndexBuilderParallel(new Throttle(), 4, 2);
+        Assert.assertEquals(new IndexBuilderNio(new Throttle(), 2).buildIndex(sourceRoot, new AtomicInteger(0)).toString(),
+                lazyBuilder.buildIndex(sourceRoot, new AtomicInteger(0)).toString());
+        lazyBuilder.close();
+
+        // Parallel copy of the subtree
+        AtomicLong bytesCounter = new AtomicLong(0);
+        ParallelFileCopier parallelCopier = new ParallelFileCopier(new FileCopierNio(), 4);
+        parallelCopier.copy(findChild(sourceIndex, "tree"),
+                sourceRoot.resolve("tree"), targetRoot.resolve("tree"), bytesCounter, new TaskControl());
+        parallelCopier.close();
+        Assert.assertEquals(sourceIndex.getSize(), bytesCounter.get());
+        Assert.assertTrue(new DiffBuilder().buildDiff(sourceIndex,
+                new IndexBuilderNio().buildIndex(targetRoot, new AtomicInteger(0))).isEmpty());
+    }
+
+
+    @Test
+    public void testParallelThreadsLimitedByPermits() throws IOException {
+        Path sourceRoot = Paths.get("target", "copySource6");
+        Path targetRoot = Paths.get("target", "copyTarget6");
+        FileUtil.deleteRecursively(sourceRoot);
+        FileUtil.deleteRecursively(targetRoot);
+        createTree(sourceRoot.resolve("tree"), 1, 50, 20);
+        FileUtil.createDirectories(targetRoot);
+
+        // Wide tree - every directory is waiting for a permit at some point
+        IndexBuilderParallel parallelBuilder = new IndexBuilderParallel(new Throttle(), 2);
+        DirectoryNode sourceIndex = parallelBuilder.buildIndex(sourceRoot, new AtomicInteger(0));
+        parallelBuilder.close();
+        Assert.assertEquals(new IndexBuilderNio().buildIndex(sourceRoot, new AtomicInteger(0)).toString(), sourceIndex.toString());
+        Assert.assertTrue(parallelBuilder.getPeakThreadCount() <= 2);
+
+        // Copies in progress and copying threads are counted by the delegate
+        final AtomicInteger copyCount = new AtomicInteger(0);
+        final AtomicInteger peakCopyCount = new AtomicInteger(0);
+        final Set<Thread> copyThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final FileCopier nioCopier = new FileCopierNio();
+        FileCopier countingCopier = new FileCopier() {
+            @Override
+            public void copy(Node node, Path sourcePath, Path targetPath, AtomicLong bytesCounter, TaskControl taskControl) {
+                int count = copyCount.incrementAndGet();
+                int peak;
+                while (count > (peak = peakCopyCount.get()) && !peakCopyCount.compareAndSet(peak, count)) {
+                    // Retry
+                }
+                copyThreads.add(Thread.currentThread());
+                try {
+                    nioCopier.copy(node, sourcePath, targetPath, bytesCounter, taskControl);
+                } finally {
+                    copyCount.decrementAndGet();
+                }
+            }
+        };
+        ParallelFileCopier parallelCopier = new ParallelFileCopier(countingCopier, 2);
+        AtomicLong bytesCounter = new AtomicLong(0);
+        parallelCopier.copy(findChild(sourceIndex, "tree"),
+                sourceRoot.resolve("tree"), targetRoot.resolve("tree"), bytesCounter, new TaskControl());
+        parallelCopier.close();
+        Assert.assertEquals(sourceIndex.getSize(), bytesCounter.get());
+        Assert.assertTrue(peakCopyCount.get() <= 2);
+        Assert.assertTrue(copyThreads.size() <= 2);
+        Assert.assertTrue(parallelCopier.getPeakThreadCount() <= 2);
+        Assert.assertTrue(new DiffBuilder().buildDiff(sourceIndex,
+                new IndexBuilderNio().buildIndex(targetRoot, new AtomicInteger(0))).isEmpty());
+    }
+
+
+    private static long profile(Runnable runnable, int count) {
+        long start = System.currentTimeMillis();
+        for (int i=0; i<count; i++) {
+            runnable.run();
+        }
+        return (System.currentTimeMillis() - start) / count;
+    }
+
+
+    @Ignore
+    @Test
+    public void testParallelScanAndCopyPerformance() throws IOException {
+        Path deepRoot = Paths.get("target", "deepTree");
+        Path wideRoot = Paths.get("target", "wideTree");
+        FileUtil.deleteRecursively(deepRoot);
+        FileUtil.deleteRecursively(wideRoot);
+        createTree(deepRoot, 7, 3, 3);
+        createTree(wideRoot, 1, 300, 50);
+
+        for (final Path root : new Path[] { deepRoot, wideRoot }) {
+            final IndexBuilderNio nioBuilder = new IndexBuilderNio();
+            final IndexBuilderParallel parallelBuilder = new IndexBuilderParallel(new Throttle(), 16);
+            Runnable nioScan = new Runnable() {
+                @Override
+                public void run() {
+                    nioBuilder.buildIndex(root, new AtomicInteger(0));
+                }
+            };
+            Runnable parallelScan = new Runnable() {
+                @Override
+                public void run() {
+                    parallelBuilder.buildIndex(root, new AtomicInteger(0));
+                }
+            };
+            profile(nioScan, 2);
+            profile(parallelScan, 2);
+            System.out.println(root.getFileName() + " SCAN nio=" + profile(nioScan, 5) + "ms parallel=" + profile(parallelScan, 5) + "ms");
+
+            final DirectoryNode index = nioBuilder.buildIndex(root, new AtomicInteger(0));
+            final Path targetRoot = Paths.get("target", root.getFileName() + "-copy");
+            for (final FileCopier copier : new FileCopier[] { new FileCopierNio(), new ParallelFileCopier(new FileCopierNio(), 16) }) {
+                long time = profile(new Runnable() {
+                    @Override
+                    public void run() {
+                        FileUtil.deleteRecursively(targetRoot);
+                        copier.copy(index, root, targetRoot, new AtomicLong(0), new TaskControl());
+                    }
+                }, 3);
+                System.out.println(root.getFileName() + " COPY " + copier.getClass().getSimpleName() + "=" + time + "ms");
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.model.FileNode;
+import com.jdirsync.serialization.BinaryIndexSerializer;
+import com.jdirsync.serialization.BlockIndexSerializer;
+import com.jdirsync.serialization.IndexSerializer;
+import com.jdirsync.serialization.MappedDirectoryNode;
+import com.jdirsync.serialization.MappedIndexFile;
+import com.jdirsync.serialization.StringIndexSerializer;
+import com.jdirsync.store.IndexStore;
+import com.jdirsync.util.FileUtil;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class IndexSerializerTest {
+    private static DirectoryNode buildTestIndex(int directoryCount, int filesPerDirectory) {
+        long time = 1325376000000L;
+        DirectoryNode rootNode = new DirectoryNode(null);
+        for (int i=0; i<directoryCount; i++) {
+            DirectoryNode directoryNode = new DirectoryNode("directory-" + i);
+            for (int j=0; j<filesPerDirectory; j++) {
+                time = time + (j * 7919) % 100000;
+                directoryNode.add(new FileNode("document-" + i + "-" + j + ".txt", j * 1021L, new Date(time)));
+            }
+            rootNode.add(directoryNode);
+        }
+        return rootNode;
+    }
+
+
+    private static byte[] toBytes(IndexSerializer serializer, DirectoryNode node) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.indexToStream(node, out);
+        return out.toByteArray();
+    }
+
+
+    private static String toText(DirectoryNode node) {
+        return new String(toBytes(new StringIndexSerializer(), node), Charset.forName("UTF8"));
+    }
+
+
+    @Test
+    public void testBinaryRoundTrip() {
+        DirectoryNode rootNode = buildTestIndex(3, 5);
+        DirectoryNode subDirectory = new DirectoryNode("\u017elu\u0165ou\u010dk\u00fd k\u016f\u0148");
+        subDirectory.add(new FileNode("\u017elu\u0165ou\u010dk\u00fd", 10, new Date(1000), "8d777f385d3dfec8815d20f7496026dc"));
+        subDirectory.add(new FileNode("\u017elu\u0165ou\u010dk\u00fd-\ud83d\ude00", 0, new Date(-1000), "not-hex"));
+        subDirectory.add(new FileNode("\u017elu\u0165ou\u010dk\u00fd-\ud83d\ude01", Long.MAX_VALUE, new Date(Long.MAX_VALUE)));
+        subDirectory.add(new DirectoryNode("unexpanded", false));
+        subDirectory.add(new DirectoryNode("empty"));
+        rootNode.add(subDirectory);
+
+        DirectoryNode result = new BinaryIndexSerializer().indexFromStream(
+                new ByteArrayInputStream(toBytes(new BinaryIndexSerializer(), rootNode)));
+
+        Assert.assertEquals(toText(rootNode), toText(result));
+    }
+
+
+    @Test
+    public void testTextRoundTrip() {
+        // Large enough to cross buffer boundaries (including a line longer than the buffer)
+        DirectoryNode rootNode = buildTestIndex(50, 200);
+        rootNode.add(new FileNode(new String(new char[100 * 1024]).replace('\0', 'x'), 1, new Date(1)));
+        DirectoryNode subDirectory = new DirectoryNode("\u017elu\u0165ou\u010dk\u00fd k\u016f\u0148");
+        subDirectory.add(new FileNode("min", 0, new Date(Long.MIN_VALUE), "8d777f385d3dfec8815d20f7496026dc"));
+        subDirectory.add(new FileNode("max", Long.MAX_VALUE, new Date(Long.MAX_VALUE)));
+        subDirectory.add(new DirectoryNode("unexpanded", false));
+        rootNode.add(subDirectory);
+
+        DirectoryNode result = new StringIndexSerializer().indexFromStream(
+                new ByteArrayInputStream(toBytes(new StringIndexSerializer(), rootNode)));
+
+        Assert.assertEquals(toText(rootNode), toText(result));
+    }
+
+
+    @Test
+    public void testTextLineEndings() {
+        String text = "0\tdir\r\n1\tfile\t10\t1000\r\n0\tlast\t20\t2000";
+        DirectoryNode result = new StringIndexSerializer().indexFromStream(
+                new ByteArrayInputStream(text.getBytes(Charset.forName("UTF8"))));
+
+        Assert.assertEquals("0\tdir\n1\tfile\t10\t1000\n0\tlast\t20\t2000\n", toText(result));
+    }
+
+
+    @Test(expected = RuntimeException.class)
+    public void testTextRejectsInvalidNumber() {
+        new StringIndexSerializer().indexFromStream(
+                new ByteArrayInputStream("0\tfile\t10x\t1000\n".getBytes(Charset.forName("UTF8"))));
+    }
+
+
+    @Test(expected = RuntimeException.class)
+    public void testBinaryRejectsTextIndex() {
+        new BinaryIndexSerializer().indexFromStream(
+                new ByteArrayInputStream(toBytes(new StringIndexSerializer(), buildTestIndex(1, 1))));
+    }
+
+
+    @Test
+    public void testBlockRoundTrip() {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            DirectoryNode rootNode = buildTestIndex(20, 30);
+            rootNode.getDirectory(new String[] { "directory-3" }).add(buildTestIndex(5, 10).getChild("directory-4"));
+            rootNode.add(new DirectoryNode("unexpanded", false));
+            IndexSerializer serializer = new BlockIndexSerializer(executorService, 50);
+
+            DirectoryNode result = serializer.indexFromStream(new ByteArrayInputStream(toBytes(serializer, rootNode)));
+
+            Assert.assertEquals(toText(rootNode), toText(result));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testBlockCorruptionIsIsolated() {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            // Root block with directory-0, other directories in their own blocks
+            DirectoryNode rootNode = buildTestIndex(5, 20);
+            IndexSerializer serializer = new BlockIndexSerializer(executorService, 25);
+            byte[] data = toBytes(serializer, rootNode);
+
+            // Corrupt the last block (directory-4)
+            data[data.length - 1] ^= 0x55;
+            DirectoryNode result = serializer.indexFromStream(new ByteArrayInputStream(data));
+
+            Assert.assertFalse(((DirectoryNode) result.getChild("directory-4")).isExpanded());
+            rootNode.replace("directory-4", new DirectoryNode("directory-4", false));
+            Assert.assertEquals(toText(rootNode), toText(result));
+
+            // Corrupt the root block - its files would be missing, load fails instead
+            data = toBytes(serializer, rootNode);
+            int rootBlockDataOffset = 4 + 1 + 4 + 12;
+            data[rootBlockDataOffset] ^= 0x55;
+            try {
+                serializer.indexFromStream(new ByteArrayInputStream(data));
+                Assert.fail("Corrupted root block was not reported");
+            } catch (RuntimeException ex) {
+                Assert.assertTrue(ex.getMessage().contains("Root block"));
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testMappedIndexFile() {
+        DirectoryNode rootNode = buildTestIndex(3, 5);
+        DirectoryNode subDirectory = new DirectoryNode("sub");
+        subDirectory.add(new FileNode("file", 10, new Date(1000), "8d777f385d3dfec8815d20f7496026dc"));
+        subDirectory.add(new DirectoryNode("unexpanded", false));
+        subDirectory.add(new DirectoryNode("empty"));
+        rootNode.getDirectory(new String[] { "directory-1" }).add(subDirectory);
+
+        Path path = Paths.get("target", "mapped-index.dat");
+        MappedIndexFile.write(rootNode, path);
+
+        // Only visited directories are decoded
+        MappedDirectoryNode result = (MappedDirectoryNode) MappedIndexFile.open(path);
+        Assert.assertFalse(result.isLoaded());
+        MappedDirectoryNode directory1 = (MappedDirectoryNode) result.getChild("directory-1");
+        Assert.assertTrue(result.isLoaded());
+        Assert.assertFalse(directory1.isLoaded());
+        Assert.assertFalse(((MappedDirectoryNode) result.getChild("directory-2")).isLoaded());
+        Assert.assertEquals(10, directory1.getDirectory(new String[] { "sub" }).getChild("file").getSize());
+
+        Assert.assertEquals(toText(rootNode), toText(MappedIndexFile.open(path)));
+    }
+
+
+    @Test
+    public void testMappedIndexCorruptionIsReported() throws Exception {
+        DirectoryNode rootNode = new DirectoryNode(null);
+        for (int i=0; i<3; i++) {
+            rootNode.add(new FileNode("file-" + i, i, new Date(i * 1000L)));
+        }
+        Path path = Paths.get("target", "mapped-index-corrupted.dat");
+        MappedIndexFile.write(rootNode, path);
+
+        // Child count of the root (after magic and version) is larger than the number of encoded children
+        byte[] data = Files.readAllBytes(path);
+        data[5] = 100;
+        Files.write(path, data);
+
+        DirectoryNode result = MappedIndexFile.open(path);
+        for (int i=0; i<2; i++) {
+            try {
+                result.getChildren();
+                Assert.fail("Corrupted directory was not reported");
+            } catch (RuntimeException ex) {
+                Assert.assertTrue(ex.getMessage().contains("corrupted"));
+            }
+        }
+        Assert.assertFalse(((MappedDirectoryNode) result).isLoaded());
+    }
+
+
+    @Test
+    public void testParallelTextOutputIsIdentical() {
+        DirectoryNode rootNode = buildTestIndex(20, 30);
+        rootNode.getDirectory(new String[] { "directory-3" }).add(buildTestIndex(5, 100).getChild("directory-4"));
+        rootNode.add(new DirectoryNode("unexpanded", false));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            byte[] expected = toBytes(new StringIndexSerializer(), rootNode);
+            Assert.assertArrayEquals(expected, toBytes(new StringIndexSerializer(executorService, 7), rootNode));
+            Assert.assertArrayEquals(expected, toBytes(new StringIndexSerializer(executorService), rootNode));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+
+    private long profileSave(IndexSerializer serializer, DirectoryNode rootNode, int count) {
+        long start = System.currentTimeMillis();
+        for (int i=0; i<count; i++) {
+            toBytes(serializer, rootNode);
+        }
+        return (System.currentTimeMillis() - start) / count;
+    }
+
+
+    private long profileLoad(IndexSerializer serializer, byte[] data, int count) {
+        long start = System.currentTimeMillis();
+        for (int i=0; i<count; i++) {
+            serializer.indexFromStream(new ByteArrayInputStream(data));
+        }
+        return (System.currentTimeMillis() - start) / count;
+    }
+
+
+    @Test
+    public void testIndexStoreHistory() throws Exception {
+        Path directory = Paths.get("target", "index-store");
+        FileUtil.deleteRecursively(directory);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        // Compact after every second change
+        IndexStore store = new IndexStore(directory, executorService, Long.MAX_VALUE, 2);
+        List<String> expected = new ArrayList<>();
+        DirectoryNode rootNode = buildTestIndex(3, 5);
+        for (int i=0; i<6; i++) {
+            store.commit(rootNode);
+            expected.add(toText(rootNode));
+
+            rootNode = (DirectoryNode) rootNode.copy();
+            DirectoryNode directoryNode = rootNode.getDirectory(new String[] { "directory-" + (i % 3) });
+            directoryNode.remove(directoryNode.getChildren().get(0));
+            directoryNode.add(new FileNode("added-" + i, i, new Date(i * 1000L)));
+            rootNode.add(new DirectoryNode("new-" + i));
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+
+        List<IndexStore.Snapshot> snapshots = store.listSnapshots();
+        Assert.assertEquals(6, snapshots.size());
+        for (int i=0; i<6; i++) {
+            Assert.assertEquals(expected.get(i), toText(store.loadSnapshot(snapshots.get(i))));
+        }
+
+        // Reopened store replays journals
+        IndexStore reopenedStore = new IndexStore(directory, executorService, Long.MAX_VALUE, 2);
+        snapshots = reopenedStore.listSnapshots();
+        Assert.assertEquals(6, snapshots.size());
+        Assert.assertEquals(expected.get(3), toText(reopenedStore.loadSnapshot(snapshots.get(3))));
+        Assert.assertEquals(expected.get(5), toText(reopenedStore.loadSnapshot(snapshots.get(5))));
+    }
+
+
+    @Test
+    public void testIndexStoreExactChanges() throws Exception {
+        Path directory = Paths.get("target", "index-store-exact");
+        FileUtil.deleteRecursively(directory);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        IndexStore store = new IndexStore(directory, executorService, Long.MAX_VALUE, 1000);
+
+        DirectoryNode rootNode = buildTestIndex(2, 3);
+        rootNode.getDirectory(new String[] { "directory-0" }).add(new FileNode("hashed", 10, new Date(1000), "8d777f385d3dfec8815d20f7496026dc"));
+        rootNode.add(new DirectoryNode("unexpanded", false));
+        store.commit(rootNode);
+
+        // Only modification time changes (same digest - no difference for synchronization)
+        DirectoryNode mtimeChanged = (DirectoryNode) rootNode.copy();
+        mtimeChanged.getDirectory(new String[] { "directory-0" })
+                .replace("hashed", new FileNode("hashed", 10, new Date(2000), "8d777f385d3dfec8815d20f7496026dc"));
+        store.commit(mtimeChanged);
+
+        // Only digest is set
+        DirectoryNode digestSet = (DirectoryNode) mtimeChanged.copy();
+        FileNode fileNode = (FileNode) digestSet.getDirectory(new String[] { "directory-1" }).getChildren().get(0);
+        digestSet.getDirectory(new String[] { "directory-1" }).replace(fileNode.getName(),
+                new FileNode(fileNode.getName(), fileNode.getSize(), fileNode.getModificationTime(), "00112233445566778899aabbccddeeff"));
+        store.commit(digestSet);
+
+        // Directory is expanded
+        DirectoryNode expanded = (DirectoryNode) digestSet.copy();
+        expanded.replace("unexpanded", new DirectoryNode("unexpanded"));
+        store.commit(expanded);
+        executorService.shutdown();
+
+        List<IndexStore.Snapshot> snapshots = store.listSnapshots();
+        Assert.assertEquals(4, snapshots.size());
+        Assert.assertEquals(toText(mtimeChanged), toText(store.loadSnapshot(snapshots.get(1))));
+        Assert.assertEquals(toText(digestSet), toText(store.loadSnapshot(snapshots.get(2))));
+        Assert.assertEquals(toText(expanded), toText(store.loadSnapshot(snapshots.get(3))));
+        Assert.assertTrue(store.loadSnapshot(snapshots.get(3)).getDirectory(new String[] { "unexpanded" }).isExpanded());
+    }
+
+
+    @Test
+    public void testIndexStoreTornAppend() throws Exception {
+        Path directory = Paths.get("target", "index-store-torn");
+        FileUtil.deleteRecursively(directory);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        IndexStore store = new IndexStore(directory, executorService, Long.MAX_VALUE, 1000);
+
+        DirectoryNode first = buildTestIndex(2, 3);
+        store.commit(first);
+        DirectoryNode second = (DirectoryNode) first.copy();
+        second.add(new FileNode("second", 2, new Date(2000)));
+        store.commit(second);
+
+        // Crash during append - frame header and part of the payload
+        try (OutputStream out = Files.newOutputStream(directory.resolve("journal-1.log"), StandardOpenOption.APPEND)) {
+            out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3, 4, 5, 6 });
+        }
+
+        IndexStore reopenedStore = new IndexStore(directory, executorService, Long.MAX_VALUE, 1000);
+        Assert.assertEquals(2, reopenedStore.listSnapshots().size());
+        DirectoryNode third = (DirectoryNode) second.copy();
+        third.add(new FileNode("third", 3, new Date(3000)));
+        reopenedStore.commit(third);
+
+        // Snapshot committed after the crash survives another reopen
+        IndexStore lastStore = new IndexStore(directory, executorService, Long.MAX_VALUE, 1000);
+        List<IndexStore.Snapshot> snapshots = lastStore.listSnapshots();
+        Assert.assertEquals(3, snapshots.size());
+        Assert.assertEquals(toText(second), toText(lastStore.loadSnapshot(snapshots.get(1))));
+        Assert.assertEquals(toText(third), toText(lastStore.loadSnapshot(snapshots.get(2))));
+        executorService.shutdown();
+    }
+
+
+    @Ignore
+    @Test
+    public void testSerializationPerformance() {
+        DirectoryNode rootNode = buildTestIndex(1000, 1000);
+        byte[] textData = toBytes(new StringIndexSerializer(), rootNode);
+        byte[] binaryData = toBytes(new BinaryIndexSerializer(), rootNode);
+
+        // Warm up
+        profileLoad(new StringIndexSerializer(), textData, 2);
+        profileLoad(new BinaryIndexSerializer(), binaryData, 2);
+
+        System.out.println("TEXT=" + textData.length + "B " + profileLoad(new StringIndexSerializer(), textData, 5) + "ms");
+        System.out.println("BINARY=" + binaryData.length + "B " + profileLoad(new BinaryIndexSerializer(), binaryData, 5) + "ms");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        IndexSerializer parallelTextSerializer = new StringIndexSerializer(executorService);
+        profileSave(parallelTextSerializer, rootNode, 2);
+        System.out.println("TEXT SAVE sequential=" + profileSave(new StringIndexSerializer(), rootNode, 3)
+                + "ms parallel=" + profileSave(parallelTextSerializer, rootNode, 3) + "ms");
+
+        IndexSerializer blockSerializer = new BlockIndexSerializer(executorService);
+        byte[] blockData = toBytes(blockSerializer, rootNode);
+        profileLoad(blockSerializer, blockData, 2);
+        System.out.println("BLOCK=" + blockData.length + "B " + profileLoad(blockSerializer, blockData, 5) + "ms");
+        executorService.shutdown();
+
+        Path path = Paths.get("target", "mapped-index.dat");
+        MappedIndexFile.write(rootNode, path);
+        long start = System.nanoTime();
+        DirectoryNode mappedRoot = MappedIndexFile.open(path);
+        long openTime = System.nanoTime() - start;
+        mappedRoot.getDirectory(new String[] { "directory-500" }).getChildren();
+        long scopedTime = System.nanoTime() - start;
+        System.out.println("MAPPED open=" + openTime / 1000 + "us, one directory=" + scopedTime / 1000 + "us");
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.builder.DiffBuilder;
+import com.jdirsync.builder.IndexBuilder;
+import com.jdirsync.builder.IndexBuilderNio;
+import com.jdirsync.builder.SidecarIndexBuilder;
+import com.jdirsync.core.TaskControl;
+import com.jdirsync.core.Throttle;
+import com.jdirsync.metrics.LatencyHistogram;
+import com.jdirsync.metrics.MetricsRegistry;
+import com.jdirsync.model.DiffRecord;
+import com.jdirsync.model.DirectoryNode;
+import com.jdirsync.serialization.BinaryIndexSerializer;
+import com.jdirsync.synchronizer.FileDeleterNio;
+import com.jdirsync.synchronizer.PipelinedFileCopier;
+import com.jdirsync.synchronizer.StagingFileDeleter;
+import com.jdirsync.synchronizer.SyncListener;
+import com.jdirsync.synchronizer.Synchronizer;
+import com.jdirsync.synchronizer.SynchronizerImpl;
+import com.jdirsync.synchronizer.VerifyMode;
+import com.jdirsync.util.FileUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SynchronizerTest {
+    private Path leftRoot = Paths.get("target", "syncLeft");
+    private Path rightRoot = Paths.get("target", "syncRight");
+    private DirectoryNode leftIndex;
+    private DirectoryNode rightIndex;
+    private List<DiffRecord> diffList;
+
+
+    @Before
+    public void setUp() throws IOException {
+        FileUtil.deleteRecursively(leftRoot);
+        FileUtil.deleteRecursively(rightRoot);
+
+        FileUtil.createDirectories(leftRoot.resolve("dir1"));
+        FileUtil.createDirectories(rightRoot);
+        Files.write(leftRoot.resolve(Paths.get("dir1", "file1.bin")), new byte[64 * 1024]);
+        FileUtil.writeStringToFile(leftRoot.resolve("file2.txt"), "data2");
+
+        leftIndex = new IndexBuilderNio().buildIndex(leftRoot, new AtomicInteger(0));
+        rightIndex = new IndexBuilderNio().buildIndex(rightRoot, new AtomicInteger(0));
+        diffList = new DiffBuilder().buildDiff(leftIndex, rightIndex);
+        for (DiffRecord diffRecord : diffList) {
+            diffRecord.setAction(DiffRecord.Action.USE_LEFT);
+        }
+    }
+
+
+    private Synchronizer buildSynchronizer(Throttle throttle) {
+        return new SynchronizerImpl(new PipelinedFileCopier(2, 1024, VerifyMode.NONE, throttle), new FileDeleterNio(throttle));
+    }
+
+
+    @Test
+    public void testSynchronize() {
+        buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                new AtomicLong(), new AtomicLong(), new TaskControl(), null);
+
+        Assert.assertTrue(new DiffBuilder().buildDiff(leftIndex, rightIndex).isEmpty());
+        Assert.assertTrue(new DiffBuilder().buildDiff(leftIndex,
+                new IndexBuilderNio().buildIndex(rightRoot, new AtomicInteger(0))).isEmpty());
+    }
+
+
+    @Test
+    public void testScopedRescan() {
+        buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                new AtomicLong(), new AtomicLong(), new TaskControl(), null);
+        FileUtil.writeStringToFile(leftRoot.resolve(Paths.get("dir1", "file3.txt")), "data3");
+
+        // Re-scan only dir1 and splice it into the indexes
+        String[] path = new String[] { "dir1" };
+        leftIndex.replace("dir1", new IndexBuilderNio().buildIndex(leftRoot, path, new AtomicInteger(0)));
+        rightIndex.replace("dir1", new IndexBuilderNio().buildIndex(rightRoot, path, new AtomicInteger(0)));
+
+        List<DiffRecord> scopedDiffList = new DiffBuilder().buildDiff(new String[0], leftIndex, rightIndex, "dir1");
+        Assert.assertEquals(1, scopedDiffList.size());
+        Assert.assertEquals("dir1/file3.txt", scopedDiffList.get(0).getFullPathString());
+        Assert.assertEquals(1, new DiffBuilder().buildDiff(leftIndex, rightIndex).size());
+        Assert.assertNull(new IndexBuilderNio().buildIndex(rightRoot, new String[] { "missing" }, new AtomicInteger(0)));
+    }
+
+
+    private List<String> getFullPaths(List<DiffRecord> diffRecords) {
+        List<String> result = new ArrayList<>();
+        for (DiffRecord diffRecord : diffRecords) {
+            result.add(diffRecord.getFullPathString());
+        }
+        return result;
+    }
+
+
+    @Test
+    public void testIndexSidecar() {
+        long scanTime = System.currentTimeMillis();
+        buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                new AtomicLong(), new AtomicLong(), new TaskControl(), null);
+        SidecarIndexBuilder sidecarIndexBuilder = new SidecarIndexBuilder(new IndexBuilderNio(), new BinaryIndexSerializer(), 1000);
+        sidecarIndexBuilder.saveIndex(rightRoot, rightIndex, scanTime, getFullPaths(diffList));
+
+        // Unchanged root is loaded from sidecar
+        DirectoryNode loadedIndex = sidecarIndexBuilder.loadIndex(rightRoot, new AtomicInteger(0));
+        Assert.assertNotNull(loadedIndex);
+        Assert.assertTrue(new DiffBuilder().buildDiff(loadedIndex, new IndexBuilderNio().buildIndex(rightRoot, new AtomicInteger(0))).isEmpty());
+
+        // Added file is caught by the spot-checks and the root is walked instead
+        FileUtil.writeStringToFile(rightRoot.resolve(Paths.get("dir1", "file3.txt")), "data3");
+        Assert.assertNull(sidecarIndexBuilder.loadIndex(rightRoot, new AtomicInteger(0)));
+        Assert.assertNotNull(sidecarIndexBuilder.buildIndex(rightRoot, new AtomicInteger(0))
+                .getDirectory(new String[] { "dir1" }).getChild("file3.txt"));
+    }
+
+
+    @Test
+    public void testIndexSidecarScanTime() throws IOException {
+        // Scanned a while ago, only directory modification times are checked
+        long scanTime = System.currentTimeMillis() - 60000;
+        buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                new AtomicLong(), new AtomicLong(), new TaskControl(), null);
+        SidecarIndexBuilder sidecarIndexBuilder = new SidecarIndexBuilder(new IndexBuilderNio(), new BinaryIndexSerializer(), 0);
+
+        // Directories written by the synchronization are expected to be newer than the scan
+        sidecarIndexBuilder.saveIndex(rightRoot, rightIndex, scanTime, getFullPaths(diffList));
+        Assert.assertNotNull(sidecarIndexBuilder.loadIndex(rightRoot, new AtomicInteger(0)));
+
+        // ... other directories modified after the scan (e.g. between Compare and Synchronize) are not
+        sidecarIndexBuilder.saveIndex(rightRoot, rightIndex, scanTime, Collections.singletonList("file2.txt"));
+        Assert.assertNull(sidecarIndexBuilder.loadIndex(rightRoot, new AtomicInteger(0)));
+    }
+
+
+    @Test
+    public void testLazyIndexAndSynchronizeUnknown() {
+        buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                new AtomicLong(), new AtomicLong(), new TaskControl(), null);
+        FileUtil.writeStringToFile(leftRoot.resolve(Paths.get("dir1", "file3.txt")), "data3");
+
+        // Only root is listed - dir1 is reported as UNKNOWN
+        IndexBuilder lazyIndexBuilder = new IndexBuilderNio(new Throttle(), 1);
+        DirectoryNode lazyLeftIndex = lazyIndexBuilder.buildIndex(leftRoot, new AtomicInteger(0));
+        DirectoryNode lazyRightIndex = lazyIndexBuilder.buildIndex(rightRoot, new AtomicInteger(0));
+        List<DiffRecord> lazyDiffList = new DiffBuilder().buildDiff(lazyLeftIndex, lazyRightIndex);
+        Assert.assertEquals(1, lazyDiffList.size());
+        Assert.assertEquals(DiffRecord.DiffType.UNKNOWN, lazyDiffList.get(0).getDiffType());
+
+        // Synchronization scans the directory and copies only the difference
+        lazyDiffList.get(0).setAction(DiffRecord.Action.USE_LEFT);
+        buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, lazyDiffList,
+                new AtomicLong(), new AtomicLong(), new TaskControl(), null);
+
+        Assert.assertTrue(lazyLeftIndex.isFullyExpanded());
+        Assert.assertTrue(new DiffBuilder().buildDiff(lazyLeftIndex, lazyRightIndex).isEmpty());
+        Assert.assertTrue(new DiffBuilder().buildDiff(lazyLeftIndex,
+                new IndexBuilderNio().buildIndex(rightRoot, new AtomicInteger(0))).isEmpty());
+    }
+
+
+    @Test
+    public void testCancelKeepsTreesConsistent() throws InterruptedException {
+        // Slow down copying so that cancel hits in the middle of the first record
+        final Throttle throttle = new Throttle(16 * 1024, 0);
+        final TaskControl taskControl = new TaskControl();
+        final Throwable[] result = new Throwable[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    buildSynchronizer(throttle).synchronize(leftRoot, rightRoot, diffList,
+                            new AtomicLong(), new AtomicLong(), taskControl, null);
+                } catch (Throwable ex) {
+                    result[0] = ex;
+                }
+            }
+        });
+        thread.start();
+        Thread.sleep(300);
+        taskControl.cancel();
+        thread.join(5000);
+
+        Assert.assertTrue(result[0] instanceof CancellationException);
+
+        // In-memory tree matches the file system - the partially copied record was rolled back
+        Assert.assertTrue(new DiffBuilder().buildDiff(rightIndex,
+                new IndexBuilderNio().buildIndex(rightRoot, new AtomicInteger(0))).isEmpty());
+        Assert.assertEquals(2, new DiffBuilder().buildDiff(leftIndex, rightIndex).size());
+    }
+
+
+    @Test
+    public void testFailedRecordDoesNotStopSynchronization() throws IOException {
+        // Target created after the index was built - the record must fail without touching it
+        FileUtil.writeStringToFile(rightRoot.resolve("file2.txt"), "changed");
+
+        final Map<DiffRecord, SyncListener.Outcome> outcomes = new HashMap<>();
+        try {
+            buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                    new AtomicLong(), new AtomicLong(), new TaskControl(), new SyncListener() {
+                        @Override
+                        public void onRecordSynchronized(DiffRecord diffRecord, Outcome outcome) {
+                            outcomes.put(diffRecord, outcome);
+                        }
+                    });
+            Assert.fail("Failure expected");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+
+        Assert.assertEquals(2, outcomes.size());
+        for (DiffRecord diffRecord : diffList) {
+            if (diffRecord.getName().equals("file2.txt")) {
+                Assert.assertEquals(SyncListener.Outcome.FAILED, outcomes.get(diffRecord));
+                Assert.assertEquals("changed", new String(Files.readAllBytes(rightRoot.resolve("file2.txt")), "UTF-8"));
+                Assert.assertEquals(1, new DiffBuilder().buildDiff(diffRecord).size());
+            } else {
+                Assert.assertEquals(SyncListener.Outcome.FINISHED, outcomes.get(diffRecord));
+                Assert.assertTrue(new DiffBuilder().buildDiff(diffRecord).isEmpty());
+            }
+        }
+    }
+
+
+    @Test
+    public void testPauseAndResume() throws InterruptedException {
+        final TaskControl taskControl = new TaskControl();
+        taskControl.pause();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                        new AtomicLong(), new AtomicLong(), taskControl, null);
+            }
+        });
+        thread.start();
+        Thread.sleep(200);
+        Assert.assertTrue(thread.isAlive());
+        Assert.assertFalse(Files.exists(rightRoot.resolve("file2.txt")));
+
+        taskControl.resume();
+        thread.join(5000);
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertTrue(Files.exists(rightRoot.resolve("file2.txt")));
+    }
+
+
+    @Test
+    public void testStagingDeleteRestoreAndPurge() throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        StagingFileDeleter deleter = new StagingFileDeleter(executorService, new Throttle(), TimeUnit.HOURS.toMillis(1));
+
+        // Deleted entry is moved to trash (and is not part of the index)
+        deleter.delete(leftRoot, leftRoot.resolve("dir1"));
+        Assert.assertFalse(Files.exists(leftRoot.resolve("dir1")));
+        Assert.assertEquals(1, deleter.listStaged(leftRoot).size());
+        Assert.assertEquals("dir1", deleter.listStaged(leftRoot).get(0).getRelativePath());
+        Assert.assertEquals(1, new IndexBuilderNio().buildIndex(leftRoot, new AtomicInteger(0)).getChildren().size());
+
+        // Restore within retention period
+        deleter.restore(deleter.listStaged(leftRoot).get(0));
+        Assert.assertTrue(Files.exists(leftRoot.resolve(Paths.get("dir1", "file1.bin"))));
+        Assert.assertTrue(deleter.listStaged(leftRoot).isEmpty());
+
+        // Purge after retention period expired
+        StagingFileDeleter purgingDeleter = new StagingFileDeleter(executorService, new Throttle(), 0);
+        purgingDeleter.delete(leftRoot, leftRoot.resolve("dir1"));
+        purgingDeleter.onSynchronizationFinished(leftRoot);
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+        Assert.assertTrue(purgingDeleter.listStaged(leftRoot).isEmpty());
+        Assert.assertFalse(Files.exists(leftRoot.resolve("dir1")));
+    }
+
+
+    @Test
+    public void testMetrics() {
+        // Registry is process-wide - only the increments are checked
+        MetricsRegistry.Snapshot before = MetricsRegistry.getDefault().snapshot();
+        new DiffBuilder().buildDiff(leftIndex, rightIndex);
+        buildSynchronizer(new Throttle()).synchronize(leftRoot, rightRoot, diffList,
+                new AtomicLong(), new AtomicLong(), new TaskControl(), null);
+        FileUtil.deleteRecursively(rightRoot.resolve("dir1"));
+        MetricsRegistry.Snapshot after = MetricsRegistry.getDefault().snapshot();
+
+        Assert.assertEquals(2, after.getCounter("diff.records.MISSING_RIGHT") - before.getCounter("diff.records.MISSING_RIGHT"));
+        Assert.assertEquals(2, after.getCounter("copy.files") - before.getCounter("copy.files"));
+        Assert.assertEquals(64 * 1024 + 5, after.getCounter("copy.bytes") - before.getCounter("copy.bytes"));
+        Assert.assertEquals(2, after.getCounter("delete.entries") - before.getCounter("delete.entries"));
+        Assert.assertTrue(after.ratesSince(before).get("copy.bytes") > 0);
+        Assert.assertTrue(after.getHistograms().get("scan.readdir").getCount() > 0);
+
+        // Percentiles are upper bounds of power-of-two microsecond buckets
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals(128, snapshot.getPercentileMicros(50));
+        Assert.assertEquals(128, snapshot.getPercentileMicros(99));
+        Assert.assertEquals(16384, snapshot.getPercentileMicros(100));
+    }
+}
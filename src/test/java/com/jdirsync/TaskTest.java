@@ -0,0 +1,317 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.jdirsync;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jdirsync.builder.IndexBuilderNio;
+import com.jdirsync.core.Action1;
+import com.jdirsync.core.Func1;
+import com.jdirsync.core.MonitoredExecutor;
+import com.jdirsync.core.Func2;
+import com.jdirsync.core.ProgressChannel;
+import com.jdirsync.core.Promise;
+import com.jdirsync.task.BuildIndexTask;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TaskTest {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executorService;
+
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executorService = Executors.newCachedThreadPool();
+    }
+
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        executorService.shutdownNow();
+    }
+
+
+    @Test
+    public void testProgressChannelCoalescesUpdates() throws InterruptedException {
+        ProgressChannel channel = new ProgressChannel(scheduler, DIRECT_EXECUTOR, 50);
+        final List<Map<String, Object>> batches = Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        channel.subscribe(new Action1<Map<String, Object>>() {
+            @Override
+            public void invoke(Map<String, Object> batch) {
+                batches.add(batch);
+                if (batch.containsKey("copy" + ProgressChannel.DONE_SUFFIX)) {
+                    doneLatch.countDown();
+                }
+            }
+        });
+
+        AtomicLong counter = new AtomicLong();
+        channel.track("copy.bytes", counter);
+        long start = System.currentTimeMillis();
+        for (int i=0; i<100000; i++) {
+            counter.incrementAndGet();
+            channel.publish("copy.phase", (i < 50000) ? "first" : "second");
+        }
+        channel.publish("copy" + ProgressChannel.DONE_SUFFIX, Boolean.TRUE);
+        Assert.assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+        long frameCount = (System.currentTimeMillis() - start) / 50 + 2;
+
+        // At most one batch per frame, the last one carries the latest values
+        Assert.assertTrue(batches.size() <= frameCount);
+        Map<String, Object> lastBatch = batches.get(batches.size() - 1);
+        Assert.assertEquals(100000L, lastBatch.get("copy.bytes"));
+        Assert.assertEquals("second", lastBatch.get("copy.phase"));
+
+        // Nothing is delivered when nothing changes
+        int batchCount = batches.size();
+        Thread.sleep(200);
+        Assert.assertEquals(batchCount, batches.size());
+        channel.close();
+    }
+
+
+    @Test
+    public void testTaskPublishesCompletion() throws Exception {
+        final ProgressChannel channel = new ProgressChannel(scheduler, DIRECT_EXECUTOR, 10);
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        final BuildIndexTask task = BuildIndexTask.start(executorService, new IndexBuilderNio(),
+                Paths.get("src"), channel, "left");
+        channel.subscribe(new Action1<Map<String, Object>>() {
+            @Override
+            public void invoke(Map<String, Object> batch) {
+                if (Boolean.TRUE.equals(batch.get("left" + ProgressChannel.DONE_SUFFIX))) {
+                    Assert.assertTrue(task.isDone());
+                    Assert.assertEquals((long) task.getFileCount(), batch.get("left" + BuildIndexTask.FILES_SUFFIX));
+                    channel.close();
+                    doneLatch.countDown();
+                }
+            }
+        });
+
+        Assert.assertTrue(doneLatch.await(10, TimeUnit.SECONDS));
+        Assert.assertNotNull(task.get());
+    }
+
+
+    @Test
+    public void testPromisePipeline() throws Exception {
+        Promise<Integer> left = Promise.submit(executorService, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 20;
+            }
+        });
+        Promise<Integer> right = Promise.submit(executorService, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 22;
+            }
+        });
+
+        // left || right -> sum -> text (composed stage)
+        Promise<String> result = Promise.combine(left, right, executorService, new Func2<Integer, Integer, Integer>() {
+            @Override
+            public Integer invoke(Integer arg1, Integer arg2) {
+                return arg1 + arg2;
+            }
+        }).compose(executorService, new Func1<Integer, Promise<String>>() {
+            @Override
+            public Promise<String> invoke(Integer sum) {
+                return Promise.completed("sum=" + sum);
+            }
+        });
+        Assert.assertEquals("sum=42", result.get(5, TimeUnit.SECONDS));
+    }
+
+
+    @Test
+    public void testPromiseCombineOfCompletedSources() throws Exception {
+        // Callbacks of both sources are queued and both see both sources done
+        final List<Runnable> queued = new ArrayList<>();
+        Executor queueExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+        final AtomicLong invocationCount = new AtomicLong();
+        Promise<Integer> result = Promise.combine(Promise.completed(20), Promise.completed(22), queueExecutor,
+                new Func2<Integer, Integer, Integer>() {
+            @Override
+            public Integer invoke(Integer arg1, Integer arg2) {
+                invocationCount.incrementAndGet();
+                return arg1 + arg2;
+            }
+        });
+        Assert.assertEquals(2, queued.size());
+        for (Runnable callback : queued) {
+            callback.run();
+        }
+        Assert.assertEquals(42, (int) result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, invocationCount.get());
+    }
+
+
+    @Test
+    public void testPromiseFailureAndCancellation() throws Exception {
+        Promise<Integer> failed = Promise.submit(executorService, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                throw new IllegalStateException("scan failed");
+            }
+        });
+        Promise<Integer> derived = failed.then(executorService, new Func1<Integer, Integer>() {
+            @Override
+            public Integer invoke(Integer value) {
+                return value + 1;
+            }
+        });
+        try {
+            derived.get(5, TimeUnit.SECONDS);
+            Assert.fail("Failure was not propagated");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+
+        // Cancelling the last stage cancels the running source
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        Promise<Integer> blocked = Promise.submit(executorService, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                startedLatch.countDown();
+                Thread.sleep(60000);
+                return 0;
+            }
+        });
+        Promise<Integer> stage = blocked.then(executorService, new Func1<Integer, Integer>() {
+            @Override
+            public Integer invoke(Integer value) {
+                return value;
+            }
+        });
+        Assert.assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+        stage.cancel(true);
+        Assert.assertTrue(blocked.isCancelled());
+
+        // Timeout fails the promise and cancels the source
+        Promise<Integer> neverCompleted = new Promise<>();
+        try {
+            neverCompleted.withTimeout(scheduler, 50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            Assert.fail("Timeout did not fire");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        for (int i=0; i<500 && !neverCompleted.isCancelled(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(neverCompleted.isCancelled());
+    }
+
+
+    @Test
+    public void testMonitoredExecutorBackpressure() throws Exception {
+        final MonitoredExecutor executor = new MonitoredExecutor("test", 1, 2);
+        try {
+            final CountDownLatch releaseLatch = new CountDownLatch(1);
+            final AtomicLong callerRunsCount = new AtomicLong();
+            final AtomicLong overflowRunsCount = new AtomicLong();
+            final Thread testThread = Thread.currentThread();
+            for (int i=0; i<5; i++) {
+                final int index = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Non-worker thread never runs the task itself
+                        Assert.assertNotSame(testThread, Thread.currentThread());
+                        if (index == 0) {
+                            try {
+                                releaseLatch.await();
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                            }
+                            // Worker submitting to its own saturated pool runs the task itself
+                            final Thread workerThread = Thread.currentThread();
+                            for (int j=0; j<3; j++) {
+                                executor.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        if (Thread.currentThread() == workerThread) {
+                                            callerRunsCount.incrementAndGet();
+                                        }
+                                    }
+                                });
+                            }
+                        } else if (index >= 3) {
+                            overflowRunsCount.incrementAndGet();
+                        }
+                    }
+                });
+                while (i == 0 && executor.getActiveCount() == 0) {
+                    Thread.sleep(1);
+                }
+            }
+
+            // Submission did not block - tasks over the queue capacity wait in the overflow queue
+            Assert.assertEquals(1, executor.getActiveCount());
+            Assert.assertEquals(2, executor.getQueueDepth());
+            Assert.assertEquals(2, executor.getOverflowDepth());
+            Assert.assertEquals(2, executor.getOverflowCount());
+            Assert.assertEquals(0, executor.getCallerRunsCount());
+
+            releaseLatch.countDown();
+            for (int i=0; i<500 && executor.getCompletedTaskCount() < 5; i++) {
+                Thread.sleep(10);
+            }
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, overflowRunsCount.get());
+            Assert.assertEquals(3, callerRunsCount.get());
+            Assert.assertEquals(3, executor.getCallerRunsCount());
+            Assert.assertTrue(executor.toString().contains("completed=8"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}